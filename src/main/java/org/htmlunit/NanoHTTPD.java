@@ -3,12 +3,24 @@ package org.htmlunit;
 
 import java.io.*;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.io.IOUtils;
 
@@ -39,6 +51,11 @@ import org.apache.commons.io.IOUtils;
  * <li>Supports ETags</li>
  * <li>Never caches anything</li>
  * <li>Doesn't limit bandwidth, request time or simultaneous connections</li>
+ * <li>Connections are multiplexed by a single NIO selector thread, requests are served by a bounded pool of workers</li>
+ * <li>Supports HTTP/1.1 persistent connections and pipelined requests, idle connections are closed after a timeout</li>
+ * <li>Text responses are compressed with gzip or deflate if the client accepts it</li>
+ * <li>File responses are transferred to the socket with FileChannel.transferTo, without copying them</li>
+ * <li>Supports server-sent events streams, open streams don't hold a thread</li>
  * <li>Default code serves files and shows all HTTP parameters and headers</li>
  * <li>File server supports directory listing, index.html and index.htm</li>
  * <li>File server supports partial content (streaming)</li>
@@ -72,12 +89,75 @@ public abstract class NanoHTTPD {
     public static final String MIME_PLAINTEXT = "text/plain";
     public static final String MIME_HTML = "text/html";
     public static final String MIME_DEFAULT_BINARY = "application/octet-stream";
+    /**
+     * Default number of threads serving requests.
+     */
+    public static final int DEFAULT_WORKER_THREADS = 8;
+    /**
+     * Default time, in milliseconds, an idle persistent connection is kept open.
+     */
+    public static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 15000;
+    /**
+     * Default minimum size, in bytes, of compressed responses.
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+    /**
+     * Supported content encodings, in order of preference.
+     */
+    private static final List<String> CONTENT_ENCODINGS = Arrays.asList("gzip", "deflate");
+    /**
+     * Default maximum size, in bytes, of request bodies buffered in memory.
+     */
+    public static final int DEFAULT_MAX_MEMORY_BODY_SIZE = 1024 * 1024;
+    /**
+     * Default maximum size, in bytes, of request bodies.
+     */
+    public static final long DEFAULT_MAX_BODY_SIZE = 64L * 1024 * 1024;
+    /**
+     * Body of requests without content.
+     */
+    private static final ByteBuffer EMPTY_BODY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+    /**
+     * Buffers to read requests, reused by each worker thread.
+     */
+    private static final ThreadLocal<byte[]> SESSION_BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[HTTPSession.BUFSIZE];
+        }
+    };
+    /**
+     * Interval, in milliseconds, to look for idle connections.
+     */
+    private static final int IDLE_CHECK_INTERVAL = 1000;
+    /**
+     * Maximum size of the request header.
+     */
+    private static final int MAX_HEADER_SIZE = 8192;
+    /**
+     * End of a chunk of a chunked response.
+     */
+    private static final byte[] CRLF = {'\r', '\n'};
+    /**
+     * Last chunk of a chunked response, without trailers.
+     */
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
     private final String hostname;
     private final int myPort;
-    private ServerSocket myServerSocket;
+    private ServerSocketChannel myServerChannel;
+    private Selector mySelector;
     private Thread myThread;
+    private volatile boolean running;
+    private int keepAliveTimeout = DEFAULT_KEEP_ALIVE_TIMEOUT;
+    private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+    private int maxMemoryBodySize = DEFAULT_MAX_MEMORY_BODY_SIZE;
+    private long maxBodySize = DEFAULT_MAX_BODY_SIZE;
     private TempFileManagerFactory tempFileManagerFactory;
     private AsyncRunner asyncRunner;
+    /**
+     * Tasks posted by workers to run in the selector thread.
+     */
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<Runnable>();
 
     /**
      * Constructs an HTTP server on given port.
@@ -94,39 +174,47 @@ public abstract class NanoHTTPD {
     }
 
     /**
-     * Starts the server
+     * Starts the server. It blocks until the server is stopped.
+     * <p/>
+     * A single thread multiplexes all connections using a NIO selector: it
+     * accepts connections and reads requests without blocking. Once a request
+     * is completely read, it's served by the {@link AsyncRunner} and the
+     * response is written back by the selector thread.
      * <p/>
      * Throws an IOException if the socket is already in use
      */
     public void start() throws IOException {
-        myServerSocket = new ServerSocket();
-        myServerSocket.bind((hostname != null) ? new InetSocketAddress(hostname, myPort) : new InetSocketAddress(myPort));
+        mySelector = Selector.open();
+        myServerChannel = ServerSocketChannel.open();
+        myServerChannel.configureBlocking(false);
+        myServerChannel.socket().setReuseAddress(true);
+        myServerChannel.socket().bind((hostname != null) ? new InetSocketAddress(hostname, myPort) : new InetSocketAddress(myPort));
+        myServerChannel.register(mySelector, SelectionKey.OP_ACCEPT);
+        asyncRunner.start();
+        running = true;
 
         myThread = new Thread(new Runnable() {
             @Override
             public void run() {
-                do {
-                    try {
-                        final Socket finalAccept = myServerSocket.accept();
-                        InputStream inputStream = finalAccept.getInputStream();
-                        OutputStream outputStream = finalAccept.getOutputStream();
-                        TempFileManager tempFileManager = tempFileManagerFactory.create();
-                        final HTTPSession session = new HTTPSession(tempFileManager, inputStream, outputStream);
-                        asyncRunner.exec(new Runnable() {
-                            @Override
-                            public void run() {
-                                session.run();
-                                if (finalAccept != null) {
-                                    try {
-                                        finalAccept.close();
-                                    } catch (IOException ignored) {
-                                    }
-                                }
-                            }
-                        });
-                    } catch (IOException e) {
+                try {
+                    while (running) {
+                        mySelector.select(IDLE_CHECK_INTERVAL);
+                        runSelectorTasks();
+                        closeIdleConnections();
+
+                        Iterator<SelectionKey> keys = mySelector.selectedKeys().iterator();
+                        while (keys.hasNext()) {
+                            SelectionKey key = keys.next();
+                            keys.remove();
+                            handleKey(key);
+                        }
                     }
-                } while (!myServerSocket.isClosed());
+                } catch (ClosedSelectorException ignored) {
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    closeAll();
+                }
             }
         });
         myThread.setDaemon(true);
@@ -144,15 +232,246 @@ public abstract class NanoHTTPD {
      */
     public void stop() {
         try {
-            myServerSocket.close();
-            myThread.join();
-        } catch (IOException ioe) {
-            ioe.printStackTrace();
+            running = false;
+            if (mySelector != null) {
+                mySelector.wakeup();
+            }
+            if (myThread != null && myThread != Thread.currentThread()) {
+                myThread.join();
+            }
+            asyncRunner.shutdown();
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Handles a selected key in the selector thread.
+     */
+    private void handleKey(final SelectionKey key) {
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                SocketChannel channel = myServerChannel.accept();
+                if (channel != null) {
+                    channel.configureBlocking(false);
+                    Connection connection = new Connection(channel);
+                    connection.key = channel.register(mySelector, SelectionKey.OP_READ, connection);
+                }
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            if (key.isReadable()) {
+                connection.read(key);
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.write(key);
+            }
+        } catch (IOException e) {
+            closeKey(key);
+        } catch (CancelledKeyException e) {
+            closeKey(key);
+        } catch (RuntimeException e) {
+            // Like a rejected request once the server stops, it must not
+            // kill the selector thread.
+            e.printStackTrace();
+            closeKey(key);
+        }
+    }
+
+    /**
+     * Runs the tasks posted by workers. A failing task doesn't prevent the
+     * remaining ones from running.
+     */
+    private void runSelectorTasks() {
+        Runnable task = selectorTasks.poll();
+        while (task != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            task = selectorTasks.poll();
+        }
+    }
+
+    /**
+     * Closes persistent connections that have been idle for longer than the
+     * keep-alive timeout.
+     */
+    private void closeIdleConnections() {
+        long now = System.currentTimeMillis();
+        for (SelectionKey key : mySelector.keys()) {
+            Connection connection = (Connection) key.attachment();
+            if (connection != null && connection.isIdle(now)) {
+                closeKey(key);
+            }
+        }
+    }
+
+    /**
+     * Posts a task to run in the selector thread. If the task fails, only the
+     * connection related to the specified key is closed.
+     */
+    private void postSelectorTask(final SelectionKey key, final Runnable task) {
+        selectorTasks.add(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    closeKey(key);
+                }
+            }
+        });
+        mySelector.wakeup();
+    }
+
+    /**
+     * Closes the channel related to the specified key.
+     */
+    private void closeKey(final SelectionKey key) {
+        if (key.attachment() instanceof Connection) {
+            ((Connection) key.attachment()).release();
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Closes all connections and the server channel.
+     */
+    private void closeAll() {
+        try {
+            for (SelectionKey key : mySelector.keys()) {
+                closeKey(key);
+            }
+            mySelector.close();
+        } catch (IOException ignored) {
+        } catch (ClosedSelectorException ignored) {
+        }
+        try {
+            myServerChannel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Sets the time, in milliseconds, an idle persistent connection is kept
+     * open. It must be set before starting the server.
+     */
+    public void setKeepAliveTimeout(final int keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    /**
+     * Sets the minimum size, in bytes, of responses that are compressed. A
+     * negative value disables compression.
+     */
+    public void setCompressionThreshold(final int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Sets the maximum size, in bytes, of request bodies buffered in memory.
+     * Larger bodies are written to temporary files.
+     */
+    public void setMaxMemoryBodySize(final int maxMemoryBodySize) {
+        this.maxMemoryBodySize = maxMemoryBodySize;
+    }
+
+    /**
+     * Sets the maximum size, in bytes, of request bodies. Larger requests are
+     * answered with 413 Request Entity Too Large without reading the body.
+     */
+    public void setMaxBodySize(final long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Selects the preferred content encoding accepted by the client.
+     *
+     * @param acceptEncoding Value of the Accept-Encoding request header, may be null.
+     * @return gzip or deflate, or null if the client accepts none of them.
+     */
+    public static String negotiateEncoding(final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        Set<String> accepted = new HashSet<String>();
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.split(";");
+            String encoding = parts[0].trim().toLowerCase();
+            boolean rejected = false;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        rejected = Double.parseDouble(param.substring(2)) <= 0;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+            if (!rejected) {
+                accepted.add(encoding);
+            }
+        }
+        for (String encoding : CONTENT_ENCODINGS) {
+            if (accepted.contains(encoding) || accepted.contains("*")) {
+                return encoding;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compresses data with the specified content encoding.
+     *
+     * @param data Data to compress.
+     * @param encoding Either gzip or deflate.
+     * @return The compressed data.
+     */
+    public static byte[] encode(final byte[] data, final String encoding) {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 2);
+            OutputStream compressor;
+            if ("gzip".equals(encoding)) {
+                compressor = new GZIPOutputStream(output);
+            } else if ("deflate".equals(encoding)) {
+                compressor = new DeflaterOutputStream(output);
+            } else {
+                throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+            }
+            compressor.write(data);
+            compressor.close();
+            return output.toByteArray();
+        } catch (IOException e) {
+            // Never thrown by in-memory streams.
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Determines whether responses of the specified type are worth compressing.
+     */
+    public static boolean isCompressible(final String mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+        String type = mimeType.toLowerCase();
+        return type.startsWith("text/") || type.contains("javascript") || type.contains("json") || type.contains("xml");
+    }
+
     public void setTempFileManagerFactory(final TempFileManagerFactory tempFileManagerFactory) {
         this.tempFileManagerFactory = tempFileManagerFactory;
     }
@@ -233,7 +552,7 @@ public abstract class NanoHTTPD {
     }
 
     public enum Method {
-        GET, PUT, POST, DELETE;
+        GET, PUT, POST, DELETE, HEAD;
 
         static Method lookup(final String method) {
             for (Method m : Method.values()) {
@@ -246,7 +565,17 @@ public abstract class NanoHTTPD {
     }
 
     public interface AsyncRunner {
+        /**
+         * Prepares the resources to run code, it's invoked each time the server starts.
+         */
+        void start();
+
         void exec(Runnable code);
+
+        /**
+         * Releases the resources used to run code, it's invoked when the server stops.
+         */
+        void shutdown();
     }
 
     public interface TempFileManagerFactory {
@@ -283,10 +612,38 @@ public abstract class NanoHTTPD {
          * Data of the response, may be null.
          */
         public InputStream data;
+        /**
+         * File sent as data of the response, may be null. If set, it takes
+         * precedence over data and it's transferred to the socket without
+         * copying it.
+         */
+        public File file;
+        /**
+         * Stream of server-sent events, may be null. If set, the connection
+         * is kept open and the events sent to the stream are pushed to the
+         * client.
+         */
+        public EventStream eventStream;
         /**
          * Headers for the HTTP response. Use addHeader() to add lines.
          */
         public Map<String, String> header = new HashMap<String, String>();
+        /**
+         * Whether the connection is kept open after sending this response.
+         */
+        private boolean keepAlive;
+        /**
+         * Whether the body must be omitted, as in responses to HEAD requests.
+         */
+        private boolean headRequest;
+        /**
+         * Content encoding used to compress the body, or null to send it as is.
+         */
+        private String encoding;
+        /**
+         * Whether the client accepts chunked responses, as HTTP/1.1 clients do.
+         */
+        private boolean chunkedAllowed;
 
         /**
          * Default constructor: response = HTTP_OK, mime = MIME_HTML and your supplied message
@@ -304,6 +661,25 @@ public abstract class NanoHTTPD {
             this.data = data;
         }
 
+        /**
+         * Constructor for responses that send the content of a file.
+         */
+        public Response(final Status status, final String mimeType, final File file) {
+            this.status = status;
+            this.mimeType = mimeType;
+            this.file = file;
+        }
+
+        /**
+         * Constructor for responses that open a stream of server-sent events.
+         */
+        public Response(final EventStream eventStream) {
+            this.status = Status.OK;
+            this.mimeType = "text/event-stream";
+            this.eventStream = eventStream;
+            addHeader("Cache-Control", "no-cache");
+        }
+
         /**
          * Convenience method that makes an InputStream out of given text.
          */
@@ -340,8 +716,15 @@ public abstract class NanoHTTPD {
                 if (status == null) {
                     throw new Error("sendResponse(): Status can't be null.");
                 }
+                if (encoding != null && data != null) {
+                    byte[] body = IOUtils.toByteArray(data);
+                    data.close();
+                    data = new ByteArrayInputStream(encode(body, encoding));
+                    header.put("Content-Encoding", encoding);
+                    header.put("Vary", "Accept-Encoding");
+                }
                 PrintWriter pw = new PrintWriter(outputStream);
-                pw.print("HTTP/1.0 " + status.getDescription() + " \r\n");
+                pw.print("HTTP/1.1 " + status.getDescription() + " \r\n");
 
                 if (mime != null) {
                     pw.print("Content-Type: " + mime + "\r\n");
@@ -358,21 +741,34 @@ public abstract class NanoHTTPD {
                     }
                 }
 
+                // Streams of unknown length are sent chunked, or delimited by
+                // closing the connection if the client doesn't accept chunks.
+                boolean bodyAllowed = status != Status.NOT_MODIFIED && status != Status.NO_CONTENT;
+                long length = getLength();
+                boolean chunked = false;
+                if (bodyAllowed && eventStream == null && (header == null || header.get("Content-Length") == null)) {
+                    if (length >= 0) {
+                        pw.print("Content-Length: " + length + "\r\n");
+                    } else if (chunkedAllowed) {
+                        pw.print("Transfer-Encoding: chunked\r\n");
+                        chunked = true;
+                    } else {
+                        keepAlive = false;
+                    }
+                }
+                pw.print("Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n");
+
                 pw.print("\r\n");
                 pw.flush();
 
-                if (data != null) {
-                    int pending = data.available(); // This is to support partial sends, see serveFile()
-                    int BUFFER_SIZE = 16 * 1024;
-                    byte[] buff = new byte[BUFFER_SIZE];
-                    while (pending > 0) {
-                        int read = data.read(buff, 0, ((pending > BUFFER_SIZE) ? BUFFER_SIZE : pending));
-                        if (read <= 0) {
-                            break;
-                        }
-                        outputStream.write(buff, 0, read);
-                        pending -= read;
+                if (eventStream != null && !headRequest) {
+                    if (outputStream instanceof SessionOutput) {
+                        ((SessionOutput) outputStream).openEventStream(eventStream);
                     }
+                } else if (file != null && bodyAllowed && !headRequest) {
+                    sendFile(outputStream, length);
+                } else if (data != null && bodyAllowed && !headRequest) {
+                    sendData(outputStream, length, chunked);
                 }
                 outputStream.flush();
                 outputStream.close();
@@ -383,14 +779,104 @@ public abstract class NanoHTTPD {
             }
         }
 
+        /**
+         * Returns the length of the body: the file length, the Content-Length
+         * header set by the handler (to support partial sends, see
+         * serveFile()), or the length of an in-memory stream. Other streams
+         * only know how many bytes are available without blocking, which is
+         * not the body length.
+         *
+         * @return the body length, or -1 if it's unknown.
+         */
+        private long getLength() {
+            if (file != null) {
+                return file.length();
+            }
+            if (data == null) {
+                return 0;
+            }
+            String contentLength = header == null ? null : header.get("Content-Length");
+            if (contentLength != null) {
+                try {
+                    return Long.parseLong(contentLength.trim());
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+            if (data instanceof ByteArrayInputStream) {
+                try {
+                    return data.available();
+                } catch (IOException e) {
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Sends the data stream: the specified number of bytes if the length
+         * is known, or the whole stream otherwise, in chunks if required.
+         */
+        private void sendData(final OutputStream outputStream, final long length, final boolean chunked) throws IOException {
+            int BUFFER_SIZE = 16 * 1024;
+            byte[] buff = new byte[BUFFER_SIZE];
+            long pending = length < 0 ? Long.MAX_VALUE : length;
+            while (pending > 0) {
+                int read = data.read(buff, 0, (int) Math.min(pending, BUFFER_SIZE));
+                if (read <= 0) {
+                    break;
+                }
+                if (chunked) {
+                    outputStream.write((Integer.toHexString(read) + "\r\n").getBytes("ISO-8859-1"));
+                    outputStream.write(buff, 0, read);
+                    outputStream.write(CRLF);
+                } else {
+                    outputStream.write(buff, 0, read);
+                }
+                pending -= read;
+            }
+            if (chunked) {
+                outputStream.write(LAST_CHUNK);
+            }
+        }
+
+        /**
+         * Sends the file. If the output is a session output, the file is
+         * transferred later by the selector; otherwise, it's copied.
+         */
+        private void sendFile(final OutputStream outputStream, final long length) throws IOException {
+            if (outputStream instanceof SessionOutput) {
+                ((SessionOutput) outputStream).writeFile(file, length);
+                return;
+            }
+            InputStream input = new FileInputStream(file);
+            try {
+                byte[] buff = new byte[16 * 1024];
+                long pending = length;
+                while (pending > 0) {
+                    int read = input.read(buff, 0, (int) Math.min(pending, buff.length));
+                    if (read <= 0) {
+                        break;
+                    }
+                    outputStream.write(buff, 0, read);
+                    pending -= read;
+                }
+            } finally {
+                input.close();
+            }
+        }
+
         /**
          * Some HTTP response status codes
          */
         public enum Status {
             OK(200, "OK"), CREATED(201, "Created"), NO_CONTENT(204, "No Content"), PARTIAL_CONTENT(206, "Partial Content"), REDIRECT(301,
                     "Moved Permanently"), NOT_MODIFIED(304, "Not Modified"), BAD_REQUEST(400, "Bad Request"), UNAUTHORIZED(401,
-                    "Unauthorized"), FORBIDDEN(403, "Forbidden"), NOT_FOUND(404, "Not Found"), RANGE_NOT_SATISFIABLE(416,
-                    "Requested Range Not Satisfiable"), INTERNAL_ERROR(500, "Internal Server Error");
+                    "Unauthorized"), FORBIDDEN(403, "Forbidden"), NOT_FOUND(404, "Not Found"), METHOD_NOT_ALLOWED(405,
+                    "Method Not Allowed"), CONFLICT(409, "Conflict"), LENGTH_REQUIRED(411, "Length Required"), REQUEST_ENTITY_TOO_LARGE(413,
+                    "Request Entity Too Large"), RANGE_NOT_SATISFIABLE(416,
+                    "Requested Range Not Satisfiable"), INTERNAL_ERROR(500, "Internal Server Error"), NOT_IMPLEMENTED(501,
+                    "Not Implemented"), SERVICE_UNAVAILABLE(503, "Service Unavailable");
             private int requestStatus;
             private String descr;
 
@@ -442,6 +928,8 @@ public abstract class NanoHTTPD {
         private final TempFileManager tempFileManager;
         private InputStream inputStream;
         private OutputStream outputStream;
+        private RandomAccessFile bodyFile;
+        private boolean keepAlive;
 
         public HTTPSession(final TempFileManager tempFileManager, final InputStream inputStream, final OutputStream outputStream) {
             this.tempFileManager = tempFileManager;
@@ -449,8 +937,20 @@ public abstract class NanoHTTPD {
             this.outputStream = outputStream;
         }
 
+        /**
+         * Creates a session for a request whose body was already written to a
+         * temporary file while it was received. The input stream only contains
+         * the request header. The file is closed once the session finishes.
+         */
+        public HTTPSession(final TempFileManager tempFileManager, final InputStream inputStream, final OutputStream outputStream,
+                final RandomAccessFile bodyFile) {
+            this(tempFileManager, inputStream, outputStream);
+            this.bodyFile = bodyFile;
+        }
+
         @Override
         public void run() {
+            RandomAccessFile f = null;
             try {
                 if (inputStream == null) {
                     return;
@@ -460,7 +960,7 @@ public abstract class NanoHTTPD {
                 // The full header should fit in here.
                 // Apache's default header limit is 8KB.
                 // Do NOT assume that a single read will get the entire header at once!
-                byte[] buf = new byte[BUFSIZE];
+                byte[] buf = SESSION_BUFFERS.get();
                 int splitbyte = 0;
                 int rlen = 0;
                 {
@@ -491,10 +991,28 @@ public abstract class NanoHTTPD {
                 String uri = pre.get("uri");
                 long size = extractContentLength(header);
 
-                // Write the part of body already read to ByteArrayOutputStream f
-                RandomAccessFile f = getTmpBucket();
+                // Bodies are buffered in memory, only large bodies are written
+                // to a temporary file. Bodies received into a file are not
+                // read again.
+                long contentLength = (size == 0x7FFFFFFFFFFFFFFFl) ? 0 : Math.max(size, 0);
+                ByteArrayOutputStream memoryBody = null;
+                OutputStream body;
+                if (bodyFile != null) {
+                    f = bodyFile;
+                    body = new ByteArrayOutputStream();
+                    size = 0;
+                    rlen = splitbyte;
+                } else if (contentLength > maxMemoryBodySize) {
+                    f = getTmpBucket();
+                    body = new FileOutputStream(f.getFD());
+                } else {
+                    memoryBody = new ByteArrayOutputStream((int) contentLength);
+                    body = memoryBody;
+                }
+
+                // Write the part of body already read
                 if (splitbyte < rlen) {
-                    f.write(buf, splitbyte, rlen - splitbyte);
+                    body.write(buf, splitbyte, rlen - splitbyte);
                 }
 
                 // While Firefox sends on the first read all the data fitting
@@ -509,22 +1027,32 @@ public abstract class NanoHTTPD {
                     size = 0;
                 }
 
-                // Now read all the body and write it to f
-                buf = new byte[512];
+                // Now read all the body, the header buffer is not needed anymore
                 while (rlen >= 0 && size > 0) {
-                    rlen = inputStream.read(buf, 0, 512);
+                    rlen = inputStream.read(buf, 0, (int) Math.min(size, buf.length));
                     size -= rlen;
                     if (rlen > 0) {
-                        f.write(buf, 0, rlen);
+                        body.write(buf, 0, rlen);
                     }
                 }
 
-                // Get the raw body as a byte []
-                ByteBuffer fbuf = f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
-                f.seek(0);
+                // Get the raw body, only file bodies are mapped
+                ByteBuffer fbuf;
+                InputStream bin;
+                if (f != null) {
+                    fbuf = f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
+                    f.seek(0);
+                    bin = new FileInputStream(f.getFD());
+                } else if (memoryBody.size() == 0) {
+                    fbuf = EMPTY_BODY;
+                    bin = new ByteArrayInputStream(new byte[0]);
+                } else {
+                    byte[] data = memoryBody.toByteArray();
+                    fbuf = ByteBuffer.wrap(data);
+                    bin = new ByteArrayInputStream(data);
+                }
 
                 // Create a BufferedReader for easily reading it as string.
-                InputStream bin = new FileInputStream(f.getFD());
                 BufferedReader in = new BufferedReader(new InputStreamReader(bin));
 
                 // If the method is POST, there may be parameters
@@ -579,7 +1107,13 @@ public abstract class NanoHTTPD {
                     Response.error(outputStream, Response.Status.INTERNAL_ERROR, "SERVER INTERNAL ERROR: Serve() returned a null response.");
                     throw new InterruptedException();
                 } else {
+                    r.keepAlive = isKeepAliveRequested(pre.get("protocol"), header.get("connection"));
+                    r.chunkedAllowed = "HTTP/1.1".equalsIgnoreCase(pre.get("protocol"));
+                    r.headRequest = Method.HEAD.equals(method);
+                    r.encoding = selectEncoding(r, header.get("accept-encoding"));
                     r.send(outputStream);
+                    // The response closes the connection if its length is unknown.
+                    keepAlive = r.keepAlive;
                 }
 
                 in.close();
@@ -593,10 +1127,44 @@ public abstract class NanoHTTPD {
             } catch (InterruptedException ie) {
                 // Thrown by sendError, ignore and exit the thread.
             } finally {
+                IOUtils.closeQuietly(f);
                 tempFileManager.clear();
             }
         }
 
+        /**
+         * Whether the connection is kept open after the response is sent. It's
+         * only valid once the session finished.
+         */
+        public boolean isKeepAlive() {
+            return keepAlive;
+        }
+
+        /**
+         * Selects the encoding to compress the response, if the client accepts
+         * it and the response is a text larger than the compression threshold.
+         */
+        private String selectEncoding(final Response r, final String acceptEncoding) throws IOException {
+            if (compressionThreshold < 0 || r.data == null || r.header == null || r.status == Response.Status.NOT_MODIFIED
+                    || r.header.containsKey("Content-Encoding") || r.header.containsKey("Content-Length")
+                    || !isCompressible(r.mimeType) || r.data.available() < compressionThreshold) {
+                return null;
+            }
+            return negotiateEncoding(acceptEncoding);
+        }
+
+        /**
+         * Determines whether the client asked for a persistent connection.
+         * HTTP/1.1 connections are persistent unless the client closes them,
+         * HTTP/1.0 connections only if the client asks for it.
+         */
+        private boolean isKeepAliveRequested(final String protocol, final String connection) {
+            if ("HTTP/1.1".equalsIgnoreCase(protocol)) {
+                return !"close".equalsIgnoreCase(connection);
+            }
+            return "keep-alive".equalsIgnoreCase(connection);
+        }
+
         private long extractContentLength(final Map<String, String> header) {
             long size = 0x7FFFFFFFFFFFFFFFl;
             String contentLength = header.get("content-length");
@@ -647,10 +1215,11 @@ public abstract class NanoHTTPD {
                 }
 
                 // If there's another token, it's protocol version,
-                // followed by HTTP headers. Ignore version but parse headers.
+                // followed by HTTP headers.
                 // NOTE: this now forces header names lowercase since they are
                 // case insensitive and vary by client.
                 if (st.hasMoreTokens()) {
+                    pre.put("protocol", st.nextToken());
                     String line = in.readLine();
                     while (line != null && line.trim().length() > 0) {
                         int p = line.indexOf(':');
@@ -898,15 +1467,579 @@ public abstract class NanoHTTPD {
         }
     }
 
+    /**
+     * Runs requests in a fixed pool of {@link #DEFAULT_WORKER_THREADS} threads.
+     * The pool is created when the server starts, so a stopped server can be
+     * started again.
+     */
     private class DefaultAsyncRunner implements AsyncRunner {
-        private long requestCount;
+        private long threadCount;
+        private volatile ExecutorService executor;
+
+        @Override
+        public void start() {
+            executor = Executors.newFixedThreadPool(DEFAULT_WORKER_THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable code) {
+                    ++threadCount;
+                    Thread t = new Thread(code);
+                    t.setDaemon(true);
+                    t.setName("NanoHttpd Request Processor (#" + threadCount + ")");
+                    return t;
+                }
+            });
+        }
+
         @Override
         public void exec(final Runnable code) {
-            ++requestCount;
-            Thread t = new Thread(code);
-            t.setDaemon(true);
-            t.setName("NanoHttpd Request Processor (#" + requestCount + ")");
-            t.start();
+            executor.execute(code);
+        }
+
+        @Override
+        public void shutdown() {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Connection managed by the selector. It buffers the request until it's
+     * completely read, hands it to the {@link AsyncRunner} and writes the
+     * response back.
+     * <p/>
+     * The request header is limited to {@link #MAX_HEADER_SIZE} bytes. Bodies
+     * larger than the memory limit are written to a temporary file as they
+     * arrive, and bodies larger than the maximum body size are rejected
+     * before they're read.
+     * <p/>
+     * Persistent connections serve requests one at a time in the order they
+     * arrive, so pipelined requests are buffered until the previous response
+     * is written.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private ByteBuffer request = ByteBuffer.allocate(HTTPSession.BUFSIZE);
+        private LinkedList<Object> response;
+        private boolean keepAlive;
+        private boolean busy;
+        private long lastActivity = System.currentTimeMillis();
+        private SelectionKey key;
+        private EventStream eventStream;
+        private boolean streaming;
+        /**
+         * Length of the header of the request being received, or 0 if the
+         * header is not completely read yet.
+         */
+        private int headerLength;
+        /**
+         * Length of the body of the request being received.
+         */
+        private long bodyLength;
+        /**
+         * Header of the request whose body is being written to a file.
+         */
+        private byte[] header;
+        /**
+         * File the body of the request being received is written to, or null
+         * if the body is buffered in memory.
+         */
+        private RandomAccessFile bodyFile;
+        private TempFileManager bodyFileManager;
+        private long bodyReceived;
+        /**
+         * Whether the request was rejected. The rest of the request is
+         * discarded once the error is sent, so the client reads the error
+         * instead of a connection reset.
+         */
+        private boolean draining;
+
+        public Connection(final SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Reads available data. If the request is complete it stops reading
+         * and dispatches the request.
+         */
+        public void read(final SelectionKey key) throws IOException {
+            if (!request.hasRemaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(request.capacity() * 2);
+                request.flip();
+                grown.put(request);
+                request = grown;
+            }
+            int read = channel.read(request);
+            if (read < 0) {
+                closeKey(key);
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            if (streaming || draining) {
+                // Clients don't send requests over an event stream.
+                request.clear();
+                return;
+            }
+            dispatchNext(key);
+        }
+
+        /**
+         * Writes pending response data. Once the response is completely
+         * written the connection is either closed or it serves the next
+         * request.
+         */
+        public void write(final SelectionKey key) throws IOException {
+            lastActivity = System.currentTimeMillis();
+            while (!response.isEmpty()) {
+                Object segment = response.getFirst();
+                if (segment instanceof ByteBuffer) {
+                    channel.write((ByteBuffer) segment);
+                    if (((ByteBuffer) segment).hasRemaining()) {
+                        return;
+                    }
+                } else {
+                    FileRegion region = (FileRegion) segment;
+                    if (!region.transferTo(channel)) {
+                        return;
+                    }
+                    region.close();
+                }
+                response.removeFirst();
+            }
+            response = null;
+            if (eventStream != null) {
+                if (!streaming) {
+                    streaming = true;
+                    eventStream.attach(this);
+                }
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            busy = false;
+            if (keepAlive) {
+                key.interestOps(SelectionKey.OP_READ);
+                dispatchNext(key);
+            } else if (draining) {
+                // Closed once the client closes or the connection is idle.
+                channel.socket().shutdownOutput();
+                key.interestOps(SelectionKey.OP_READ);
+            } else {
+                closeKey(key);
+            }
+        }
+
+        /**
+         * Releases the files of a pending request or response.
+         */
+        public void release() {
+            if (streaming) {
+                eventStream.detach(this);
+            }
+            if (bodyFile != null) {
+                IOUtils.closeQuietly(bodyFile);
+                bodyFileManager.clear();
+                bodyFile = null;
+            }
+            if (response == null) {
+                return;
+            }
+            for (Object segment : response) {
+                if (segment instanceof FileRegion) {
+                    ((FileRegion) segment).close();
+                }
+            }
+        }
+
+        /**
+         * Pushes an event to the client. It can be invoked from any thread.
+         */
+        public void push(final byte[] event) {
+            postSelectorTask(key, new Runnable() {
+                @Override
+                public void run() {
+                    if (!key.isValid()) {
+                        return;
+                    }
+                    if (response == null) {
+                        response = new LinkedList<Object>();
+                    }
+                    response.add(ByteBuffer.wrap(event));
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            });
+        }
+
+        /**
+         * Whether the connection is waiting for a request for longer than the
+         * keep-alive timeout.
+         */
+        public boolean isIdle(final long now) {
+            return !busy && now - lastActivity > keepAliveTimeout;
+        }
+
+        /**
+         * Dispatches the next buffered request, if it's completely read.
+         */
+        private void dispatchNext(final SelectionKey key) throws IOException {
+            if (headerLength == 0 && !readHeader(key)) {
+                return;
+            }
+            if (bodyFile != null) {
+                receiveBody();
+                if (bodyReceived == bodyLength) {
+                    dispatch(key, null);
+                }
+            } else if (request.position() >= headerLength + bodyLength) {
+                byte[] data = new byte[headerLength + (int) bodyLength];
+                request.flip();
+                request.get(data);
+                request.compact();
+                dispatch(key, data);
+            }
+        }
+
+        /**
+         * Reads the header of the next request, and validates the body
+         * length. Requests with an invalid or too large header or body are
+         * rejected.
+         *
+         * @return true if the header was read, false if it's not completely
+         *         received yet or the request was rejected.
+         */
+        private boolean readHeader(final SelectionKey key) throws IOException {
+            byte[] buf = request.array();
+            int end = request.position();
+            int length = 0;
+            for (int i = 0; i + 3 < end && length == 0; i++) {
+                if (buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r' && buf[i + 3] == '\n') {
+                    length = i + 4;
+                }
+            }
+            if (length == 0) {
+                if (end >= MAX_HEADER_SIZE) {
+                    reject(key, Response.Status.BAD_REQUEST, "BAD REQUEST: Request header too large.");
+                }
+                return false;
+            }
+            String requestHeader = new String(buf, 0, length - 4, "ISO-8859-1");
+            String transferEncoding = getHeader(requestHeader, "transfer-encoding");
+            if (transferEncoding != null && transferEncoding.toLowerCase(Locale.US).contains("chunked")) {
+                reject(key, Response.Status.LENGTH_REQUIRED, "LENGTH REQUIRED: Chunked request bodies are not supported, send a"
+                        + " Content-Length.");
+                return false;
+            }
+            if (transferEncoding != null && !transferEncoding.equalsIgnoreCase("identity")) {
+                reject(key, Response.Status.NOT_IMPLEMENTED, "NOT IMPLEMENTED: Unsupported Transfer-Encoding: " + transferEncoding);
+                return false;
+            }
+            long contentLength = getContentLength(requestHeader);
+            if (contentLength < 0) {
+                reject(key, Response.Status.BAD_REQUEST, "BAD REQUEST: Invalid Content-Length.");
+                return false;
+            }
+            if (contentLength > maxBodySize) {
+                reject(key, Response.Status.REQUEST_ENTITY_TOO_LARGE, "REQUEST ENTITY TOO LARGE: The body exceeds " + maxBodySize
+                        + " bytes.");
+                return false;
+            }
+            headerLength = length;
+            bodyLength = contentLength;
+            if (contentLength > maxMemoryBodySize) {
+                header = new byte[length];
+                request.flip();
+                request.get(header);
+                request.compact();
+                bodyFileManager = tempFileManagerFactory.create();
+                try {
+                    bodyFile = new RandomAccessFile(bodyFileManager.createTempFile().getName(), "rw");
+                } catch (Exception e) {
+                    bodyFileManager.clear();
+                    throw new IOException("Cannot create the request body file: " + e.getMessage());
+                }
+                bodyReceived = 0;
+            } else if (request.capacity() < length + contentLength) {
+                ByteBuffer grown = ByteBuffer.allocate(length + (int) contentLength);
+                request.flip();
+                grown.put(request);
+                request = grown;
+            }
+            return true;
+        }
+
+        /**
+         * Writes the buffered body of the request being received to its file.
+         * Data after the body belongs to the next request, so it's kept in the
+         * buffer.
+         */
+        private void receiveBody() throws IOException {
+            request.flip();
+            int length = (int) Math.min(request.remaining(), bodyLength - bodyReceived);
+            bodyFile.write(request.array(), request.position(), length);
+            request.position(request.position() + length);
+            request.compact();
+            bodyReceived += length;
+        }
+
+        /**
+         * Answers the request being received with an error and closes the
+         * connection once the error is sent.
+         */
+        private void reject(final SelectionKey key, final Response.Status status, final String message) {
+            SessionOutput output = new SessionOutput();
+            Response.error(output, status, message);
+            busy = true;
+            keepAlive = false;
+            draining = true;
+            response = output.getSegments();
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        /**
+         * Serves the request in a worker and sends the response. If the body
+         * was written to a file, the data is null and the session reads the
+         * body from the file.
+         */
+        private void dispatch(final SelectionKey key, final byte[] data) {
+            busy = true;
+            key.interestOps(0);
+            headerLength = 0;
+            bodyLength = 0;
+            final byte[] requestHeader = header;
+            final RandomAccessFile requestBody = bodyFile;
+            final TempFileManager requestFiles = bodyFileManager;
+            header = null;
+            bodyFile = null;
+            bodyFileManager = null;
+
+            asyncRunner.exec(new Runnable() {
+                @Override
+                public void run() {
+                    SessionOutput output = new SessionOutput();
+                    try {
+                        HTTPSession session;
+                        if (requestBody != null) {
+                            requestBody.seek(0);
+                            session = new HTTPSession(requestFiles, new ByteArrayInputStream(requestHeader), output, requestBody);
+                        } else {
+                            session = new HTTPSession(tempFileManagerFactory.create(), new ByteArrayInputStream(data), output);
+                        }
+                        session.run();
+                        keepAlive = session.isKeepAlive();
+                        response = output.getSegments();
+                        eventStream = output.getEventStream();
+                    } catch (IOException e) {
+                        IOUtils.closeQuietly(requestBody);
+                        requestFiles.clear();
+                        output = new SessionOutput();
+                        Response.error(output, Response.Status.INTERNAL_ERROR,
+                                "SERVER INTERNAL ERROR: " + e.getMessage());
+                        keepAlive = false;
+                        response = output.getSegments();
+                        eventStream = null;
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        output = new SessionOutput();
+                        Response.error(output, Response.Status.INTERNAL_ERROR,
+                                "SERVER INTERNAL ERROR: " + e.getMessage());
+                        keepAlive = false;
+                        response = output.getSegments();
+                        eventStream = null;
+                    } finally {
+                        // The selector must always resume the connection,
+                        // otherwise it's never written nor closed.
+                        postSelectorTask(key, new Runnable() {
+                            @Override
+                            public void run() {
+                                if (!key.isValid()) {
+                                    return;
+                                }
+                                if (response == null) {
+                                    closeKey(key);
+                                } else {
+                                    key.interestOps(SelectionKey.OP_WRITE);
+                                }
+                            }
+                        });
+                    }
+                }
+            });
+        }
+
+        /**
+         * Extracts the value of a header field from the request header.
+         *
+         * @return the trimmed value, or null if the field is not present.
+         */
+        private String getHeader(final String header, final String name) {
+            for (String line : header.split("\r\n")) {
+                int p = line.indexOf(':');
+                if (p > 0 && line.substring(0, p).trim().equalsIgnoreCase(name)) {
+                    return line.substring(p + 1).trim();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Extracts the content length from the request header.
+         *
+         * @return the body length, 0 if there's no body, or -1 if the length
+         *         is not a valid number or there are different lengths.
+         */
+        private long getContentLength(final String header) {
+            long length = 0;
+            boolean found = false;
+            for (String line : header.split("\r\n")) {
+                int p = line.indexOf(':');
+                if (p > 0 && line.substring(0, p).trim().equalsIgnoreCase("content-length")) {
+                    long value;
+                    try {
+                        value = Long.parseLong(line.substring(p + 1).trim());
+                    } catch (NumberFormatException e) {
+                        return -1;
+                    }
+                    if (value < 0 || (found && value != length)) {
+                        return -1;
+                    }
+                    length = value;
+                    found = true;
+                }
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Stream of server-sent events shared by any number of clients. Responses
+     * created for the stream keep their connection open. Events sent to the
+     * stream are written to every client by the selector thread, so an open
+     * stream doesn't hold a thread.
+     */
+    public static class EventStream {
+        private final List<Connection> connections = new CopyOnWriteArrayList<Connection>();
+
+        /**
+         * Sends an event to every connected client.
+         *
+         * @param event Event name, may be null.
+         * @param data Event data, may contain several lines.
+         */
+        public void send(final String event, final String data) {
+            StringBuilder message = new StringBuilder();
+            if (event != null) {
+                message.append("event: ").append(event).append("\n");
+            }
+            for (String line : data.split("\n", -1)) {
+                message.append("data: ").append(line).append("\n");
+            }
+            message.append("\n");
+            byte[] bytes;
+            try {
+                bytes = message.toString().getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+            for (Connection connection : connections) {
+                connection.push(bytes);
+            }
+        }
+
+        /**
+         * Returns the number of connected clients.
+         */
+        public int getClientCount() {
+            return connections.size();
+        }
+
+        private void attach(final Connection connection) {
+            connections.add(connection);
+        }
+
+        private void detach(final Connection connection) {
+            connections.remove(connection);
+        }
+    }
+
+    /**
+     * Output of a session, written to the socket by the selector thread. It
+     * buffers the written bytes, while files are kept as regions that are
+     * transferred straight from the file system to the socket.
+     */
+    private static class SessionOutput extends ByteArrayOutputStream {
+        private final LinkedList<Object> segments = new LinkedList<Object>();
+        private EventStream eventStream;
+
+        /**
+         * Keeps the connection open to push events once the response header
+         * is written.
+         */
+        public void openEventStream(final EventStream eventStream) {
+            this.eventStream = eventStream;
+        }
+
+        public EventStream getEventStream() {
+            return eventStream;
+        }
+
+        /**
+         * Adds a file to the output, after the bytes written so far.
+         */
+        public void writeFile(final File file, final long length) throws IOException {
+            flushBuffer();
+            segments.add(new FileRegion(file, length));
+        }
+
+        /**
+         * Returns the buffers and file regions to write, in order.
+         */
+        public LinkedList<Object> getSegments() {
+            flushBuffer();
+            return segments;
+        }
+
+        private void flushBuffer() {
+            if (size() > 0) {
+                segments.add(ByteBuffer.wrap(toByteArray()));
+                reset();
+            }
+        }
+    }
+
+    /**
+     * Region of a file to transfer to a socket.
+     */
+    private static class FileRegion {
+        private final FileChannel channel;
+        private final long length;
+        private long position;
+
+        public FileRegion(final File file, final long length) throws IOException {
+            this.channel = new FileInputStream(file).getChannel();
+            this.length = length;
+        }
+
+        /**
+         * Transfers as many bytes as the socket accepts.
+         *
+         * @return true if the region was completely transferred.
+         */
+        public boolean transferTo(final WritableByteChannel target) throws IOException {
+            if (position >= length) {
+                return true;
+            }
+            long sent = channel.transferTo(position, length - position, target);
+            if (sent == 0 && position >= channel.size()) {
+                throw new IOException("File truncated while sending it.");
+            }
+            position += sent;
+            return position >= length;
+        }
+
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
         }
     }
 }
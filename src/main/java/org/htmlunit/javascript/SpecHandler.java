@@ -0,0 +1,96 @@
+package org.htmlunit.javascript;
+
+import net.sourceforge.htmlunit.corejs.javascript.Context;
+import net.sourceforge.htmlunit.corejs.javascript.Function;
+import net.sourceforge.htmlunit.corejs.javascript.Scriptable;
+import net.sourceforge.htmlunit.corejs.javascript.ScriptableObject;
+import net.sourceforge.htmlunit.corejs.javascript.Undefined;
+
+/** JavaScript function that receives the results of single specs from
+ * JavaScript test frameworks, so results reach Java without reading the DOM.
+ *
+ * <p>
+ * It's invoked with an object with the <code>name</code>,
+ * <code>passed</code>, <code>message</code> and <code>duration</code>
+ * properties. Only <code>name</code> is required; <code>passed</code>
+ * defaults to false, <code>message</code> to null and <code>duration</code>
+ * to zero.
+ * </p>
+ */
+public abstract class SpecHandler extends ScriptableObject
+    implements Function {
+
+  /** Default id for serialization.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /** Invoked when a spec finished.
+   *
+   * @param name Full name of the spec. It's never null.
+   * @param passed True if the spec passed, false otherwise.
+   * @param message Failure message. Can be null.
+   * @param duration Spec execution time, in milliseconds.
+   */
+  public abstract void handleSpec(final String name, final boolean passed,
+      final String message, final long duration);
+
+  /** Reads the spec result and delegates to {@link #handleSpec}.
+   *
+   * <p>{@inheritDoc}</p>
+   */
+  public Object call(final Context cx, final Scriptable scope,
+      final Scriptable thisObj, final Object[] args) {
+    if (args.length != 1 || !(args[0] instanceof Scriptable)) {
+      throw Context.reportRuntimeError("A spec result is required.");
+    }
+    Scriptable spec = (Scriptable) args[0];
+    Object name = getValue(spec, "name");
+    if (name == null) {
+      throw Context.reportRuntimeError("The spec name is required.");
+    }
+    Object passed = getValue(spec, "passed");
+    Object message = getValue(spec, "message");
+    Object duration = getValue(spec, "duration");
+
+    long millis = 0;
+    if (duration != null && !Double.isNaN(Context.toNumber(duration))) {
+      millis = (long) Context.toNumber(duration);
+    }
+    String failure = null;
+    if (message != null) {
+      failure = Context.toString(message);
+    }
+    handleSpec(Context.toString(name), passed != null
+        && Context.toBoolean(passed), failure, millis);
+    return Undefined.instance;
+  }
+
+  /** {@inheritDoc}
+   */
+  public Scriptable construct(final Context cx, final Scriptable scope,
+      final Object[] args) {
+    throw new UnsupportedOperationException(
+        "Cannot instantiate spec handlers.");
+  }
+
+  /** {@inheritDoc}
+   */
+  @Override
+  public String getClassName() {
+    return getClass().getName();
+  }
+
+  /** Reads a property of a JavaScript object.
+   *
+   * @param object Object to read. Cannot be null.
+   * @param name Name of the property to read. Cannot be null.
+   * @return The property value, or null if it's not defined or it's null.
+   */
+  private static Object getValue(final Scriptable object, final String name) {
+    Object value = ScriptableObject.getProperty(object, name);
+    if (value == Scriptable.NOT_FOUND || value instanceof Undefined) {
+      return null;
+    }
+    return value;
+  }
+}
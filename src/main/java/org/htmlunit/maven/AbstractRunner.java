@@ -3,16 +3,45 @@ package org.htmlunit.maven;
 import java.beans.Statement;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.sourceforge.htmlunit.corejs.javascript.ScriptableObject;
 
@@ -21,11 +50,17 @@ import org.antlr.stringtemplate.language.DefaultTemplateLexer;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.filefilter.FileFilterUtils;
+import org.apache.commons.io.filefilter.IOFileFilter;
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.apache.http.impl.conn.SchemeRegistryFactory;
 import org.htmlunit.TypedPropertyEditor;
 import org.htmlunit.javascript.EventHandler;
+import org.htmlunit.javascript.SpecHandler;
+import org.openqa.selenium.TimeoutException;
 import org.openqa.selenium.htmlunit.HtmlUnitDriver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,14 +69,15 @@ import com.gargoylesoftware.htmlunit.BrowserVersion;
 import com.gargoylesoftware.htmlunit.IncorrectnessListener;
 import com.gargoylesoftware.htmlunit.NicelyResynchronizingAjaxController;
 import com.gargoylesoftware.htmlunit.Page;
-import com.gargoylesoftware.htmlunit.StringWebResponse;
 import com.gargoylesoftware.htmlunit.WebClient;
 import com.gargoylesoftware.htmlunit.WebConnection;
 import com.gargoylesoftware.htmlunit.WebRequest;
 import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.WebWindow;
 import com.gargoylesoftware.htmlunit.WebWindowEvent;
 import com.gargoylesoftware.htmlunit.WebWindowListener;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.gargoylesoftware.htmlunit.javascript.JavaScriptEngine;
 import com.gargoylesoftware.htmlunit.javascript.host.Window;
 import com.gargoylesoftware.htmlunit.util.WebConnectionWrapper;
 
@@ -61,6 +97,13 @@ import com.gargoylesoftware.htmlunit.util.WebConnectionWrapper;
  * </p>
  *
  * <p>
+ * If service mode is enabled, it starts an HTTP server at the same port that
+ * runs tests on request, keeping web drivers warm between requests. Tests are
+ * posted to the <code>/run/</code> endpoint and results are sent back as
+ * JSON. For further information look at {@link TestDebugServer#handleRun}.
+ * </p>
+ *
+ * <p>
  * It generates a runner HTML file and writes it into the configured output
  * directory. Each test file will have a single runner file, and they will be
  * executed sequentially. Tests must close the window using the standard
@@ -70,9 +113,67 @@ import com.gargoylesoftware.htmlunit.util.WebConnectionWrapper;
  * clean actions. Implementations are responsible of loading each test into
  * the runner via {@link #loadTest}.
  * </p>
+ *
+ * <p>
+ * If {@link RunnerContext#getThreadCount()} is greater than one, tests are
+ * executed concurrently, each one in its own web driver. In that case
+ * {@link #testFinished} may be invoked concurrently from several threads.
+ * </p>
+ *
+ * <p>
+ * If there're several {@link RunnerContext#getBrowserVersions()}, each test
+ * runs once in each browser version. Browser versions run concurrently, each
+ * one in its own set of web drivers, and they share the rendered runners.
+ * </p>
+ *
+ * <p>
+ * Tests don't run in the configured order. The duration and outcome of each
+ * test are kept in the output directory, and tests that failed in their last
+ * execution run first, followed by the longest ones. For further information
+ * look at {@link TestHistory}.
+ * </p>
+ *
+ * <p>
+ * JavaScript test frameworks can report each spec to Java by calling the
+ * {@link #SPEC_HANDLER} global function, so results are read without walking
+ * the DOM. The <code>JasmineAdapter.js</code> and <code>QUnitAdapter.js</code>
+ * bootstrap scripts report specs for Jasmine and QUnit. For further
+ * information look at {@link #specFinished} and {@link #specsFinished}.
+ * </p>
+ *
+ * <p>
+ * If {@link RunnerContext#getSpecShards()} is greater than 1, each test runs
+ * once per shard, in different web drivers. Shards read their position from
+ * the {@link #SPEC_SHARD} and {@link #SPEC_SHARDS} globals, and the
+ * <code>JasmineAdapter.js</code> script uses them to run only the specs of
+ * its shard. Results of all shards are merged into a single test result, and
+ * {@link #testFinished} and {@link #specsFinished} are invoked once per test,
+ * when the last shard finished, with the specs of all shards.
+ * </p>
+ *
+ * <p>
+ * If {@link RunnerContext#getTestTimeout()} is set, a watchdog stops tests
+ * that run longer than the timeout. The test fails, its JavaScript execution
+ * is stopped and the web driver that ran it is replaced by a new one, so the
+ * hung driver doesn't affect further tests. Likewise, if
+ * {@link RunnerContext#getTestCpuTimeout()} is set, the watchdog stops tests
+ * that use more CPU time than the timeout in the thread that runs them.
+ * </p>
  */
 public abstract class AbstractRunner implements WebDriverRunner {
 
+  /** Name of the global JavaScript function to report spec results. For
+   * further information look at {@link SpecHandler}. */
+  public static final String SPEC_HANDLER = "htmlunitReportSpec";
+
+  /** Name of the global JavaScript variable that holds the position of the
+   * running shard, starting at zero. */
+  public static final String SPEC_SHARD = "htmlunitSpecShard";
+
+  /** Name of the global JavaScript variable that holds the number of shards
+   * the running test is split into. */
+  public static final String SPEC_SHARDS = "htmlunitSpecShards";
+
   /** Class logger. */
   private static final Logger LOG = LoggerFactory
       .getLogger(AbstractRunner.class);
@@ -80,24 +181,105 @@ public abstract class AbstractRunner implements WebDriverRunner {
   /** Test runner file name. */
   private static final String TEST_RUNNER_SUFFIX = "Runner.html";
 
+  /** Directory, relative to the output directory, to extract JAR resources
+   * into. */
+  private static final String JAR_CACHE_DIRECTORY = "jar-cache";
+
+  /** File, relative to the output directory, to keep the test history. */
+  private static final String TEST_HISTORY_FILE = "test-history.properties";
+
+  /** File, relative to the reports directory, to write JSON results. */
+  private static final String RESULTS_FILE = "test-results.jsonl";
+
+  /** Bootstrap script that runs only the specs of the current shard. */
+  private static final String SHARDING_ADAPTER = "JasmineAdapter.js";
+
+  /** Number of characters of the runner key used in runner names. */
+  private static final int RUNNER_KEY_LENGTH = 12;
+
+  /** Number of characters of the test url hash used in runner names. */
+  private static final int TEST_ID_LENGTH = 8;
+
+  /** Charset used to build runner keys. */
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
   /** Default wait polling interval, in milliseconds. */
   private static final long POLLING_INTERVAL = 1000;
 
+  /** Time the watchdog thread is kept alive without tests to watch, in
+   * milliseconds. */
+  private static final long WATCHDOG_KEEP_ALIVE = 1000;
+
+  /** Interval between checks of the CPU time used by a test, in
+   * milliseconds. */
+  private static final long CPU_CHECK_INTERVAL = 100;
+
+  /** Nanoseconds per millisecond. */
+  private static final long NANOS_PER_MILLI = 1000000;
+
+  /** Number of counters in the summary of each browser version: tests run,
+   * failures and skipped tests. */
+  private static final int SUMMARY_FIELDS = 3;
+
   /** Runner configuration; it's valid only after initialize(). */
   private RunnerContext context;
 
-  /** Web driver to load pages; it's never null after initialize(). */
-  private RunnerDriver driver;
+  /** Web driver to load pages; it's never null after initialize(). It's
+   * replaced if it expires. */
+  private volatile RunnerDriver driver;
+
+  /** Web drivers available to run tests, one pool per browser version; the
+   * first pool includes the main driver. It's created when tests run for the
+   * first time. */
+  private List<DriverPool> drivers;
+
+  /** Web driver running a test in the current thread; it's empty if no
+   * test is running. */
+  private final ThreadLocal<RunnerDriver> currentDriver =
+      new ThreadLocal<RunnerDriver>();
+
+  /** Cache of resources extracted from JAR files; it's created when the
+   * first resource is required. */
+  private JarResourceCache jarResourceCache;
+
+  /** Stops tests that exceeded the test timeout; it's created when the first
+   * test is watched. */
+  private ScheduledExecutorService watchdog;
+
+  /** Duration and outcome of previous test executions; it's created when
+   * tests run for the first time. */
+  private TestHistory testHistory;
+
+  /** Reporters that receive results; they're opened when tests run for the
+   * first time and they're kept open until the runner finishes. */
+  private List<ResultReporter> reporters;
+
+  /** Runner file currently used by each test, by test url; it's never
+   * null. */
+  private final ConcurrentMap<String, File> runnerFiles =
+      new ConcurrentHashMap<String, File>();
+
+  /** Runner key part calculated from scripts; it's null until the first
+   * runner is created. */
+  private String scriptsKey;
 
   /** List of registered events. */
   private List<EventDefinition> eventDefinitions =
-      new ArrayList<EventDefinition>();
-
-  /** Object to wait for web driver processing; it's never null after
-   * initialize(). */
-  private WebClientWait wait;
+      new CopyOnWriteArrayList<EventDefinition>();
 
   /** Loads a single test file into test runner template.
+   *
+   * <p>
+   * Runners are rendered ahead of test execution, so this method is invoked
+   * from a background thread while previous tests are still running, not
+   * from the thread that runs the test. Runners are rendered in execution
+   * order, but each browser version renders its runners in its own thread
+   * and, if runners are rendered on demand, they're rendered by the threads
+   * running tests. So implementations must be thread-safe, and they cannot
+   * rely on the web driver or on the test that is currently running. Setting
+   * the <code>runnerLookahead</code> runner attribute to zero renders each
+   * runner just before its test runs.
+   * </p>
    *
    * @param runnerTemplate Current runner template. Cannot be null.
    * @param test Test to load, as a pattern. Cannot be null.
@@ -115,16 +297,6 @@ public abstract class AbstractRunner implements WebDriverRunner {
     configureRunner(context);
     context.init();
     driver = new RunnerDriver(context.getBrowserVersion());
-    int timeout = getContext().getTimeout();
-    boolean throwException = driver.getWebClient().getOptions()
-        .isThrowExceptionOnScriptError();
-    wait = new WebClientWait(driver.getWebClient());
-    wait.setThrowJavaScriptException(throwException)
-      .pollingEvery(POLLING_INTERVAL, TimeUnit.MILLISECONDS);
-    if (timeout > -1) {
-      // -1 means INFINITE, no timeout.
-      wait.withTimeout(timeout, TimeUnit.SECONDS);
-    }
   }
 
   /** {@inheritDoc}
@@ -133,6 +305,8 @@ public abstract class AbstractRunner implements WebDriverRunner {
   public void run() {
     if (getContext().isDebugMode()) {
       runServer();
+    } else if (getContext().isServiceMode()) {
+      runService();
     } else {
       runDriver();
     }
@@ -170,10 +344,16 @@ public abstract class AbstractRunner implements WebDriverRunner {
     return context;
   }
 
-  /** Returns the htmlunit web driver.
+  /** Returns the htmlunit web driver. If a test is running in the current
+   * thread, it returns the driver that runs the test.
+   *
    * @return Returns the driver, or null if the runner isn't yet initialized.
    */
   public HtmlUnitDriver getDriver() {
+    RunnerDriver current = currentDriver.get();
+    if (current != null) {
+      return current;
+    }
     return driver;
   }
 
@@ -199,8 +379,70 @@ public abstract class AbstractRunner implements WebDriverRunner {
   protected void configureWebClient(final WebClient client) {
   }
 
+  /** Invoked each time a JavaScript test framework reports a spec through
+   * the {@link #SPEC_HANDLER} function, while the test is still running. It
+   * may be invoked from JavaScript background threads.
+   *
+   * @param test Test that is running. It's never null.
+   * @param spec Reported spec. It's never null.
+   */
+  protected void specFinished(final URL test, final SpecResult spec) {
+  }
+
+  /** Invoked after {@link #testFinished} with all specs reported by the test.
+   * By default it fails the test if any spec failed. If the test is split
+   * into shards, it receives the specs of all shards, in shard order.
+   *
+   * @param test Test that finished. It's never null.
+   * @param specs Specs reported by the test, in report order. It's never
+   *    null, and it's empty if the test reported no specs.
+   */
+  protected void specsFinished(final URL test, final List<SpecResult> specs) {
+    StringBuilder failures = new StringBuilder();
+    for (SpecResult spec : specs) {
+      if (!spec.isPassed()) {
+        failures.append("\n  ").append(spec.getName());
+        if (spec.getMessage() != null) {
+          failures.append(": ").append(spec.getMessage());
+        }
+      }
+    }
+    if (failures.length() > 0) {
+      throw new AssertionError("Failed specs in " + test + failures);
+    }
+  }
+
+  /** Creates the reporters that receive results as tests finish. It's invoked
+   * once per runner, the first time tests run, and the reporters receive the
+   * results of all executions. By default it creates the built-in reporters
+   * listed
+   * in {@link RunnerContext#getReporters()}. It can be overridden to add
+   * custom reporters.
+   *
+   * @return A valid list of reporters, never returns null.
+   */
+  protected List<ResultReporter> createReporters() {
+    List<ResultReporter> reporters = new ArrayList<ResultReporter>();
+    File reportsDirectory = getContext().getReportsDirectory();
+
+    for (String name : getContext().getReporters()) {
+      if (name.equals("xml")) {
+        reporters.add(new XmlResultReporter(reportsDirectory));
+      } else if (name.equals("json")) {
+        reporters.add(new JsonResultReporter(new File(reportsDirectory,
+            RESULTS_FILE)));
+      } else {
+        throw new IllegalArgumentException("Unknown result reporter: "
+            + name);
+      }
+    }
+    return reporters;
+  }
+
   /** Invoked when a single test finished. Useful to validate results. It's not
-   * supported when debug mode is enabled.
+   * supported when debug mode is enabled. If the test is split into shards,
+   * it's invoked once, with the page of the last shard that finished, and
+   * it's not invoked if any shard didn't finish.
    *
    * @param test Test that finished. It's never null.
    * @param page DOM page which has the test results. It's never null.
@@ -218,199 +460,1098 @@ public abstract class AbstractRunner implements WebDriverRunner {
    */
   private void loadResources(final StringTemplate testRunner) {
     URL testRunnerScript = getContext().getTestRunnerScript();
-    List<URL> bootstrapScripts = getContext().getBootstrapScripts();
+    List<URL> bootstrapScripts = new ArrayList<URL>(
+        getContext().getBootstrapScripts());
+
+    int inlineThreshold = getContext().getInlineScriptThreshold();
 
     if (testRunnerScript != null) {
       testRunner.setAttribute("testRunnerScript",
-          ResourceUtils.generateScriptTags(Arrays.asList(testRunnerScript)));
+          ResourceUtils.generateScriptTags(Arrays.asList(testRunnerScript),
+              inlineThreshold));
     }
     if (getContext().isDebugMode()) {
       bootstrapScripts.addAll(TestDebugServer
           .getDebugBootstrapScripts("localhost", getContext().getDebugPort()));
     }
     testRunner.setAttribute("bootstrapScripts",
-        ResourceUtils.generateScriptTags(bootstrapScripts));
+        ResourceUtils.generateScriptTags(bootstrapScripts, inlineThreshold));
     testRunner.setAttribute("sourceScripts",
-        ResourceUtils.generateScriptTags(getContext().getSourceScripts()));
+        ResourceUtils.generateScriptTags(getContext().getSourceScripts(),
+            inlineThreshold));
+  }
+
+  /** Returns a key that identifies the inputs of the runner for the
+   * specified test. Runners are written under a name derived from this key
+   * and they're rendered only if there's no runner with the same key.
+   *
+   * <p>
+   * By default the key is built from the runner class, the template, the
+   * scripts, the test url and the last modification time of local resources,
+   * not from their content: a resource that changes without updating its
+   * modification time doesn't produce a new runner. Implementations that load
+   * additional content into the template must override this method to
+   * include it in the key.
+   * </p>
+   *
+   * @param testFile Test to build the runner key for. Cannot be null.
+   * @return A valid key, never returns null.
+   */
+  protected String getRunnerKey(final URL testFile) {
+    URL template = getContext().getTestRunnerTemplate();
+    StringBuilder key = new StringBuilder()
+      .append(getClass().getName()).append("\n")
+      .append(getScriptsKey()).append("\n")
+      .append(template).append(":")
+      .append(ResourceUtils.getLastModified(template)).append("\n")
+      .append(testFile).append(":")
+      .append(ResourceUtils.getLastModified(testFile));
+
+    return ResourceUtils.hash(key.toString().getBytes(UTF_8));
   }
 
   /** Creates the test runner for the specified test and writes the processed
-   * template to the runner. By default, the test runner will be named as the
-   * test file plus a constant suffix.
+   * template to the runner. The runner is named as the test file plus a short
+   * hash of the test url, a short form of the runner key and a constant
+   * suffix. If the runner already exists, it's not rendered again. Once the
+   * key of a test changes, the runner previously created for the test is
+   * deleted, so runners don't pile up in the output directory while tests
+   * run on request or in debug mode.
    *
    * @param testFile Test script to create runner file for. Cannot be null.
    * @return The generated runner URL. Never returns null.
    */
   private URL createTestRunnerFile(final URL testFile) {
-    String baseName = FilenameUtils.getBaseName(testFile.getFile());
+    String key = getRunnerKey(testFile);
     File runnerFile = new File(getContext().getOutputDirectory(),
-        baseName + TEST_RUNNER_SUFFIX);
-
-    // Generates a new template and prepares the environment.
-    String htmlTemplate = ResourceUtils.readAsText(
-        getContext().getTestRunnerTemplate());
-    StringTemplate template = new StringTemplate(htmlTemplate,
-        DefaultTemplateLexer.class);
-    loadResources(template);
-
-    // Loads test file into template.
-    loadTest(template, testFile);
+        getRunnerPrefix(testFile) + key.substring(0, RUNNER_KEY_LENGTH)
+        + TEST_RUNNER_SUFFIX);
 
     try {
-      FileUtils.writeStringToFile(runnerFile, template.toString());
+      if (runnerFile.exists()) {
+        LOG.debug("Reusing runner {}", runnerFile);
+        deletePreviousRunner(testFile, runnerFile);
+        return runnerFile.toURI().toURL();
+      }
+
+      // Generates a new template and prepares the environment.
+      String htmlTemplate = ResourceUtils.readAsText(
+          getContext().getTestRunnerTemplate());
+      StringTemplate template = new StringTemplate(htmlTemplate,
+          DefaultTemplateLexer.class);
+      loadResources(template);
+
+      // Loads test file into template.
+      loadTest(template, testFile);
+
+      // Writes a temporary file and renames it, so a partially written
+      // runner is never reused. It's written in the charset runners are
+      // served with.
+      File tempFile = new File(runnerFile.getPath() + ".tmp"
+          + Thread.currentThread().getId());
+      FileUtils.writeStringToFile(tempFile, template.toString(),
+          ResourceWebResponse.CHARSET);
+      if (!tempFile.renameTo(runnerFile)) {
+        FileUtils.deleteQuietly(tempFile);
+        if (!runnerFile.exists()) {
+          throw new IOException("Cannot rename " + tempFile);
+        }
+      }
+      deletePreviousRunner(testFile, runnerFile);
       return runnerFile.toURI().toURL();
     } catch (IOException cause) {
       throw new RuntimeException("Cannot write runner file", cause);
     }
   }
 
-  /** Runs tests using the web driver.
+  /** Returns the start of the runner names of a test: the test file name,
+   * plus a short hash of the test url, so tests with the same name in
+   * different directories have different runners.
+   *
+   * @param testFile Test to get the prefix for. Cannot be null.
+   * @return A valid prefix, never returns null.
    */
-  private void runDriver() {
-    for (URL testFile : getContext().getTestFiles()) {
-      URL runner = createTestRunnerFile(testFile);
+  private String getRunnerPrefix(final URL testFile) {
+    String baseName = FilenameUtils.getBaseName(testFile.getFile());
+    String testId = ResourceUtils.hash(testFile.toString().getBytes(UTF_8));
+    return baseName + "-" + testId.substring(0, TEST_ID_LENGTH) + "-";
+  }
 
-      // Executes the test and waits for completion.
-      getDriver().get(runner.toString());
+  /** Registers the current runner of a test and deletes the runner it
+   * replaces, if any. The first time a test gets a runner, it also deletes
+   * the runners left for the same test by previous builds.
+   *
+   * @param testFile Test the runner belongs to. Cannot be null.
+   * @param runnerFile Current runner of the test. Cannot be null.
+   */
+  private void deletePreviousRunner(final URL testFile,
+      final File runnerFile) {
+    File previous = runnerFiles.put(testFile.toString(), runnerFile);
+    if (previous == null) {
+      IOFileFilter filter = FileFilterUtils.and(
+          new PrefixFileFilter(getRunnerPrefix(testFile)),
+          new SuffixFileFilter(TEST_RUNNER_SUFFIX));
+      File[] runners = runnerFile.getParentFile().listFiles(
+          (FileFilter) filter);
+      if (runners != null) {
+        for (File runner : runners) {
+          if (!runner.equals(runnerFile)) {
+            LOG.debug("Deleting outdated runner {}", runner);
+            FileUtils.deleteQuietly(runner);
+          }
+        }
+      }
+    } else if (!previous.equals(runnerFile)) {
+      LOG.debug("Deleting outdated runner {}", previous);
+      FileUtils.deleteQuietly(previous);
+    }
+  }
 
-      wait.start();
+  /** Discards the part of the runner keys that depends on scripts, so it's
+   * calculated again for the next runner.
+   */
+  private synchronized void resetScriptsKey() {
+    scriptsKey = null;
+  }
 
-      // Notifies test result.
-      testFinished(testFile, driver.getCurrentPage());
+  /** Returns the part of the runner keys that depends on scripts shared by
+   * all runners. It's calculated only once, since scripts don't change during
+   * the execution. The debug server resets it for each runner request, since
+   * scripts are edited while it's running.
+   *
+   * @return A valid key, never returns null.
+   */
+  private synchronized String getScriptsKey() {
+    if (scriptsKey == null) {
+      List<URL> scripts = new ArrayList<URL>();
+      if (getContext().getTestRunnerScript() != null) {
+        scripts.add(getContext().getTestRunnerScript());
+      }
+      scripts.addAll(getContext().getBootstrapScripts());
+      scripts.addAll(getContext().getSourceScripts());
+
+      StringBuilder key = new StringBuilder()
+        .append(getContext().isDebugMode()).append(":")
+        .append(getContext().getDebugPort()).append(":")
+        .append(getContext().getInlineScriptThreshold());
+      for (URL script : scripts) {
+        key.append("\n").append(script).append(":")
+          .append(ResourceUtils.getLastModified(script));
+      }
+      scriptsKey = key.toString();
+    }
+    return scriptsKey;
+  }
 
-      // WebDriver doesn't switch automatically.
-      String windowHandle = (String) CollectionUtils
-          .get(getDriver().getWindowHandles(), 0);
-      getDriver().switchTo().window(windowHandle);
+  /** Returns the cache of resources extracted from JAR files, creating it
+   * into the output directory if it doesn't exist. If resources are shared
+   * with other executions, it returns the shared cache.
+   *
+   * @return A valid cache, never returns null.
+   */
+  private synchronized JarResourceCache getJarResourceCache() {
+    if (jarResourceCache == null) {
+      File cacheDirectory = new File(getContext().getOutputDirectory(),
+          JAR_CACHE_DIRECTORY);
+      if (getContext().getSession() != null) {
+        jarResourceCache = getContext().getSession()
+            .getJarResourceCache(cacheDirectory);
+      } else {
+        jarResourceCache = new JarResourceCache(cacheDirectory);
+      }
     }
+    return jarResourceCache;
   }
 
-  /** Runs tests using the a web server to allow debugging from browsers.
+  /** Runs tests using the web driver. It stops once
+   * {@link RunnerContext#getMaxFailures()} tests failed in any browser
+   * version, and it throws the error that caused the first failure.
    */
-  private void runServer() {
+  private void runDriver() {
+    checkSpecShards();
+    List<TestResult> results;
     try {
-      int debugPort = getContext().getDebugPort();
-
-      /** HTTP server for debug mode.
-       */
-      TestDebugServer debugServer = new TestDebugServer(debugPort) {
-        /** {@inheritDoc}
-         */
-        @Override
-        public URL getRunner(final URL testFile) {
-          return createTestRunnerFile(testFile);
-        }
+      results = executeTests(getContext().getTestFiles(),
+          getContext().getMaxFailures());
+    } finally {
+      closeReporters();
+    }
+    if (getContext().getBrowserVersions().size() > 1
+        || getContext().getMaxFailures() != 1) {
+      logResults(results);
+    }
+    for (TestResult result : results) {
+      Throwable failure = result.getFailure();
+      if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      }
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+    }
+  }
 
-        /** Adds the runner configuration to the window's global scope in order
-         * to keep compatibility with non-debug tests.
-         * <p>
-         * {@inheritDoc}
-         * </p>
-         */
-        @Override
-        protected InputStream getDebugScript() {
-          Set<Entry<Object, Object>> entries = getContext()
-              .getRunnerConfiguration().entrySet();
-          StringBuilder debugCode = new StringBuilder();
+  /** Warns if tests are split into shards but the adapter that runs only the
+   * specs of each shard is not loaded. Tests that don't read the shard
+   * globals run completely in every shard, so they run once per shard.
+   */
+  private void checkSpecShards() {
+    if (getContext().getSpecShards() < 2) {
+      return;
+    }
+    for (URL script : getContext().getBootstrapScripts()) {
+      if (script.getPath().endsWith(SHARDING_ADAPTER)) {
+        return;
+      }
+    }
+    LOG.warn("specShards is {} but {} is not a bootstrap script. Tests that"
+        + " don't run only the specs of their shard run {} times.",
+        new Object[] {getContext().getSpecShards(), SHARDING_ADAPTER,
+        getContext().getSpecShards()});
+  }
 
-          for (Entry<Object, Object> entry : entries) {
-            String scapedValue = entry.getValue().toString()
-                .replaceAll("\n", "");
+  /** Writes a summary of results for each browser version.
+   *
+   * @param results Results to write. Cannot be null.
+   */
+  private void logResults(final List<TestResult> results) {
+    Map<String, int[]> summary = new LinkedHashMap<String, int[]>();
+
+    for (TestResult result : results) {
+      int[] counts = summary.get(result.getBrowserVersion());
+      if (counts == null) {
+        counts = new int[SUMMARY_FIELDS];
+        summary.put(result.getBrowserVersion(), counts);
+      }
+      counts[0] += 1;
+      if (result.isFailed()) {
+        counts[1] += 1;
+        LOG.error("{} [{}]: {}", new Object[] {result.getTest(),
+            result.getBrowserVersion(), result.getFailure()});
+      }
+      if (result.getStatus() == TestResult.Status.SKIPPED) {
+        counts[2] += 1;
+      }
+    }
+    for (Entry<String, int[]> entry : summary.entrySet()) {
+      LOG.info("{}: tests run: {}, failures: {}, skipped: {}", new Object[] {
+          entry.getKey(), entry.getValue()[0], entry.getValue()[1],
+          entry.getValue()[2]});
+    }
+  }
 
-            debugCode.append("window[\"" + entry.getKey() + "\"] = \""
-                + scapedValue + "\";\n");
-          }
+  /** Runs the specified tests in all browser versions. Browser versions run
+   * concurrently and they share the rendered runners. Results are recorded
+   * into the test history.
+   *
+   * @param tests Tests to run. Cannot be null.
+   * @param maxFailures Number of failed tests, in any browser version, that
+   *    stops the execution. Zero means the execution never stops.
+   * @return The results of all tests, including tests skipped because the
+   *    execution stopped, grouped by browser version in execution order.
+   *    Never returns null.
+   */
+  private List<TestResult> executeTests(final List<URL> tests,
+      final int maxFailures) {
+    List<TestResult> results = executeTests(tests, new Execution(
+        maxFailures, getReporters()));
+    getTestHistory().save();
+    return results;
+  }
 
-          return new ByteArrayInputStream(debugCode.toString().getBytes());
-        }
-      };
+  /** Returns the reporters that receive results, and opens them if it's the
+   * first time tests run.
+   *
+   * @return A valid list of open reporters, never returns null.
+   */
+  private synchronized List<ResultReporter> getReporters() {
+    if (reporters == null) {
+      List<ResultReporter> newReporters = createReporters();
+      for (ResultReporter reporter : newReporters) {
+        reporter.open();
+      }
+      reporters = newReporters;
+    }
+    return reporters;
+  }
 
-      debugServer.setTestFiles(getContext().getTestFiles());
-      debugServer.start();
-    } catch (IOException cause) {
-      throw new RuntimeException("Cannot start web server.", cause);
+  /** Closes the reporters, if they were opened. It's invoked once the runner
+   * finished running tests.
+   */
+  private synchronized void closeReporters() {
+    if (reporters != null) {
+      for (ResultReporter reporter : reporters) {
+        reporter.close();
+      }
+      reporters = null;
     }
   }
 
-  /** Modified WebDriver with several workarounds and custom configuration.
+  /** Runs the specified tests in all browser versions.
+   *
+   * @param tests Tests to run. Cannot be null.
+   * @param execution Execution the tests belong to. Cannot be null.
+   * @return The results of all tests, grouped by browser version in
+   *    execution order. Never returns null.
    */
-  class RunnerDriver extends HtmlUnitDriver {
+  private List<TestResult> executeTests(final List<URL> tests,
+      final Execution execution) {
+    List<DriverPool> pools = getDriverPools();
 
-    /** Creates a driver and sets the browser version.
-     * @param version Driver's browser version. Cannot be null.
-     */
-    public RunnerDriver(final BrowserVersion version) {
-      super(version);
+    if (pools.size() == 1) {
+      return executeTests(tests, pools.get(0), execution);
     }
 
-    /** Returns the {@link HtmlPage} for the current window.
-     * @return When loaded, it returns a valid page.
-     */
-    public HtmlPage getCurrentPage() {
-      return (HtmlPage) lastPage();
+    final List<List<TestResult>> results = new ArrayList<List<TestResult>>(
+        Collections.<List<TestResult>>nCopies(pools.size(), null));
+    List<Runnable> tasks = new ArrayList<Runnable>();
+
+    for (int i = 0; i < pools.size(); i++) {
+      final int index = i;
+      final DriverPool pool = pools.get(i);
+      tasks.add(new Runnable() {
+        @Override
+        public void run() {
+          results.set(index, executeTests(tests, pool, execution));
+        }
+      });
     }
+    runConcurrently(tasks);
 
-    /** Returns the configured web client.
-     * @return Returns a valid web client, never returns null.
-     */
-    @Override
-    public WebClient getWebClient() {
-      return super.getWebClient();
+    List<TestResult> executed = new ArrayList<TestResult>();
+    for (List<TestResult> versionResults : results) {
+      executed.addAll(versionResults);
     }
+    return executed;
+  }
 
-    /** {@inheritDoc}
-     */
-    @Override
-    protected WebClient modifyWebClient(final WebClient theClient) {
-      theClient.setWebConnection(createConnectionWrapper(theClient));
-      initializeWebClientConfiguration(theClient);
-      configureWebClient(theClient);
-      return theClient;
+  /** Runs the specified tests using the web drivers of a browser version.
+   * Tests are sorted by their history, and runners are rendered in background
+   * ahead of execution. Tests, or their shards if tests are split, are
+   * distributed among {@link RunnerContext#getThreadCount()} threads. Once
+   * the execution stops, tests that didn't run are reported as skipped.
+   *
+   * @param tests Tests to run. Cannot be null.
+   * @param pool Web drivers to run tests in. Cannot be null.
+   * @param execution Execution the tests belong to. Cannot be null.
+   * @return The results of all tests, in execution order. Never returns
+   *    null.
+   */
+  private List<TestResult> executeTests(final List<URL> tests,
+      final DriverPool pool, final Execution execution) {
+    String browserVersion = pool.getBrowserVersion().getNickname();
+    List<URL> sortedTests = getTestHistory().sort(tests, browserVersion);
+    final RunnerQueue runners = new RunnerQueue(sortedTests,
+        getContext().getRunnerLookahead(), execution.getRunnerCache(),
+        getContext().getSpecShards());
+    final TestResult[] results = new TestResult[tests.size()];
+    final Map<Integer, List<TestResult>> shardResults =
+        new HashMap<Integer, List<TestResult>>();
+    int threads = Math.min(getContext().getThreadCount(), tests.size()
+        * getContext().getSpecShards());
+
+    Runnable worker = new Runnable() {
+      @Override
+      public void run() {
+        while (!execution.isStopped()) {
+          ScheduledTest test = runners.next();
+          if (test == null) {
+            return;
+          }
+          TestResult result = runTest(test, pool, execution);
+          if (test.getShards() > 1) {
+            result = addShardResult(shardResults, test, result);
+          }
+          if (result != null) {
+            results[test.getIndex()] = result;
+            // Shards of a test count as a single failure.
+            if (result.isFailed()) {
+              execution.failed();
+            }
+            execution.report(result);
+          }
+        }
+      }
     };
 
-    /** Since version 2.32.0, selenium doesn't allow to use DOM in closed
-     * windows. We're currently assuming that closing window is the
-     * signal of test completed, so it's necessary to check the DOM after
-     * tests. We override the new selenium behaviour to make DOM work
-     * with closed windows.
-     * @return Returns the DOM page of the current window.
-     */
-    @Override
-    protected Page lastPage() {
-      return getCurrentWindow().getEnclosedPage();
+    try {
+      if (threads > 1) {
+        runConcurrently(Collections.nCopies(threads, worker));
+      } else {
+        worker.run();
+      }
+    } finally {
+      runners.close();
     }
 
-    /** Initializes default webclient configuration.
-     *
-     * @param theClient Client to initialize configuration. Cannot be null.
-     */
-    private void initializeWebClientConfiguration(final WebClient theClient) {
-      // Loads default configuration from context.
-      Properties configuration = getContext().getWebClientConfiguration();
-      for (Object property : configuration.keySet()) {
-        try {
-          String methodName = "set" + StringUtils.capitalize((String) property);
-          TypedPropertyEditor editor = new TypedPropertyEditor();
-          editor.setValue(configuration.get(property));
-          Statement stmt = new Statement(theClient.getOptions(), methodName,
-              new Object[] {editor.getValue()});
-          stmt.execute();
-        } catch (Exception cause) {
-          throw new IllegalArgumentException("Property " + property
-              + " cannot be set in web client.", cause);
-        }
-      }
+    // Tests whose shards didn't run because execution stopped.
+    for (Entry<Integer, List<TestResult>> entry : shardResults.entrySet()) {
+      TestResult result = mergeResults(entry.getValue(),
+          getContext().getSpecShards());
+      results[entry.getKey()] = result;
+      execution.report(result);
+    }
 
-      theClient.setAjaxController(new NicelyResynchronizingAjaxController());
-      theClient.setIncorrectnessListener(new IncorrectnessListener() {
-        @Override
-        public void notify(final String message, final Object origin) {
-          LOG.trace(message, origin);
-        }
-      });
-      theClient.addWebWindowListener(new WebWindowListener() {
+    List<TestResult> executed = new ArrayList<TestResult>();
+    for (int i = 0; i < results.length; i++) {
+      if (results[i] == null) {
+        results[i] = TestResult.skipped(sortedTests.get(i), browserVersion, 0);
+        execution.report(results[i]);
+      }
+      executed.add(results[i]);
+    }
+    return executed;
+  }
 
-        /** {@inheritDoc}
+  /** Adds the result of a shard to the results of its test.
+   *
+   * @param shardResults Results of shards, indexed by test position. Cannot
+   *    be null.
+   * @param test Shard that finished. Cannot be null.
+   * @param result Result of the shard. Cannot be null.
+   * @return The merged result of the test if all its shards finished, or
+   *    null if there're shards still pending.
+   */
+  private static TestResult addShardResult(
+      final Map<Integer, List<TestResult>> shardResults,
+      final ScheduledTest test, final TestResult result) {
+    synchronized (shardResults) {
+      List<TestResult> results = shardResults.get(test.getIndex());
+      if (results == null) {
+        results = new ArrayList<TestResult>();
+        shardResults.put(test.getIndex(), results);
+      }
+      results.add(result);
+      if (results.size() < test.getShards()) {
+        return null;
+      }
+      shardResults.remove(test.getIndex());
+      return mergeResults(results, test.getShards());
+    }
+  }
+
+  /** Merges the results of the shards of a test. The duration is the time
+   * spent by all shards. The test fails if any shard failed, and it's
+   * skipped if no shard failed but any of them was skipped or didn't run.
+   *
+   * @param shardResults Results of the shards that finished. Cannot be null
+   *    or empty.
+   * @param shards Number of shards the test is split into.
+   * @return The test result, never returns null.
+   */
+  static TestResult mergeResults(final List<TestResult> shardResults,
+      final int shards) {
+    TestResult first = shardResults.get(0);
+    List<Throwable> failures = new ArrayList<Throwable>();
+    // Shards that weren't dispatched because the execution stopped.
+    boolean skipped = shardResults.size() < shards;
+    long duration = 0;
+
+    for (TestResult result : shardResults) {
+      duration += result.getDuration();
+      if (result.getFailure() != null) {
+        failures.add(result.getFailure());
+      }
+      if (result.getStatus() == TestResult.Status.SKIPPED) {
+        skipped = true;
+      }
+    }
+    if (failures.isEmpty() && skipped) {
+      return TestResult.skipped(first.getTest(), first.getBrowserVersion(),
+          duration);
+    }
+
+    Throwable failure = null;
+    if (failures.size() == 1) {
+      failure = failures.get(0);
+    } else if (failures.size() > 1) {
+      StringBuilder message = new StringBuilder("Failed shards in "
+          + first.getTest());
+      for (Throwable cause : failures) {
+        message.append("\n").append(cause.getMessage());
+      }
+      failure = new AssertionError(message.toString());
+      failure.initCause(failures.get(0));
+    }
+    return new TestResult(first.getTest(), first.getBrowserVersion(),
+        duration, failure);
+  }
+
+  /** Runs each task in its own thread and waits until all of them finished.
+   *
+   * @param tasks Tasks to run. Cannot be null or empty.
+   */
+  private void runConcurrently(final List<Runnable> tasks) {
+    final ClassLoader classLoader = Thread.currentThread()
+        .getContextClassLoader();
+    ExecutorService executor = Executors.newFixedThreadPool(tasks.size(),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "htmlunit-runner");
+            // Resources are resolved using the context class loader.
+            thread.setContextClassLoader(classLoader);
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    try {
+      List<Future<?>> workers = new ArrayList<Future<?>>();
+      for (Runnable task : tasks) {
+        workers.add(executor.submit(task));
+      }
+      for (Future<?> worker : workers) {
+        worker.get();
+      }
+    } catch (InterruptedException cause) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted running tests.", cause);
+    } catch (ExecutionException cause) {
+      throw new RuntimeException("Cannot run tests.", cause.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** Runs a single test in the first available web driver of a pool. Any
+   * error raised while the test is running is reported as a test failure.
+   * The test is skipped if the execution stops before it starts, or if it's
+   * cancelled while running.
+   *
+   * @param test Test to run. Cannot be null.
+   * @param pool Web drivers to run the test in. Cannot be null.
+   * @param execution Execution the test belongs to. Cannot be null.
+   * @return The test result, never returns null.
+   */
+  private TestResult runTest(final ScheduledTest test,
+      final DriverPool pool, final Execution execution) {
+    long start = System.currentTimeMillis();
+    Throwable failure = null;
+    boolean skipped = false;
+    boolean cancelled = false;
+
+    try {
+      URL runner = test.getRunner();
+      RunnerDriver runnerDriver = pool.acquire();
+      currentDriver.set(runnerDriver);
+      try {
+        if (execution.started(runnerDriver)) {
+          try {
+            runnerDriver.runTest(test, runner);
+          } finally {
+            execution.finished(runnerDriver);
+          }
+        } else {
+          skipped = true;
+        }
+      } finally {
+        currentDriver.remove();
+        cancelled = runnerDriver.isCancelled();
+        if (runnerDriver.isExpired()) {
+          pool.replace(runnerDriver);
+        } else {
+          pool.release(runnerDriver);
+        }
+      }
+    } catch (RuntimeException cause) {
+      failure = cause;
+    } catch (AssertionError cause) {
+      failure = cause;
+    }
+
+    String browserVersion = pool.getBrowserVersion().getNickname();
+    long duration = System.currentTimeMillis() - start;
+    // A cancelled test that finished anyway keeps its result.
+    if (skipped || (cancelled && failure != null)) {
+      return TestResult.skipped(test.getTest(), browserVersion, duration);
+    }
+    return new TestResult(test.getTest(), browserVersion, duration, failure);
+  }
+
+  /** Returns the executor that stops tests exceeding the test timeout. Its
+   * thread is created on demand and it stops when there're no tests to
+   * watch.
+   *
+   * @return A valid executor, never returns null.
+   */
+  private synchronized ScheduledExecutorService getWatchdog() {
+    if (watchdog == null) {
+      ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable task) {
+              Thread thread = new Thread(task, "htmlunit-watchdog");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+      executor.setKeepAliveTime(WATCHDOG_KEEP_ALIVE, TimeUnit.MILLISECONDS);
+      executor.allowCoreThreadTimeOut(true);
+      watchdog = executor;
+    }
+    return watchdog;
+  }
+
+  /** Returns the duration and outcome of previous test executions, loading
+   * them from the output directory the first time they're required.
+   *
+   * @return A valid test history, never returns null.
+   */
+  private synchronized TestHistory getTestHistory() {
+    if (testHistory == null) {
+      testHistory = new TestHistory(new File(getContext()
+          .getOutputDirectory(), TEST_HISTORY_FILE));
+    }
+    return testHistory;
+  }
+
+  /** Returns the pools of web drivers, one for each browser version. Pools
+   * are created the first time they're required.
+   *
+   * @return A valid list of pools, in the same order as browser versions.
+   *    Never returns null or an empty list.
+   */
+  private synchronized List<DriverPool> getDriverPools() {
+    if (drivers == null) {
+      drivers = new ArrayList<DriverPool>();
+      for (BrowserVersion version : getContext().getBrowserVersions()) {
+        if (drivers.isEmpty()) {
+          // The main driver runs tests in the first browser version.
+          drivers.add(new DriverPool(version, driver));
+        } else {
+          drivers.add(new DriverPool(version, null));
+        }
+      }
+    }
+    return drivers;
+  }
+
+  /** Waits until the specified runner is rendered.
+   *
+   * @param runner Runner being rendered. Cannot be null.
+   * @return The runner url, never returns null.
+   */
+  private static URL waitForRunner(final Future<URL> runner) {
+    try {
+      return runner.get();
+    } catch (InterruptedException cause) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted rendering runner.", cause);
+    } catch (ExecutionException cause) {
+      if (cause.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) cause.getCause();
+      }
+      throw new RuntimeException("Cannot render runner.", cause.getCause());
+    }
+  }
+
+  /** Runs tests on request using a web server. Web drivers are kept between
+   * requests.
+   */
+  private void runService() {
+    try {
+      int port = getContext().getDebugPort();
+
+      /** HTTP server to run tests on request.
+       */
+      TestDebugServer server = new TestDebugServer(port) {
+        /** {@inheritDoc}
+         */
+        @Override
+        public URL getRunner(final URL testFile) {
+          return createTestRunnerFile(testFile);
+        }
+
+        /** {@inheritDoc}
+         */
+        @Override
+        protected URL getRunnerTemplate() {
+          return getContext().getTestRunnerTemplate();
+        }
+
+        /** Runs tests in the runner drivers, and never stops on failures.
+         * {@inheritDoc}
+         */
+        @Override
+        protected List<TestResult> runTests(final List<URL> tests) {
+          return executeTests(tests, 0);
+        }
+
+        /** Expands test files and scripts again, since they may have been
+         * added, removed or changed since the previous request.
+         * {@inheritDoc}
+         */
+        @Override
+        protected void beforeRun() {
+          getContext().reloadResources();
+          resetScriptsKey();
+          setTestFiles(getContext().getTestFiles());
+        }
+
+        /** {@inheritDoc}
+         */
+        @Override
+        protected String getServiceKey() {
+          return getContext().getServiceKey();
+        }
+      };
+      server.setTestFiles(getContext().getTestFiles());
+      checkSpecShards();
+      LOG.info("Running tests on request at port {} with key {}", port,
+          getContext().getServiceKey());
+      server.start();
+    } catch (IOException cause) {
+      throw new RuntimeException("Cannot start web server.", cause);
+    } finally {
+      closeReporters();
+    }
+  }
+
+  /** Runs tests using the a web server to allow debugging from browsers.
+   */
+  private void runServer() {
+    try {
+      int debugPort = getContext().getDebugPort();
+
+      /** HTTP server for debug mode.
+       */
+      TestDebugServer debugServer = new TestDebugServer(debugPort) {
+        /** {@inheritDoc}
+         */
+        @Override
+        public URL getRunner(final URL testFile) {
+          return createTestRunnerFile(testFile);
+        }
+
+        /** {@inheritDoc}
+         */
+        @Override
+        protected URL getRunnerTemplate() {
+          return getContext().getTestRunnerTemplate();
+        }
+
+        /** Calculates the scripts key again, so runners are rendered again
+         * once a script changed.
+         * {@inheritDoc}
+         */
+        @Override
+        protected String getScriptsKey() {
+          resetScriptsKey();
+          return AbstractRunner.this.getScriptsKey();
+        }
+
+        /** Adds the runner configuration to the window's global scope in order
+         * to keep compatibility with non-debug tests.
+         * <p>
+         * {@inheritDoc}
+         * </p>
+         */
+        @Override
+        protected InputStream getDebugScript() {
+          Set<Entry<Object, Object>> entries = getContext()
+              .getRunnerConfiguration().entrySet();
+          StringBuilder debugCode = new StringBuilder();
+
+          for (Entry<Object, Object> entry : entries) {
+            String scapedValue = entry.getValue().toString()
+                .replaceAll("\n", "");
+
+            debugCode.append("window[\"" + entry.getKey() + "\"] = \""
+                + scapedValue + "\";\n");
+          }
+
+          return new ByteArrayInputStream(debugCode.toString()
+              .getBytes(UTF_8));
+        }
+      };
+
+      List<URL> resources = new ArrayList<URL>();
+      resources.add(getContext().getTestRunnerTemplate());
+      resources.addAll(getContext().getBootstrapScripts());
+      resources.addAll(getContext().getSourceScripts());
+      resources.addAll(getContext().getTestFiles());
+
+      debugServer.setTestFiles(getContext().getTestFiles());
+      debugServer.watch(resources);
+      debugServer.start();
+    } catch (IOException cause) {
+      throw new RuntimeException("Cannot start web server.", cause);
+    }
+  }
+
+  /** Modified WebDriver with several workarounds and custom configuration.
+   */
+  class RunnerDriver extends HtmlUnitDriver {
+
+    /** Object to wait for test completion; it's never null. */
+    private final WebClientWait clientWait;
+
+    /** Indicates whether a test exceeded the test timeout or it was
+     * cancelled while running in this driver. Expired drivers cannot run
+     * further tests. */
+    private volatile boolean expired;
+
+    /** Indicates whether a test was cancelled while running in this
+     * driver. */
+    private volatile boolean cancelled;
+
+    /** Test running in this driver; it's null if no test is running. */
+    private volatile URL currentTest;
+
+    /** Specs reported by the running test; it's never null. */
+    private final List<SpecResult> specs =
+        new CopyOnWriteArrayList<SpecResult>();
+
+    /** Position of the running shard, starting at zero. */
+    private volatile int shard;
+
+    /** Number of shards the running test is split into. */
+    private volatile int shards = 1;
+
+    /** Creates a driver and sets the browser version.
+     * @param version Driver's browser version. Cannot be null.
+     */
+    public RunnerDriver(final BrowserVersion version) {
+      super(version);
+
+      int timeout = getContext().getTimeout();
+      boolean throwException = getWebClient().getOptions()
+          .isThrowExceptionOnScriptError();
+      clientWait = new WebClientWait(getWebClient());
+      clientWait.setThrowJavaScriptException(throwException)
+        .pollingEvery(POLLING_INTERVAL, TimeUnit.MILLISECONDS);
+      if (timeout > -1) {
+        // -1 means INFINITE, no timeout.
+        clientWait.withTimeout(timeout, TimeUnit.SECONDS);
+      }
+    }
+
+    /** Runs a single test, or a shard of it, in this driver.
+     *
+     * @param test Test, or shard of it, to run. Cannot be null.
+     * @param runner Runner generated for the test. Cannot be null.
+     */
+    public void runTest(final ScheduledTest test, final URL runner) {
+      URL testFile = test.getTest();
+      getWebClient().setJavaScriptTimeout(getContext().getScriptTimeout());
+      Future<?> watch = watch(getContext().getTestTimeout());
+      Future<?> cpuWatch = watchCpu(getContext().getTestCpuTimeout());
+      specs.clear();
+      shard = test.getShard();
+      shards = test.getShards();
+      currentTest = testFile;
+
+      try {
+        // Executes the test and waits for completion.
+        get(runner.toString());
+
+        clientWait.start();
+
+        // Notifies test result once all shards of the test finished.
+        List<SpecResult> testSpecs = test.shardFinished(
+            new ArrayList<SpecResult>(specs));
+        if (testSpecs != null) {
+          testFinished(testFile, getCurrentPage());
+          specsFinished(testFile, testSpecs);
+        }
+
+        // WebDriver doesn't switch automatically.
+        String windowHandle = (String) CollectionUtils
+            .get(getWindowHandles(), 0);
+        switchTo().window(windowHandle);
+      } finally {
+        currentTest = null;
+        specs.clear();
+        if (watch != null) {
+          watch.cancel(false);
+        }
+        if (cpuWatch != null) {
+          cpuWatch.cancel(false);
+        }
+      }
+    }
+
+    /** Indicates whether a test exceeded the test timeout or it was
+     * cancelled while running in this driver.
+     *
+     * @return Returns true if the driver must be discarded, false otherwise.
+     */
+    public boolean isExpired() {
+      return expired;
+    }
+
+    /** Indicates whether a test was cancelled while running in this driver.
+     *
+     * @return Returns true if the test was cancelled, false otherwise.
+     */
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    /** Cancels the test running in this driver because the execution
+     * stopped. It's invoked from the thread that stopped the execution.
+     */
+    public void cancel() {
+      cancelled = true;
+      stop(new CancellationException("Test cancelled, the execution"
+          + " stopped."));
+    }
+
+    /** Schedules the expiration of the test that is about to run.
+     *
+     * @param testTimeout Test timeout, in milliseconds. Zero means there's no
+     *    limit.
+     * @return The scheduled expiration, or null if there's no limit.
+     */
+    private Future<?> watch(final long testTimeout) {
+      if (testTimeout <= 0) {
+        return null;
+      }
+      return getWatchdog().schedule(new Runnable() {
+        @Override
+        public void run() {
+          expire(testTimeout);
+        }
+      }, testTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /** Periodically checks the CPU time used by the current thread while
+     * the test that is about to run is running.
+     *
+     * @param cpuTimeout CPU timeout, in milliseconds. Zero means there's no
+     *    limit.
+     * @return The scheduled checks, or null if there's no limit or the JVM
+     *    cannot measure thread CPU time.
+     */
+    private Future<?> watchCpu(final long cpuTimeout) {
+      final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      if (cpuTimeout <= 0) {
+        return null;
+      }
+      if (!threads.isThreadCpuTimeSupported()
+          || !threads.isThreadCpuTimeEnabled()) {
+        LOG.warn("Thread CPU time is not available, testCpuTimeout is"
+            + " ignored.");
+        return null;
+      }
+      final long threadId = Thread.currentThread().getId();
+      final long start = threads.getThreadCpuTime(threadId);
+      return getWatchdog().scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          long used = (threads.getThreadCpuTime(threadId) - start)
+              / NANOS_PER_MILLI;
+          if (!expired && used > cpuTimeout) {
+            stop(new TimeoutException("Test used more than " + cpuTimeout
+                + " ms of CPU time."));
+          }
+        }
+      }, CPU_CHECK_INTERVAL, CPU_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops the test running in this driver because it exceeded the test
+     * timeout. It's invoked from the watchdog thread.
+     *
+     * @param testTimeout Test timeout that expired, in milliseconds.
+     */
+    private void expire(final long testTimeout) {
+      stop(new TimeoutException("Test didn't finish in " + testTimeout
+          + " ms."));
+    }
+
+    /** Stops the test running in this driver. It aborts the wait for test
+     * completion, the running script and all pending JavaScript jobs, and
+     * the driver expires.
+     *
+     * @param abortCause Error that the test fails with. Cannot be null.
+     */
+    private void stop(final RuntimeException abortCause) {
+      expired = true;
+      clientWait.abort(abortCause);
+
+      WebClient client = getWebClient();
+      // The running script, if any, stops at its next instruction.
+      client.setJavaScriptTimeout(1);
+      try {
+        for (WebWindow window : new ArrayList<WebWindow>(
+            client.getWebWindows())) {
+          window.getJobManager().removeAllJobs();
+        }
+        client.getJavaScriptEngine().shutdownJavaScriptExecutor();
+      } catch (RuntimeException cause) {
+        LOG.warn("Cannot stop JavaScript jobs.", cause);
+      }
+    }
+
+    /** Returns the {@link HtmlPage} for the current window.
+     * @return When loaded, it returns a valid page.
+     */
+    public HtmlPage getCurrentPage() {
+      return (HtmlPage) lastPage();
+    }
+
+    /** Returns the configured web client.
+     * @return Returns a valid web client, never returns null.
+     */
+    @Override
+    public WebClient getWebClient() {
+      return super.getWebClient();
+    }
+
+    /** {@inheritDoc}
+     */
+    @Override
+    protected WebClient modifyWebClient(final WebClient theClient) {
+      theClient.setWebConnection(createConnectionWrapper(theClient));
+      theClient.setJavaScriptEngine(createJavaScriptEngine(theClient));
+      initializeWebClientConfiguration(theClient);
+      configureWebClient(theClient);
+      return theClient;
+    };
+
+    /** Since version 2.32.0, selenium doesn't allow to use DOM in closed
+     * windows. We're currently assuming that closing window is the
+     * signal of test completed, so it's necessary to check the DOM after
+     * tests. We override the new selenium behaviour to make DOM work
+     * with closed windows.
+     * @return Returns the DOM page of the current window.
+     */
+    @Override
+    protected Page lastPage() {
+      return getCurrentWindow().getEnclosedPage();
+    }
+
+    /** Initializes default webclient configuration.
+     *
+     * @param theClient Client to initialize configuration. Cannot be null.
+     */
+    private void initializeWebClientConfiguration(final WebClient theClient) {
+      // Loads default configuration from context.
+      Properties configuration = getContext().getWebClientConfiguration();
+      for (Object property : configuration.keySet()) {
+        try {
+          String methodName = "set" + StringUtils.capitalize((String) property);
+          TypedPropertyEditor editor = new TypedPropertyEditor();
+          editor.setValue(configuration.get(property));
+          Statement stmt = new Statement(theClient.getOptions(), methodName,
+              new Object[] {editor.getValue()});
+          stmt.execute();
+        } catch (Exception cause) {
+          throw new IllegalArgumentException("Property " + property
+              + " cannot be set in web client.", cause);
+        }
+      }
+
+      theClient.setAjaxController(new NicelyResynchronizingAjaxController());
+      theClient.setIncorrectnessListener(new IncorrectnessListener() {
+        @Override
+        public void notify(final String message, final Object origin) {
+          LOG.trace(message, origin);
+        }
+      });
+      theClient.addWebWindowListener(new WebWindowListener() {
+
+        /** {@inheritDoc}
          */
         @Override
         public void webWindowOpened(final WebWindowEvent event) {
@@ -437,6 +1578,28 @@ public abstract class AbstractRunner implements WebDriverRunner {
       });
     }
 
+    /** Creates a JavaScript engine that publishes the {@link #SPEC_HANDLER}
+     * function and the running shard as soon as a window scope is
+     * initialized, so they're available to scripts that run while the page
+     * is loading.
+     *
+     * @param client Client the engine belongs to. Cannot be null.
+     * @return A valid JavaScript engine, never returns null.
+     */
+    private JavaScriptEngine createJavaScriptEngine(final WebClient client) {
+      return new JavaScriptEngine(client) {
+        @Override
+        public void initialize(final WebWindow webWindow) {
+          super.initialize(webWindow);
+          com.gargoylesoftware.htmlunit.javascript.host.Window window;
+          window = (com.gargoylesoftware.htmlunit.javascript.host.Window)
+              webWindow.getScriptObject();
+          publishSpecHandler(window);
+          publishShard(window);
+        }
+      };
+    }
+
     /** Creates a web connection that supports to load resources from the
      * classpath.
      *
@@ -459,8 +1622,7 @@ public abstract class AbstractRunner implements WebDriverRunner {
           if (!canHandle) {
             // For unsupported schemes, it tries to read the response using
             // native URL connection.
-            String data = ResourceUtils.readAsText(request.getUrl());
-            return new StringWebResponse(data, request.getUrl());
+            return new ResourceWebResponse(request, getJarResourceCache());
           }
           return super.getResponse(request);
         }
@@ -491,6 +1653,561 @@ public abstract class AbstractRunner implements WebDriverRunner {
             ScriptableObject.READONLY);
       }
     }
+
+    /** Publishes the {@link #SPEC_SHARD} and {@link #SPEC_SHARDS} variables
+     * to JavaScript's global scope.
+     *
+     * @param window Window to expose the variables. Cannot be null.
+     */
+    private void publishShard(
+        final com.gargoylesoftware.htmlunit.javascript.host.Window window) {
+      window.defineProperty(SPEC_SHARD, shard, ScriptableObject.READONLY);
+      window.defineProperty(SPEC_SHARDS, shards, ScriptableObject.READONLY);
+    }
+
+    /** Publishes the {@link #SPEC_HANDLER} function to JavaScript's global
+     * scope. Specs reported while no test is running are ignored.
+     *
+     * @param window Window to expose the function. Cannot be null.
+     */
+    private void publishSpecHandler(
+        final com.gargoylesoftware.htmlunit.javascript.host.Window window) {
+      window.defineProperty(SPEC_HANDLER, new SpecHandler() {
+        /** Default id for serialization. */
+        private static final long serialVersionUID = 1L;
+
+        /** {@inheritDoc}
+         */
+        @Override
+        public void handleSpec(final String name, final boolean passed,
+            final String message, final long duration) {
+          URL test = currentTest;
+          if (test != null) {
+            SpecResult spec = new SpecResult(name, passed, message, duration);
+            specs.add(spec);
+            specFinished(test, spec);
+          }
+        }
+      }, ScriptableObject.READONLY);
+    }
+  }
+
+  /** Pool of web drivers for a browser version. Drivers are created on
+   * demand up to {@link RunnerContext#getThreadCount()}, and they're kept warm
+   * to run further tests.
+   */
+  private class DriverPool {
+
+    /** Browser version of the drivers; it's never null. */
+    private final BrowserVersion browserVersion;
+
+    /** Drivers not running any test; it's never null. */
+    private final BlockingQueue<RunnerDriver> idleDrivers =
+        new LinkedBlockingQueue<RunnerDriver>();
+
+    /** Number of drivers created by this pool. */
+    private int size;
+
+    /** Creates a new pool.
+     *
+     * @param theBrowserVersion Browser version of the drivers. Cannot be
+     *    null.
+     * @param initialDriver Driver available in the pool. Can be null to
+     *    create all drivers on demand.
+     */
+    public DriverPool(final BrowserVersion theBrowserVersion,
+        final RunnerDriver initialDriver) {
+      browserVersion = theBrowserVersion;
+      if (initialDriver != null) {
+        idleDrivers.add(initialDriver);
+        size = 1;
+      }
+    }
+
+    /** Returns the browser version of the drivers in this pool.
+     * @return A valid browser version, never returns null.
+     */
+    public BrowserVersion getBrowserVersion() {
+      return browserVersion;
+    }
+
+    /** Takes a driver from the pool. It creates a new driver if there's no
+     * idle driver and the pool is not full, otherwise it waits until a driver
+     * is released.
+     *
+     * @return A valid driver, never returns null.
+     */
+    public RunnerDriver acquire() {
+      RunnerDriver idleDriver = idleDrivers.poll();
+      if (idleDriver != null) {
+        return idleDriver;
+      }
+      boolean create = false;
+      synchronized (this) {
+        if (size < getContext().getThreadCount()) {
+          size += 1;
+          create = true;
+        }
+      }
+      if (create) {
+        return new RunnerDriver(browserVersion);
+      }
+      try {
+        return idleDrivers.take();
+      } catch (InterruptedException cause) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted waiting for a driver.", cause);
+      }
+    }
+
+    /** Returns a driver to the pool.
+     * @param idleDriver Driver taken from this pool. Cannot be null.
+     */
+    public void release(final RunnerDriver idleDriver) {
+      idleDrivers.add(idleDriver);
+    }
+
+    /** Closes a driver that cannot run further tests and adds a new one to
+     * the pool in its place. If the expired driver is the main driver, the
+     * new one becomes the main driver.
+     *
+     * @param expiredDriver Driver taken from this pool. Cannot be null.
+     */
+    public void replace(final RunnerDriver expiredDriver) {
+      RunnerDriver newDriver = new RunnerDriver(browserVersion);
+      if (driver == expiredDriver) {
+        driver = newDriver;
+      }
+      try {
+        expiredDriver.quit();
+      } catch (RuntimeException cause) {
+        LOG.warn("Cannot close expired web driver.", cause);
+      }
+      idleDrivers.add(newDriver);
+    }
+  }
+
+  /** Test scheduled for execution, with its runner. */
+  class ScheduledTest {
+
+    /** Position of the test in the execution order. */
+    private final int index;
+
+    /** Test to run; it's never null. */
+    private final URL test;
+
+    /** Runner being rendered; it's null if the runner is rendered on
+     * demand. */
+    private final Future<URL> runner;
+
+    /** Rendered runners, used to render the runner on demand; it's never
+     * null. */
+    private final RunnerCache runnerCache;
+
+    /** Position of the shard to run, starting at zero. */
+    private final int shard;
+
+    /** Number of shards the test is split into. */
+    private final int shards;
+
+    /** Specs reported by the shards of the test that finished, indexed by
+     * shard position. It's shared by all shards; it's never null. */
+    private final SortedMap<Integer, List<SpecResult>> finishedShards;
+
+    /** Creates a new scheduled test.
+     *
+     * @param theIndex Position of the test in the execution order.
+     * @param theTest Test to run. Cannot be null.
+     * @param theRunner Runner being rendered. Can be null to render the runner
+     *    on demand.
+     * @param theRunnerCache Rendered runners. Cannot be null.
+     * @param theShard Position of the shard to run, starting at zero.
+     * @param theShards Number of shards the test is split into. It's 1 if
+     *    the test is not split.
+     */
+    public ScheduledTest(final int theIndex, final URL theTest,
+        final Future<URL> theRunner, final RunnerCache theRunnerCache,
+        final int theShard, final int theShards) {
+      this(theIndex, theTest, theRunner, theRunnerCache, theShard, theShards,
+          new TreeMap<Integer, List<SpecResult>>());
+    }
+
+    /** Creates a new scheduled test that shares the finished shards with
+     * the other shards of the test.
+     *
+     * @param theIndex Position of the test in the execution order.
+     * @param theTest Test to run. Cannot be null.
+     * @param theRunner Runner being rendered. Can be null to render the runner
+     *    on demand.
+     * @param theRunnerCache Rendered runners. Cannot be null.
+     * @param theShard Position of the shard to run, starting at zero.
+     * @param theShards Number of shards the test is split into.
+     * @param theFinishedShards Specs of the shards that finished. Cannot be
+     *    null.
+     */
+    private ScheduledTest(final int theIndex, final URL theTest,
+        final Future<URL> theRunner, final RunnerCache theRunnerCache,
+        final int theShard, final int theShards,
+        final SortedMap<Integer, List<SpecResult>> theFinishedShards) {
+      index = theIndex;
+      test = theTest;
+      runner = theRunner;
+      runnerCache = theRunnerCache;
+      shard = theShard;
+      shards = theShards;
+      finishedShards = theFinishedShards;
+    }
+
+    /** Returns the next shard of the same test. The runner is shared by all
+     * shards.
+     *
+     * @return A valid scheduled test, never returns null.
+     */
+    public ScheduledTest nextShard() {
+      return new ScheduledTest(index, test, runner, runnerCache, shard + 1,
+          shards, finishedShards);
+    }
+
+    /** Records that this shard finished and reported the specified specs.
+     *
+     * @param specs Specs reported by this shard. Cannot be null.
+     * @return The specs of all shards, in shard order, if this is the last
+     *    shard of the test that finished, or null if there're shards still
+     *    pending.
+     */
+    public List<SpecResult> shardFinished(final List<SpecResult> specs) {
+      synchronized (finishedShards) {
+        finishedShards.put(shard, specs);
+        if (finishedShards.size() < shards) {
+          return null;
+        }
+        List<SpecResult> testSpecs = new ArrayList<SpecResult>();
+        for (List<SpecResult> shardSpecs : finishedShards.values()) {
+          testSpecs.addAll(shardSpecs);
+        }
+        return testSpecs;
+      }
+    }
+
+    /** Returns the position of the shard to run.
+     * @return A number greater or equal than zero.
+     */
+    public int getShard() {
+      return shard;
+    }
+
+    /** Returns the number of shards the test is split into.
+     * @return A number greater than zero.
+     */
+    public int getShards() {
+      return shards;
+    }
+
+    /** Returns the position of the test in the execution order.
+     * @return A number greater or equal than zero.
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    /** Returns the test to run.
+     * @return A valid test, never returns null.
+     */
+    public URL getTest() {
+      return test;
+    }
+
+    /** Returns the runner for the test, waiting until it's rendered.
+     * @return The runner url, never returns null.
+     */
+    public URL getRunner() {
+      if (runner == null) {
+        return runnerCache.get(test);
+      }
+      return waitForRunner(runner);
+    }
+
+    /** Cancels the rendering of the runner, if it's rendered ahead.
+     */
+    public void cancel() {
+      if (runner != null) {
+        runner.cancel(true);
+      }
+    }
+
+    /** Determines whether the rendering of the runner was cancelled.
+     * @return True if the runner was rendered ahead and it was cancelled.
+     */
+    public boolean isCancelled() {
+      return runner != null && runner.isCancelled();
+    }
+  }
+
+  /** Runners rendered during a single execution. Each runner is rendered only
+   * once, even if the test runs in several browser versions.
+   */
+  class RunnerCache {
+
+    /** Runners, indexed by test; it's never null. */
+    private final ConcurrentMap<URL, Future<URL>> runners =
+        new ConcurrentHashMap<URL, Future<URL>>();
+
+    /** Returns the runner for the specified test. It renders the runner if
+     * it's not rendered yet, or waits if it's being rendered by another
+     * thread.
+     *
+     * @param testFile Test to get the runner for. Cannot be null.
+     * @return The runner url, never returns null.
+     */
+    public URL get(final URL testFile) {
+      FutureTask<URL> task = new FutureTask<URL>(new Callable<URL>() {
+        @Override
+        public URL call() {
+          return createTestRunnerFile(testFile);
+        }
+      });
+      Future<URL> runner = runners.putIfAbsent(testFile, task);
+      if (runner == null) {
+        task.run();
+        runner = task;
+      }
+      return waitForRunner(runner);
+    }
+  }
+
+  /** Bounded queue of runners rendered by a background thread, so the driver
+   * doesn't wait for runner generation between tests. Runners are rendered in
+   * test order.
+   */
+  class RunnerQueue {
+
+    /** Renders runners; it's null if runners are rendered on demand. */
+    private final ExecutorService executor;
+
+    /** Tests whose runners are not scheduled yet; it's never null. */
+    private final Iterator<URL> pendingTests;
+
+    /** Runners scheduled for rendering, in test order; it's never null. */
+    private final LinkedList<ScheduledTest> runners =
+        new LinkedList<ScheduledTest>();
+
+    /** Position of the next test to schedule. */
+    private int nextIndex;
+
+    /** Maximum number of runners rendered ahead of the current one. */
+    private final int capacity;
+
+    /** Rendered runners, shared with other queues; it's never null. */
+    private final RunnerCache runnerCache;
+
+    /** Number of shards each test is split into. */
+    private final int shards;
+
+    /** Last returned test; it's null if no test was returned yet. */
+    private ScheduledTest lastTest;
+
+    /** Whether the queue is closed and it doesn't return more tests. */
+    private boolean closed;
+
+    /** Creates a new queue to render runners for the specified tests.
+     *
+     * @param testFiles Tests to render runners for, in execution order.
+     *    Cannot be null.
+     * @param theCapacity Maximum number of runners rendered ahead. Zero
+     *    means runners are rendered on demand.
+     * @param theRunnerCache Rendered runners. Cannot be null.
+     * @param theShards Number of shards each test is split into. It's 1 if
+     *    tests are not split.
+     */
+    public RunnerQueue(final List<URL> testFiles, final int theCapacity,
+        final RunnerCache theRunnerCache, final int theShards) {
+      pendingTests = testFiles.iterator();
+      capacity = theCapacity;
+      runnerCache = theRunnerCache;
+      shards = theShards;
+
+      if (capacity > 0) {
+        final ClassLoader classLoader = Thread.currentThread()
+            .getContextClassLoader();
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+          @Override
+          public Thread newThread(final Runnable task) {
+            Thread thread = new Thread(task, "htmlunit-runner-renderer");
+            // Resources are resolved using the context class loader.
+            thread.setContextClassLoader(classLoader);
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+      } else {
+        executor = null;
+      }
+    }
+
+    /** Returns the next test. If tests are split into shards, it returns
+     * all shards of a test before the next test.
+     *
+     * @return The next test, or null if there're no more tests or the queue
+     *    is closed.
+     */
+    public synchronized ScheduledTest next() {
+      if (closed) {
+        return null;
+      }
+      if (lastTest != null && lastTest.getShard() + 1 < shards) {
+        lastTest = lastTest.nextShard();
+      } else {
+        lastTest = nextTest();
+      }
+      return lastTest;
+    }
+
+    /** Returns the first shard of the next test. It schedules the rendering
+     * of following runners.
+     *
+     * @return The next test, or null if there're no more tests.
+     */
+    private ScheduledTest nextTest() {
+      if (executor == null) {
+        if (!pendingTests.hasNext()) {
+          return null;
+        }
+        return new ScheduledTest(nextIndex++, pendingTests.next(), null,
+            runnerCache, 0, shards);
+      }
+      while (runners.size() <= capacity && pendingTests.hasNext()) {
+        final URL testFile = pendingTests.next();
+        runners.add(new ScheduledTest(nextIndex++, testFile,
+            executor.submit(new Callable<URL>() {
+              @Override
+              public URL call() {
+                return runnerCache.get(testFile);
+              }
+            }), runnerCache, 0, shards));
+      }
+      return runners.poll();
+    }
+
+    /** Stops rendering runners and cancels the pending ones. The runner
+     * being rendered is interrupted.
+     */
+    public synchronized void close() {
+      closed = true;
+      for (ScheduledTest test : runners) {
+        test.cancel();
+      }
+      runners.clear();
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  /** State of a single execution of tests, shared by all browser versions.
+   * The execution stops once the maximum number of failures is reached: no
+   * further tests are started and running tests are cancelled.
+   */
+  private class Execution {
+
+    /** Number of failed tests that stops the execution. Zero means the
+     * execution never stops. */
+    private final int maxFailures;
+
+    /** Reporters to report results to; it's never null. */
+    private final List<ResultReporter> reporters;
+
+    /** Rendered runners, shared by all browser versions; it's never null. */
+    private final RunnerCache runnerCache = new RunnerCache();
+
+    /** Number of failed tests. */
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /** Drivers running tests; it's never null. */
+    private final Set<RunnerDriver> runningDrivers =
+        new HashSet<RunnerDriver>();
+
+    /** Indicates whether the execution stopped. */
+    private volatile boolean stopped;
+
+    /** Creates a new execution.
+     *
+     * @param theMaxFailures Number of failed tests that stops the execution.
+     *    Zero means the execution never stops.
+     * @param theReporters Reporters to report results to. Cannot be null.
+     */
+    public Execution(final int theMaxFailures,
+        final List<ResultReporter> theReporters) {
+      maxFailures = theMaxFailures;
+      reporters = theReporters;
+    }
+
+    /** Returns the runners rendered during this execution.
+     * @return A valid cache, never returns null.
+     */
+    public RunnerCache getRunnerCache() {
+      return runnerCache;
+    }
+
+    /** Indicates whether the execution stopped.
+     * @return Returns true if no further tests must run, false otherwise.
+     */
+    public boolean isStopped() {
+      return stopped;
+    }
+
+    /** Registers a driver that is about to run a test, so it can be
+     * cancelled if the execution stops.
+     *
+     * @param runnerDriver Driver about to run a test. Cannot be null.
+     * @return Returns true if the test can run, or false if the execution
+     *    already stopped.
+     */
+    public synchronized boolean started(final RunnerDriver runnerDriver) {
+      if (stopped) {
+        return false;
+      }
+      runningDrivers.add(runnerDriver);
+      return true;
+    }
+
+    /** Unregisters a driver that finished running a test.
+     * @param runnerDriver Driver that finished. Cannot be null.
+     */
+    public synchronized void finished(final RunnerDriver runnerDriver) {
+      runningDrivers.remove(runnerDriver);
+    }
+
+    /** Counts a failed test. If the maximum number of failures is reached,
+     * it stops the execution and cancels all running tests.
+     */
+    public void failed() {
+      if (maxFailures > 0 && failures.incrementAndGet() >= maxFailures) {
+        stop();
+      }
+    }
+
+    /** Records a test result into the test history and reports it.
+     * @param result Result to record. Cannot be null.
+     */
+    public void report(final TestResult result) {
+      getTestHistory().record(result);
+      for (ResultReporter reporter : reporters) {
+        reporter.report(result);
+      }
+    }
+
+    /** Stops the execution and cancels all running tests.
+     */
+    private synchronized void stop() {
+      if (stopped) {
+        return;
+      }
+      stopped = true;
+      LOG.info("{} tests failed, skipping remaining tests.", maxFailures);
+      for (RunnerDriver runnerDriver : runningDrivers) {
+        runnerDriver.cancel();
+      }
+    }
   }
 
   /** Event definition to allow event enqueue.
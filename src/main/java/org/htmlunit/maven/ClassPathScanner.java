@@ -1,9 +1,11 @@
 package org.htmlunit.maven;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.JarURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -16,15 +18,35 @@ import org.apache.commons.collections.EnumerationUtils;
 import org.codehaus.plexus.util.SelectorUtils;
 
 /** Scans the classpath to match resources.
+ *
+ * <p>
+ * If a {@link JarEntryIndex} is provided, entries of JAR files in the file
+ * system are read from the index instead of opening the JAR file again.
+ * </p>
  */
 public class ClassPathScanner extends ResourceScanner {
 
+  /** Index of JAR entries; it's null if JAR files are always listed. */
+  private final JarEntryIndex jarEntryIndex;
+
   /** Creates a new classpath scanner.
    *
    * @param theExpression Expression to scan. Cannot be null.
    */
   public ClassPathScanner(final AntExpression theExpression) {
+    this(theExpression, null);
+  }
+
+  /** Creates a new classpath scanner that reads JAR entries from the
+   * specified index.
+   *
+   * @param theExpression Expression to scan. Cannot be null.
+   * @param theJarEntryIndex Index of JAR entries. Can be null.
+   */
+  public ClassPathScanner(final AntExpression theExpression,
+      final JarEntryIndex theJarEntryIndex) {
     super(theExpression);
+    jarEntryIndex = theJarEntryIndex;
   }
 
   /** Find all resources in jar files that match the given location pattern
@@ -61,7 +83,6 @@ public class ClassPathScanner extends ResourceScanner {
    */
   private List<URL> findMatches(final URL url) {
     try {
-      JarFile jarFile;
       String rootEntryPath = "";
       URLConnection con = url.openConnection();
 
@@ -73,11 +94,27 @@ public class ClassPathScanner extends ResourceScanner {
       // Should usually be the case for traditional JAR files.
       JarURLConnection jarCon = (JarURLConnection) con;
       jarCon.setUseCaches(false);
-      jarFile = jarCon.getJarFile();
-      JarEntry jarEntry = jarCon.getJarEntry();
+      List<String> entries;
+      File file = ResourceUtils.getFile(jarCon.getJarFileURL());
+
+      if (jarEntryIndex != null && file != null) {
+        // The JAR file is not opened if it's already indexed.
+        entries = jarEntryIndex.getEntries(file);
+        if (jarCon.getEntryName() != null) {
+          rootEntryPath = jarCon.getEntryName();
+        }
+      } else {
+        JarFile jarFile = jarCon.getJarFile();
+        JarEntry jarEntry = jarCon.getJarEntry();
 
-      if (jarEntry != null) {
-        rootEntryPath = jarEntry.getName();
+        if (jarEntry != null) {
+          rootEntryPath = jarEntry.getName();
+        }
+        entries = new ArrayList<String>();
+        Enumeration<JarEntry> jarEntries = jarFile.entries();
+        while (jarEntries.hasMoreElements()) {
+          entries.add(jarEntries.nextElement().getName());
+        }
       }
 
       if (!"".equals(rootEntryPath) && !rootEntryPath.endsWith("/")) {
@@ -87,11 +124,8 @@ public class ClassPathScanner extends ResourceScanner {
       }
 
       List<URL> result = new LinkedList<URL>();
-      Enumeration<JarEntry> entries = jarFile.entries();
 
-      while (entries.hasMoreElements()) {
-        JarEntry entry = entries.nextElement();
-        String entryPath = entry.getName();
+      for (String entryPath : entries) {
         if (entryPath.startsWith(rootEntryPath)) {
           String relativePath = entryPath.substring(rootEntryPath.length());
           if (SelectorUtils.matchPath(getExpression().getPattern(),
@@ -0,0 +1,117 @@
+package org.htmlunit.maven;
+
+import java.lang.reflect.Constructor;
+import java.net.URL;
+import java.net.URLStreamHandler;
+import java.net.URLStreamHandlerFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Process-wide url stream handler factory that resolves handlers from a set
+ * of registered class loaders.
+ *
+ * <p>
+ * The JDK allows to set the url stream handler factory only once per JVM, so
+ * this factory is installed the first time it's required and each execution
+ * registers its class loader while it's running. Handlers are looked up in
+ * registered class loaders, the most recent first, following the
+ * <code>sun.net.www.protocol.[protocol].Handler</code> naming convention. If
+ * there's no handler in any class loader, the JDK default handler is used.
+ * </p>
+ * <p>
+ * The JDK keeps handlers once they're resolved, so handlers must not depend
+ * on the class loader that loaded them. For instance, the
+ * <code>classpath:</code> handler reads resources from the thread context
+ * class loader.
+ * </p>
+ */
+public final class DelegatingURLStreamHandlerFactory
+    implements URLStreamHandlerFactory {
+
+  /** Class logger. */
+  private static final Logger LOG = LoggerFactory
+      .getLogger(DelegatingURLStreamHandlerFactory.class);
+
+  /** Package of url stream handlers. */
+  private static final String HANDLERS_PACKAGE = "sun.net.www.protocol.";
+
+  /** Installed factory; it's null until the first time it's required. */
+  private static DelegatingURLStreamHandlerFactory instance;
+
+  /** Registered class loaders, the most recent first; it's never null. */
+  private final List<ClassLoader> classLoaders =
+      new CopyOnWriteArrayList<ClassLoader>();
+
+  /** Creates a new factory. Use {@link #getInstance()}.
+   */
+  private DelegatingURLStreamHandlerFactory() {
+  }
+
+  /** Returns the factory, installing it in the JDK if it isn't installed
+   * yet.
+   *
+   * @return The installed factory, never returns null.
+   */
+  public static synchronized DelegatingURLStreamHandlerFactory
+      getInstance() {
+    if (instance == null) {
+      instance = new DelegatingURLStreamHandlerFactory();
+      try {
+        URL.setURLStreamHandlerFactory(instance);
+      } catch (Error cause) {
+        LOG.warn("Another url stream handler factory is already installed,"
+            + " custom protocols may not be available.", cause);
+      }
+    }
+    return instance;
+  }
+
+  /** Registers a class loader to resolve handlers from. A class loader can
+   * be registered several times, and it's used until it's unregistered the
+   * same number of times.
+   *
+   * @param classLoader Class loader to register. Cannot be null.
+   */
+  public void register(final ClassLoader classLoader) {
+    Validate.notNull(classLoader, "The class loader cannot be null.");
+    classLoaders.add(0, classLoader);
+  }
+
+  /** Unregisters a class loader. It does nothing if the class loader isn't
+   * registered.
+   *
+   * @param classLoader Class loader to unregister. Cannot be null.
+   */
+  public void unregister(final ClassLoader classLoader) {
+    Validate.notNull(classLoader, "The class loader cannot be null.");
+    classLoaders.remove(classLoader);
+  }
+
+  /** {@inheritDoc}
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public URLStreamHandler createURLStreamHandler(final String protocol) {
+    for (ClassLoader classLoader : classLoaders) {
+      Class<? extends URLStreamHandler> handlerClass;
+      try {
+        handlerClass = (Class<? extends URLStreamHandler>) classLoader
+            .loadClass(HANDLERS_PACKAGE + protocol + ".Handler");
+      } catch (ClassNotFoundException cause) {
+        continue;
+      }
+      try {
+        Constructor<? extends URLStreamHandler> ctor;
+        ctor = handlerClass.getConstructor();
+        return ctor.newInstance();
+      } catch (Exception cause) {
+        throw new RuntimeException("Cannot resolve stream handler.", cause);
+      }
+    }
+    return null;
+  }
+}
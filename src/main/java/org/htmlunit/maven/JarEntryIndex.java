@@ -0,0 +1,59 @@
+package org.htmlunit.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.commons.lang.Validate;
+
+/** Index of the entries of JAR files, so each JAR file is listed only once
+ * while it doesn't change.
+ *
+ * <p>
+ * JAR files are identified by their path, size and modification date. The
+ * index is thread-safe.
+ * </p>
+ */
+public class JarEntryIndex {
+
+  /** Entry names, indexed by JAR file key; it's never null. */
+  private final Map<String, List<String>> entries =
+      new ConcurrentHashMap<String, List<String>>();
+
+  /** Returns the names of all entries in the specified JAR file.
+   *
+   * @param jarFile JAR file to list. Cannot be null.
+   * @return A read-only list of entry names, never returns null.
+   * @throws IOException If the JAR file cannot be read.
+   */
+  public List<String> getEntries(final File jarFile) throws IOException {
+    Validate.notNull(jarFile, "The JAR file cannot be null.");
+
+    String key = jarFile.getAbsolutePath() + ":" + jarFile.length() + ":"
+        + jarFile.lastModified();
+    List<String> names = entries.get(key);
+
+    if (names == null) {
+      names = new ArrayList<String>();
+      JarFile jar = new JarFile(jarFile);
+      try {
+        Enumeration<JarEntry> jarEntries = jar.entries();
+        while (jarEntries.hasMoreElements()) {
+          names.add(jarEntries.nextElement().getName());
+        }
+      } finally {
+        jar.close();
+      }
+      names = Collections.unmodifiableList(names);
+      entries.put(key, names);
+    }
+    return names;
+  }
+}
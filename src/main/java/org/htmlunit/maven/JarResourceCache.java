@@ -0,0 +1,183 @@
+package org.htmlunit.maven;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Extracts resources located inside JAR files, like webjars, into the file
+ * system so they're inflated only once.
+ *
+ * <p>
+ * Resources are extracted into a content-addressed directory named after the
+ * entry CRC and size, which are read from the JAR central directory without
+ * inflating the entry. So, an already extracted resource is reused across
+ * builds as long as its content doesn't change.
+ * </p>
+ * <p>
+ * The cache keeps only the location of extracted files, and resources are
+ * read from the file system each time they're served. So the memory it uses
+ * doesn't grow with the size of the resources, and no file is kept open.
+ * </p>
+ */
+public class JarResourceCache {
+
+  /** Class logger. */
+  private static final Logger LOG = LoggerFactory
+      .getLogger(JarResourceCache.class);
+
+  /** Radix used to write entries CRC. */
+  private static final int HEX = 16;
+
+  /** Directory to extract resources into; it's never null. */
+  private final File cacheDirectory;
+
+  /** Files of the resources already extracted, indexed by their url; it's
+   * never null. */
+  private final Map<String, File> resources =
+      new ConcurrentHashMap<String, File>();
+
+  /** Urls known to be outside JAR files; it's never null. */
+  private final Map<String, Boolean> misses =
+      new ConcurrentHashMap<String, Boolean>();
+
+  /** Creates a new cache that extracts resources into the specified
+   * directory.
+   *
+   * @param theCacheDirectory Directory to extract resources into. Cannot be
+   *    null.
+   */
+  public JarResourceCache(final File theCacheDirectory) {
+    Validate.notNull(theCacheDirectory, "The cache directory cannot be null.");
+    cacheDirectory = theCacheDirectory;
+  }
+
+  /** Returns the extracted copy of the specified resource if it's located
+   * inside a JAR file. The resource is extracted the first time it's
+   * required, or if the extracted copy was deleted.
+   *
+   * @param url Resource to read. Cannot be null.
+   * @return The file with the resource content, or null if the resource
+   *    isn't located in a JAR file.
+   */
+  public File get(final URL url) {
+    Validate.notNull(url, "The url cannot be null.");
+
+    String key = url.toString();
+    File file = resources.get(key);
+
+    if ((file == null || !file.isFile()) && !misses.containsKey(key)) {
+      file = null;
+      try {
+        file = extract(url);
+      } catch (IOException cause) {
+        LOG.debug("Cannot extract resource " + key, cause);
+      }
+      if (file == null) {
+        misses.put(key, Boolean.TRUE);
+      } else {
+        resources.put(key, file);
+      }
+    }
+    return file;
+  }
+
+  /** Returns the directory resources are extracted into.
+   * @return A valid directory, never returns null.
+   */
+  public File getCacheDirectory() {
+    return cacheDirectory;
+  }
+
+  /** Extracts the specified resource, if it's located in a JAR file.
+   *
+   * @param url Resource to extract. Cannot be null.
+   * @return The extracted file, or null if it's not a JAR resource.
+   * @throws IOException If the resource cannot be extracted.
+   */
+  private File extract(final URL url) throws IOException {
+    URL resourceUrl = url;
+
+    if ("classpath".equals(url.getProtocol())) {
+      String classPath = StringUtils.substringAfter(url.toString(),
+          "classpath:");
+      if (classPath.startsWith("/")) {
+        classPath = classPath.substring(1);
+      }
+      resourceUrl = Thread.currentThread().getContextClassLoader()
+          .getResource(classPath);
+    }
+    if (resourceUrl == null || !"jar".equals(resourceUrl.getProtocol())) {
+      return null;
+    }
+
+    URLConnection connection = resourceUrl.openConnection();
+    if (!JarURLConnection.class.isInstance(connection)) {
+      return null;
+    }
+    JarURLConnection jarConnection = (JarURLConnection) connection;
+    JarFile jarFile = jarConnection.getJarFile();
+    JarEntry entry = jarConnection.getJarEntry();
+
+    if (entry == null || entry.isDirectory() || entry.getCrc() == -1) {
+      return null;
+    }
+
+    File file = new File(cacheDirectory, Long.toString(entry.getCrc(), HEX)
+        + "-" + entry.getSize() + File.separator
+        + FilenameUtils.getName(entry.getName()));
+
+    if (!file.exists() || file.length() != entry.getSize()) {
+      writeEntry(jarFile, entry, file);
+    }
+    return file;
+  }
+
+  /** Inflates a JAR entry into the specified file. The entry is written to a
+   * temporary file and then renamed, so concurrent builds never see partial
+   * content.
+   *
+   * @param jarFile JAR file that contains the entry. Cannot be null.
+   * @param entry Entry to inflate. Cannot be null.
+   * @param file File to write. Cannot be null.
+   * @throws IOException If the entry cannot be written.
+   */
+  private void writeEntry(final JarFile jarFile, final JarEntry entry,
+      final File file) throws IOException {
+    File directory = file.getParentFile();
+    if (!directory.exists() && !directory.mkdirs() && !directory.exists()) {
+      throw new IOException("Cannot create directory " + directory);
+    }
+
+    File tempFile = File.createTempFile("entry-", ".tmp", directory);
+    InputStream input = jarFile.getInputStream(entry);
+    OutputStream output = new FileOutputStream(tempFile);
+
+    try {
+      IOUtils.copyLarge(input, output);
+    } finally {
+      IOUtils.closeQuietly(input);
+      IOUtils.closeQuietly(output);
+    }
+    if (!tempFile.renameTo(file)) {
+      // Another process extracted the same content.
+      tempFile.delete();
+    }
+    LOG.debug("Extracted {} into {}", entry.getName(), file);
+  }
+}
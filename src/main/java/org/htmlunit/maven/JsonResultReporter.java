@@ -0,0 +1,73 @@
+package org.htmlunit.maven;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.Validate;
+
+/** Writes results to a file as line-delimited JSON, one
+ * {@link TestResult#toJson()} object per line.
+ *
+ * <p>
+ * Each line is flushed as soon as the test finishes, so the file can be
+ * followed while tests are running. The file is truncated when the reporter
+ * is opened, and it keeps the results of all executions until the reporter
+ * is closed.
+ * </p>
+ */
+public class JsonResultReporter implements ResultReporter {
+
+  /** File to write results to; it's never null. */
+  private final File file;
+
+  /** Writer of the opened file; it's null if the reporter isn't open. */
+  private Writer writer;
+
+  /** Creates a reporter that writes results to the specified file.
+   * @param theFile File to write results to. Cannot be null.
+   */
+  public JsonResultReporter(final File theFile) {
+    Validate.notNull(theFile, "The file cannot be null.");
+    file = theFile;
+  }
+
+  /** {@inheritDoc}
+   */
+  @Override
+  public synchronized void open() {
+    try {
+      FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+      writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    } catch (IOException cause) {
+      throw new RuntimeException("Cannot open results file " + file, cause);
+    }
+  }
+
+  /** {@inheritDoc}
+   */
+  @Override
+  public synchronized void report(final TestResult result) {
+    Validate.notNull(result, "The result cannot be null.");
+    Validate.notNull(writer, "The reporter is not open.");
+    try {
+      writer.write(result.toJson());
+      writer.write("\n");
+      writer.flush();
+    } catch (IOException cause) {
+      throw new RuntimeException("Cannot write results file " + file, cause);
+    }
+  }
+
+  /** {@inheritDoc}
+   */
+  @Override
+  public synchronized void close() {
+    IOUtils.closeQuietly(writer);
+    writer = null;
+  }
+}
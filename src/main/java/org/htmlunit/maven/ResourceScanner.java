@@ -20,11 +20,24 @@ public abstract class ResourceScanner {
    * @return Returns a valid scanner. Never returns null.
    */
   public static ResourceScanner create(final AntExpression expression) {
+    return create(expression, null);
+  }
+
+  /** Creates a suitable resource scanner for the specified expression. JAR
+   * files are listed using the specified index. The resource must exist.
+   *
+   * @param expression Resource expression to scan. Cannot be null or
+   *    empty.
+   * @param jarEntryIndex Index of JAR entries. Can be null.
+   * @return Returns a valid scanner. Never returns null.
+   */
+  public static ResourceScanner create(final AntExpression expression,
+      final JarEntryIndex jarEntryIndex) {
 
     if ("classpath".equals(expression.getProtocol())
         && ResourceUtils.isJarResource(expression.getRootDir())) {
       // Classpath resource located into a JAR file.
-      return new ClassPathScanner(expression);
+      return new ClassPathScanner(expression, jarEntryIndex);
     } else {
       if ("classpath".equals(expression.getProtocol())) {
         // Classpath resource located in the file system.
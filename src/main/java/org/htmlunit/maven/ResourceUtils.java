@@ -2,13 +2,21 @@ package org.htmlunit.maven;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.JarURLConnection;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.activation.MimetypesFileTypeMap;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.io.FileUtils;
@@ -19,18 +27,61 @@ import org.apache.commons.lang.Validate;
  */
 public final class ResourceUtils {
 
+  /** Size of the buffer used to read files. */
+  private static final int BUFFER_SIZE = 8192;
+
+  /** Matches the end tags of script elements in any case, which would close
+   * an inline script tag early. */
+  private static final Pattern SCRIPT_END_TAG = Pattern.compile("</(script)",
+      Pattern.CASE_INSENSITIVE);
+
+  /** Content type used when the resource type cannot be determined. */
+  public static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+  /** Mime types of text resources that are not under the <code>text/</code>
+   * media type. */
+  private static final List<String> TEXT_CONTENT_TYPES = Arrays.asList(
+      "application/javascript", "application/json", "application/xml",
+      "application/xhtml+xml", "image/svg+xml");
+
+  /** Maps file extensions to content types; it's never null. The activation
+   * default map doesn't know about most web resources, so they're registered
+   * here. */
+  private static final MimetypesFileTypeMap CONTENT_TYPES =
+      new MimetypesFileTypeMap();
+
+  static {
+    CONTENT_TYPES.addMimeTypes("text/html html htm");
+    CONTENT_TYPES.addMimeTypes("text/css css");
+    CONTENT_TYPES.addMimeTypes("text/plain txt");
+    CONTENT_TYPES.addMimeTypes("application/javascript js");
+    CONTENT_TYPES.addMimeTypes("application/json json");
+    CONTENT_TYPES.addMimeTypes("application/xml xml");
+    CONTENT_TYPES.addMimeTypes("application/xhtml+xml xhtml");
+    CONTENT_TYPES.addMimeTypes("image/svg+xml svg");
+    CONTENT_TYPES.addMimeTypes("image/png png");
+    CONTENT_TYPES.addMimeTypes("image/gif gif");
+    CONTENT_TYPES.addMimeTypes("image/jpeg jpg jpeg");
+    CONTENT_TYPES.addMimeTypes("image/x-icon ico");
+    CONTENT_TYPES.addMimeTypes("application/font-woff woff");
+    CONTENT_TYPES.addMimeTypes("application/x-font-ttf ttf");
+    CONTENT_TYPES.addMimeTypes("application/vnd.ms-fontobject eot");
+    CONTENT_TYPES.addMimeTypes("font/opentype otf");
+  }
+
   /** Cannot be created. */
   private ResourceUtils() {
   }
 
-  /** Reads the specified file as text. It uses the default charset.
+  /** Reads the specified file as text. It's decoded as
+   * {@link ResourceWebResponse#CHARSET}, the charset text is served with.
    * @param file File to read. Cannot be null.
    * @return The file content as text.
    */
   public static String readAsText(final File file) {
     Validate.notNull(file, "The file cannot be null.");
     try {
-      return FileUtils.readFileToString(file);
+      return FileUtils.readFileToString(file, ResourceWebResponse.CHARSET);
     } catch (IOException cause) {
       throw new RuntimeException("Cannot read file.", cause);
     }
@@ -38,7 +89,8 @@ public final class ResourceUtils {
 
   /** Reads the specified url into text.
    *
-   * It uses the system proxy if needed.
+   * It uses the system proxy if needed. It's decoded as
+   * {@link ResourceWebResponse#CHARSET}, the charset text is served with.
    *
    * @param url Url to read. Cannot be null.
    * @return The URL content as String. Never returns null.
@@ -52,7 +104,8 @@ public final class ResourceUtils {
     }
   }
 
-  /** Reads the specified input stream as text.
+  /** Reads the specified input stream as text. It's decoded as
+   * {@link ResourceWebResponse#CHARSET}, the charset text is served with.
    *
    * @param input Input stream to read. Cannot be null.
    * @return The input stream content as String. Never returns null.
@@ -62,7 +115,7 @@ public final class ResourceUtils {
     try {
       ByteArrayOutputStream output = new ByteArrayOutputStream();
       IOUtils.copy(input, output);
-      return output.toString();
+      return output.toString(ResourceWebResponse.CHARSET);
     } catch (IOException cause) {
       throw new RuntimeException("Cannot read input stream.", cause);
     } finally {
@@ -70,6 +123,167 @@ public final class ResourceUtils {
     }
   }
 
+  /** Reads the specified url as raw bytes.
+   *
+   * @param url Url to read. Cannot be null.
+   * @return The URL content. Never returns null.
+   */
+  public static byte[] readAsBytes(final URL url) {
+    Validate.notNull(url, "The url cannot be null.");
+    try {
+      return readAsBytes(url.openStream());
+    } catch (IOException cause) {
+      throw new RuntimeException("Cannot read URL: " + url.toString(), cause);
+    }
+  }
+
+  /** Reads the specified input stream as raw bytes.
+   *
+   * @param input Input stream to read. Cannot be null.
+   * @return The input stream content. Never returns null.
+   */
+  public static byte[] readAsBytes(final InputStream input) {
+    Validate.notNull(input, "The input stream cannot be null.");
+    try {
+      return IOUtils.toByteArray(input);
+    } catch (IOException cause) {
+      throw new RuntimeException("Cannot read input stream.", cause);
+    } finally {
+      IOUtils.closeQuietly(input);
+    }
+  }
+
+  /** Returns the file referenced by the specified url.
+   *
+   * @param url Url to convert. Cannot be null.
+   * @return The referenced file, or null if it isn't a <code>file:</code> url.
+   */
+  public static File getFile(final URL url) {
+    Validate.notNull(url, "The url cannot be null.");
+    if (!"file".equals(url.getProtocol())) {
+      return null;
+    }
+    try {
+      return new File(url.toURI());
+    } catch (URISyntaxException cause) {
+      return new File(url.getPath());
+    } catch (IllegalArgumentException cause) {
+      return new File(url.getPath());
+    }
+  }
+
+  /** Returns the last modification time of the specified resource.
+   *
+   * @param url Resource to check. Cannot be null.
+   * @return The modification time in milliseconds, or 0 if it's unknown.
+   */
+  public static long getLastModified(final URL url) {
+    Validate.notNull(url, "The url cannot be null.");
+    File file = getFile(url);
+    if (file != null) {
+      return file.lastModified();
+    }
+    if (url.getProtocol().startsWith("http")) {
+      // Avoids a network round trip.
+      return 0;
+    }
+    try {
+      URLConnection connection = url.openConnection();
+      long lastModified = connection.getLastModified();
+      IOUtils.closeQuietly(connection.getInputStream());
+      return lastModified;
+    } catch (IOException cause) {
+      return 0;
+    }
+  }
+
+  /** Calculates the SHA-1 hash of the specified data.
+   *
+   * @param data Data to hash. Cannot be null.
+   * @return The hexadecimal representation of the hash, never returns null.
+   */
+  public static String hash(final byte[] data) {
+    Validate.notNull(data, "The data cannot be null.");
+    MessageDigest digest = createDigest();
+    return toHex(digest.digest(data));
+  }
+
+  /** Calculates the SHA-1 hash of the specified file content. The file is
+   * read in chunks, so it's never loaded into memory.
+   *
+   * @param file File to hash. Cannot be null.
+   * @return The hex-encoded hash, never returns null.
+   */
+  public static String hash(final File file) {
+    Validate.notNull(file, "The file cannot be null.");
+    MessageDigest digest = createDigest();
+    InputStream input = null;
+    try {
+      input = new FileInputStream(file);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      for (int read = input.read(buffer); read != -1;
+          read = input.read(buffer)) {
+        digest.update(buffer, 0, read);
+      }
+      return toHex(digest.digest());
+    } catch (IOException cause) {
+      throw new RuntimeException("Cannot read file: " + file, cause);
+    } finally {
+      IOUtils.closeQuietly(input);
+    }
+  }
+
+  /** Creates a SHA-1 message digest.
+   * @return A new message digest, never returns null.
+   */
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException cause) {
+      throw new RuntimeException("SHA-1 is not supported.", cause);
+    }
+  }
+
+  /** Encodes the specified bytes as hex.
+   * @param data Bytes to encode. Cannot be null.
+   * @return The hex string, never returns null.
+   */
+  private static String toHex(final byte[] data) {
+    StringBuilder hash = new StringBuilder();
+    for (byte value : data) {
+      hash.append(String.format("%02x", value));
+    }
+    return hash.toString();
+  }
+
+
+  /** Determines the content type of the specified resource from its file
+   * extension.
+   *
+   * @param url Resource to determine the content type. Cannot be null.
+   * @return A valid mime type, without charset. Never returns null.
+   */
+  public static String getContentType(final URL url) {
+    Validate.notNull(url, "The url cannot be null.");
+    String path = url.getPath();
+    if (path == null || path.isEmpty()) {
+      path = url.toString();
+    }
+    return CONTENT_TYPES.getContentType(path.toLowerCase());
+  }
+
+  /** Determines whether the specified content type represents text content,
+   * which is subject to charset decoding.
+   *
+   * @param contentType Mime type to check, without charset. Cannot be null.
+   * @return Returns true if it's a text content type, false otherwise.
+   */
+  public static boolean isTextContent(final String contentType) {
+    Validate.notNull(contentType, "The content type cannot be null.");
+    return contentType.startsWith("text/")
+        || TEXT_CONTENT_TYPES.contains(contentType);
+  }
+
   /** Determines whether the specified classpath resource is located inside a
    * a JAR file. It uses thread context class loader to locate resource.
    *
@@ -114,15 +328,28 @@ public final class ResourceUtils {
    * @param expressions List of resource expressions to expand. Cannot be null.
    * @return A valid list of resources. Never returns null.
    */
-  @SuppressWarnings("unchecked")
   public static List<URL> expand(final List<String> expressions) {
+    return expand(expressions, null);
+  }
+
+  /** Expands a set of resource expressions into physical resources, listing
+   * JAR files with the specified index.
+   *
+   * @param expressions List of resource expressions to expand. Cannot be null.
+   * @param jarEntryIndex Index of JAR entries. Can be null.
+   * @return A valid list of resources. Never returns null.
+   */
+  @SuppressWarnings("unchecked")
+  public static List<URL> expand(final List<String> expressions,
+      final JarEntryIndex jarEntryIndex) {
     List<URL> includes = new ArrayList<URL>();
     List<URL> excludes = new ArrayList<URL>();
 
     for (String resourceExpression : expressions) {
       if (!resourceExpression.isEmpty()) {
         AntExpression expression = new AntExpression(resourceExpression);
-        ResourceScanner scanner = ResourceScanner.create(expression);
+        ResourceScanner scanner = ResourceScanner.create(expression,
+            jarEntryIndex);
 
         if (expression.isExclusion()) {
           excludes.addAll(scanner.list());
@@ -140,11 +367,71 @@ public final class ResourceUtils {
    * @return A valid HTML, never returns null.
    */
   public static String generateScriptTags(final List<URL> sources) {
+    return generateScriptTags(sources, 0);
+  }
+
+  /** Generates a list of HTML script tags for the specified list of sources.
+   *
+   * <p>
+   * Local sources smaller than the specified threshold are embedded into
+   * inline script tags, followed by a <code>sourceURL</code> comment to keep
+   * the original location in debuggers and error reports. Remote sources and
+   * sources of unknown size are always referenced as external scripts.
+   * </p>
+   *
+   * @param sources JavaScript source files. Cannot be null.
+   * @param inlineThreshold Maximum size, in bytes, of scripts to embed. Zero
+   *    or less means no script is embedded.
+   * @return A valid HTML, never returns null.
+   */
+  public static String generateScriptTags(final List<URL> sources,
+      final int inlineThreshold) {
+    Validate.notNull(sources, "The sources cannot be null.");
+
     StringBuilder scripts = new StringBuilder();
     for (URL source : sources) {
-      scripts.append("<script type=\"text/javascript\" src=\"")
-        .append(source).append("\"></script>");
+      if (inlineThreshold > 0 && canInline(source, inlineThreshold)) {
+        scripts.append("<script type=\"text/javascript\">")
+          .append(SCRIPT_END_TAG.matcher(readAsText(source))
+              .replaceAll("<\\\\/$1"))
+          .append("\n//# sourceURL=").append(source)
+          .append("\n</script>");
+      } else {
+        scripts.append("<script type=\"text/javascript\" src=\"")
+          .append(source).append("\"></script>");
+      }
     }
     return scripts.toString();
   }
+
+  /** Determines whether a script can be embedded into a runner.
+   *
+   * @param source Script to check. Cannot be null.
+   * @param inlineThreshold Maximum size of scripts to embed, in bytes.
+   * @return Returns true if the script is a local resource smaller than the
+   *    threshold, false otherwise.
+   */
+  private static boolean canInline(final URL source,
+      final int inlineThreshold) {
+    String protocol = source.getProtocol();
+    if (protocol.startsWith("http")) {
+      return false;
+    }
+
+    File file = getFile(source);
+    long size;
+
+    if (file != null) {
+      size = file.length();
+    } else {
+      try {
+        URLConnection connection = source.openConnection();
+        size = connection.getContentLength();
+        IOUtils.closeQuietly(connection.getInputStream());
+      } catch (IOException cause) {
+        return false;
+      }
+    }
+    return size >= 0 && size < inlineThreshold;
+  }
 }
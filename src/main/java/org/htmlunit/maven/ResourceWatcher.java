@@ -0,0 +1,137 @@
+package org.htmlunit.maven;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Watches file resources and notifies when they change.
+ *
+ * <p>
+ * Changes are detected by polling the modification date of the resources in
+ * a background thread. Only <code>file:</code> resources are watched; other
+ * resources, like <code>classpath:</code> ones, don't change while the
+ * plugin is running.
+ * </p>
+ */
+public class ResourceWatcher {
+
+  /** Default interval, in milliseconds, between checks. */
+  public static final long DEFAULT_INTERVAL = 1000;
+
+  /** Class logger. */
+  private static final Logger LOG = LoggerFactory
+      .getLogger(ResourceWatcher.class);
+
+  /** Watched resources; it's never null. */
+  private final List<URL> resources = new ArrayList<URL>();
+
+  /** Last known modification date of watched resources, indexed by url; it's
+   * never null. */
+  private final Map<String, Long> modificationDates =
+      new HashMap<String, Long>();
+
+  /** Interval, in milliseconds, between checks. */
+  private final long interval;
+
+  /** Listener notified about changes; it's never null. */
+  private final Listener listener;
+
+  /** Thread that checks resources, or null if the watcher is not started. */
+  private Thread thread;
+
+  /** Creates a new watcher for the specified resources.
+   *
+   * @param theResources Resources to watch. Cannot be null.
+   * @param theInterval Interval, in milliseconds, between checks. Must be
+   *    greater than 0.
+   * @param theListener Listener notified about changes. Cannot be null.
+   */
+  public ResourceWatcher(final List<URL> theResources, final long theInterval,
+      final Listener theListener) {
+    Validate.notNull(theResources, "The resources cannot be null.");
+    Validate.isTrue(theInterval > 0, "The interval must be greater than 0.");
+    Validate.notNull(theListener, "The listener cannot be null.");
+
+    interval = theInterval;
+    listener = theListener;
+
+    for (URL resource : theResources) {
+      if (ResourceUtils.getFile(resource) != null
+          && !modificationDates.containsKey(resource.toString())) {
+        resources.add(resource);
+        modificationDates.put(resource.toString(),
+            ResourceUtils.getLastModified(resource));
+      }
+    }
+  }
+
+  /** Starts checking resources in background. It does nothing if the watcher
+   * is already started.
+   */
+  public synchronized void start() {
+    if (thread != null) {
+      return;
+    }
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (!Thread.currentThread().isInterrupted()) {
+            Thread.sleep(interval);
+            List<URL> changes = poll();
+            if (!changes.isEmpty()) {
+              listener.resourcesChanged(changes);
+            }
+          }
+        } catch (InterruptedException cause) {
+          LOG.debug("Resource watcher stopped.");
+        }
+      }
+    }, "htmlunit-resource-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Stops checking resources. It does nothing if the watcher is not started.
+   */
+  public synchronized void stop() {
+    if (thread != null) {
+      thread.interrupt();
+      thread = null;
+    }
+  }
+
+  /** Checks watched resources once.
+   *
+   * @return The resources changed since the last check. Never returns null.
+   */
+  public synchronized List<URL> poll() {
+    List<URL> changes = new ArrayList<URL>();
+
+    for (URL resource : resources) {
+      long lastModified = ResourceUtils.getLastModified(resource);
+      Long previous = modificationDates.put(resource.toString(),
+          lastModified);
+      if (previous == null || previous != lastModified) {
+        changes.add(resource);
+      }
+    }
+    return changes;
+  }
+
+  /** Receives notifications about changed resources.
+   */
+  public interface Listener {
+
+    /** Invoked from the watcher thread when resources change.
+     * @param changes Changed resources. It's never null or empty.
+     */
+    void resourcesChanged(final List<URL> changes);
+  }
+}
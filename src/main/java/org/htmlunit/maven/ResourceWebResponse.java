@@ -0,0 +1,164 @@
+package org.htmlunit.maven;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.Validate;
+
+import com.gargoylesoftware.htmlunit.DownloadedContent;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.WebResponseData;
+import com.gargoylesoftware.htmlunit.util.NameValuePair;
+
+/** Web response for resources that cannot be retrieved by the HtmlUnit HTTP
+ * client, like <code>file:</code> or <code>classpath:</code> resources.
+ *
+ * <p>
+ * The content is kept as raw bytes and it's never decoded, so binary
+ * resources like images and fonts are served as they are. The content type is
+ * determined from the resource name via {@link ResourceUtils#getContentType},
+ * and the charset is declared only for text resources. Text resources are
+ * always declared as {@link #CHARSET}, regardless of the platform charset,
+ * so runners are decoded the same way on every machine.
+ * </p>
+ * <p>
+ * File resources are streamed directly from the file system. Other resources
+ * are kept in memory if they're smaller than {@link #MAX_IN_MEMORY_SIZE};
+ * otherwise they're spooled to a temporary file which is deleted when
+ * HtmlUnit cleans up the response.
+ * </p>
+ * <p>
+ * If a {@link JarResourceCache} is provided, resources located inside JAR
+ * files are streamed from the extracted copy instead of inflating the entry
+ * again.
+ * </p>
+ */
+public class ResourceWebResponse extends WebResponse {
+
+  /** Default id for serialization. */
+  private static final long serialVersionUID = 1L;
+
+  /** Charset declared for text resources. */
+  public static final String CHARSET = "UTF-8";
+
+  /** Maximum size, in bytes, of resources kept in memory. */
+  public static final int MAX_IN_MEMORY_SIZE = 512 * 1024;
+
+  /** Successful status code. */
+  private static final int STATUS_OK = 200;
+
+  /** Creates a response for the resource in the specified request.
+   *
+   * @param request Request to read the resource from. Cannot be null.
+   */
+  public ResourceWebResponse(final WebRequest request) {
+    super(createResponseData(request, null), request, 0);
+  }
+
+  /** Creates a response for the resource in the specified request, reading
+   * JAR resources from the specified cache.
+   *
+   * @param request Request to read the resource from. Cannot be null.
+   * @param jarResourceCache Cache of extracted JAR resources. Can be null.
+   */
+  public ResourceWebResponse(final WebRequest request,
+      final JarResourceCache jarResourceCache) {
+    super(createResponseData(request, jarResourceCache), request, 0);
+  }
+
+  /** Reads the resource in the specified request.
+   *
+   * @param request Request to read the resource from. Cannot be null.
+   * @param jarResourceCache Cache of extracted JAR resources. Can be null.
+   * @return A valid response data, never returns null.
+   */
+  private static WebResponseData createResponseData(
+      final WebRequest request, final JarResourceCache jarResourceCache) {
+    Validate.notNull(request, "The request cannot be null.");
+
+    URL url = request.getUrl();
+    List<NameValuePair> headers = new ArrayList<NameValuePair>();
+    String contentType = ResourceUtils.getContentType(url);
+
+    if (ResourceUtils.isTextContent(contentType)) {
+      contentType += "; charset=" + CHARSET;
+    }
+    headers.add(new NameValuePair("Content-Type", contentType));
+
+    try {
+      DownloadedContent content = null;
+      if (jarResourceCache != null) {
+        File file = jarResourceCache.get(url);
+        if (file != null) {
+          content = new DownloadedContent.OnFile(file, false);
+        }
+      }
+      if (content == null) {
+        content = readContent(url);
+      }
+      return new WebResponseData(content, STATUS_OK, "OK", headers);
+    } catch (IOException cause) {
+      throw new RuntimeException("Cannot read URL: " + url, cause);
+    }
+  }
+
+  /** Reads the content of the specified resource.
+   *
+   * @param url Resource to read. Cannot be null.
+   * @return The resource content, never returns null.
+   * @throws IOException If the resource cannot be read.
+   */
+  private static DownloadedContent readContent(final URL url)
+      throws IOException {
+    File file = ResourceUtils.getFile(url);
+    if (file != null && file.isFile()) {
+      return new DownloadedContent.OnFile(file, false);
+    }
+
+    URLConnection connection = url.openConnection();
+    int length = connection.getContentLength();
+    InputStream input = connection.getInputStream();
+
+    try {
+      if (length > MAX_IN_MEMORY_SIZE) {
+        return spool(input);
+      }
+
+      ByteArrayOutputStream output = new ByteArrayOutputStream(
+          Math.max(length, 0));
+      IOUtils.copy(input, output);
+      return new DownloadedContent.InMemory(output.toByteArray());
+    } finally {
+      IOUtils.closeQuietly(input);
+    }
+  }
+
+  /** Writes the specified content to a temporary file.
+   *
+   * @param input Content to write. Cannot be null.
+   * @return The temporary content, never returns null.
+   * @throws IOException If the content cannot be written.
+   */
+  private static DownloadedContent spool(final InputStream input)
+      throws IOException {
+    File file = File.createTempFile("htmlunit-resource-", ".tmp");
+    OutputStream output = new FileOutputStream(file);
+
+    try {
+      IOUtils.copyLarge(input, output);
+    } finally {
+      IOUtils.closeQuietly(output);
+    }
+    return new DownloadedContent.OnFile(file, true);
+  }
+}
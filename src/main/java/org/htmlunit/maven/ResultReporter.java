@@ -0,0 +1,29 @@
+package org.htmlunit.maven;
+
+/** Receives test results as soon as each test finishes, so results are
+ * available while tests are still running.
+ *
+ * <p>
+ * {@link #report} may be invoked concurrently from several threads, so
+ * implementations must be thread-safe.
+ * </p>
+ */
+public interface ResultReporter {
+
+  /** Prepares the reporter before tests run. It's invoked once per runner,
+   * before any result is reported. A runner that runs tests several times,
+   * like the test execution service, reports the results of all executions
+   * to the same open reporter.
+   */
+  void open();
+
+  /** Reports the result of a single test.
+   * @param result Result to report. Cannot be null.
+   */
+  void report(final TestResult result);
+
+  /** Releases the reporter resources. It's invoked once the runner finished
+   * running tests, even if the execution failed.
+   */
+  void close();
+}
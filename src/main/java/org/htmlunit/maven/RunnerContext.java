@@ -5,6 +5,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
@@ -32,12 +33,25 @@ public class RunnerContext {
   public static final String DEFAULT_TEMPLATE =
       "classpath:/org/htmlunit/maven/DefaultTestRunner.html";
 
+  /** Default number of runners rendered ahead of test execution. */
+  private static final int DEFAULT_RUNNER_LOOKAHEAD = 2;
+
+  /** Default result reporters. */
+  private static final String DEFAULT_REPORTERS = "xml;json";
+
+  /** Default reports directory, relative to the output directory. */
+  private static final String DEFAULT_REPORTS_DIRECTORY = "reports";
+
   /** Default debug server port. */
-  private static final int DEFAULT_DEBUG_PORT = 8000;
+  public static final int DEFAULT_DEBUG_PORT = 8000;
 
   /** Htmlunit browser version; it's never null. */
   private BrowserVersion browserVersion = BrowserVersion.FIREFOX_17;
 
+  /** Htmlunit browser versions to run tests in; it's null if tests run only
+   * in {@link #browserVersion}. */
+  private List<BrowserVersion> browserVersions;
+
   /** Properties to configure htmlunit web client; it's never null. */
   private Properties webClientConfiguration = new Properties();
 
@@ -53,6 +67,13 @@ public class RunnerContext {
   /** Indicates whether the runner must run in debug mode or not. */
   private boolean debugMode;
 
+  /** Indicates whether the runner must run tests on request or not. */
+  private boolean serviceMode;
+
+  /** Key of the configuration and dependencies tests run with in service
+   * mode; can be null. */
+  private String serviceKey;
+
   /** Port to start debug server. Default is 8000. */
   private Integer debugPort = DEFAULT_DEBUG_PORT;
 
@@ -75,6 +96,46 @@ public class RunnerContext {
    */
   private List<URL> testFiles = new ArrayList<URL>();
 
+  /** Maximum size, in bytes, of scripts embedded into runners. Zero means
+   * scripts are never embedded. */
+  private int inlineScriptThreshold;
+
+  /** Number of runners rendered ahead of test execution. */
+  private int runnerLookahead = DEFAULT_RUNNER_LOOKAHEAD;
+
+  /** Number of tests executed concurrently. */
+  private int threadCount = 1;
+
+  /** Number of parts each test is split into to run its specs
+   * concurrently. */
+  private int specShards = 1;
+
+  /** Number of failed tests that stops the execution. Zero means the
+   * execution never stops. */
+  private int maxFailures = 1;
+
+  /** Maximum time a single test can run, in milliseconds. Zero means there's
+   * no limit. */
+  private long testTimeout;
+
+  /** Maximum CPU time a single test can use, in milliseconds. Zero means
+   * there's no limit. */
+  private long testCpuTimeout;
+
+  /** Maximum time a single script execution can run, in milliseconds. Zero
+   * means there's no limit. */
+  private long scriptTimeout;
+
+  /** Names of the built-in result reporters to use; it's never null. */
+  private List<String> reporters = new ArrayList<String>();
+
+  /** Directory to write reports into; it's never null after initialize(). */
+  private File reportsDirectory;
+
+  /** Resources shared with other executions; it's null if resources are not
+   * shared. */
+  private RunnerSession session;
+
   /** Test runner and test cases output directory; it's never null
    * after initialize().
    */
@@ -102,13 +163,44 @@ public class RunnerContext {
     return browserVersion;
   }
 
-  /** Sets the htmlunit browser version.
+  /** Sets the htmlunit browser version. Tests run only in this version.
    *
    * @param theBrowserVersion Browser version. Cannot be null.
    */
   public void setBrowserVersion(final BrowserVersion theBrowserVersion) {
     Validate.notNull(theBrowserVersion, "The browser version cannot be null.");
     browserVersion = theBrowserVersion;
+    browserVersions = null;
+  }
+
+  /** Returns the htmlunit browser versions to run tests in. The first one is
+   * the {@link #getBrowserVersion()} version.
+   *
+   * @return A read-only list of browser versions, never returns null or an
+   *    empty list.
+   */
+  public List<BrowserVersion> getBrowserVersions() {
+    if (browserVersions == null) {
+      return Collections.singletonList(browserVersion);
+    }
+    return browserVersions;
+  }
+
+  /** Sets the htmlunit browser versions to run tests in. Each test runs once
+   * in each version, and versions run concurrently. The first version becomes
+   * the {@link #getBrowserVersion()} version.
+   *
+   * @param theBrowserVersions Browser versions. Cannot be null or empty.
+   */
+  public void setBrowserVersions(
+      final List<BrowserVersion> theBrowserVersions) {
+    Validate.notEmpty(theBrowserVersions,
+        "The browser versions cannot be null or empty.");
+    Validate.noNullElements(theBrowserVersions,
+        "The browser versions cannot contain null elements.");
+    browserVersion = theBrowserVersions.get(0);
+    browserVersions = Collections.unmodifiableList(
+        new ArrayList<BrowserVersion>(theBrowserVersions));
   }
 
   /** Returns the HTMLUnit web client configuration.
@@ -192,6 +284,41 @@ public class RunnerContext {
     return debugMode;
   }
 
+  /** Sets whether the runner must run tests on request instead of running
+   * all tests once.
+   * @param isServiceMode True to run tests on request, false otherwise.
+   */
+  public void setServiceMode(final boolean isServiceMode) {
+    serviceMode = isServiceMode;
+  }
+
+  /** Indicates whether the runner must run tests on request instead of
+   * running all tests once. In service mode, tests are executed by a server
+   * listening at {@link #getDebugPort()} port.
+   * @return Returns true to run tests on request, false otherwise.
+   */
+  public boolean isServiceMode() {
+    return serviceMode;
+  }
+
+  /** Returns the key that identifies the configuration and dependencies of
+   * the runner in service mode. Clients with a different key are rejected.
+   *
+   * @return The service key, or null if any client is accepted.
+   */
+  public String getServiceKey() {
+    return serviceKey;
+  }
+
+  /** Sets the key that identifies the configuration and dependencies of the
+   * runner in service mode.
+   *
+   * @param theServiceKey The service key. Can be null to accept any client.
+   */
+  public void setServiceKey(final String theServiceKey) {
+    serviceKey = theServiceKey;
+  }
+
   /** Returns the debug port. Default is 8000.
    * @return A valid number.
    */
@@ -256,6 +383,129 @@ public class RunnerContext {
     return testFiles;
   }
 
+  /** Returns the maximum size of scripts embedded into runners. Scripts
+   * smaller than this size are written as inline script tags instead of
+   * external references. Default is 0.
+   *
+   * @return The threshold in bytes, or zero if scripts are never embedded.
+   */
+  public int getInlineScriptThreshold() {
+    return inlineScriptThreshold;
+  }
+
+  /** Returns the number of runners rendered in background ahead of test
+   * execution. Default is 2.
+   *
+   * @return A number greater or equal than zero. Zero means runners are
+   *    rendered just before running each test.
+   */
+  public int getRunnerLookahead() {
+    return runnerLookahead;
+  }
+
+  /** Returns the number of tests executed concurrently. Each concurrent test
+   * runs in its own web driver. Default is 1.
+   *
+   * @return A number greater than zero.
+   */
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  /** Returns the number of parts each test is split into. Each part runs a
+   * subset of the test specs in its own web driver, and results of all parts
+   * are merged into a single test result. Default is 1, which means tests
+   * are not split. Tests that don't filter specs by shard, like the ones
+   * that don't use the Jasmine adapter, run completely once per shard.
+   *
+   * @return A number greater than zero.
+   */
+  public int getSpecShards() {
+    return specShards;
+  }
+
+  /** Returns the number of failed tests that stops the execution. Once it's
+   * reached, no further tests are started, running tests are cancelled and
+   * all of them are reported as skipped. It's set by the
+   * <code>maxFailures</code> attribute, and the <code>failFast</code>
+   * attribute set to false disables it. Default is 1.
+   *
+   * @return The number of failures, or zero if the execution never stops.
+   */
+  public int getMaxFailures() {
+    return maxFailures;
+  }
+
+  /** Returns the maximum time a single test can run. When it expires, the
+   * test fails, JavaScript execution is stopped and the web driver that ran
+   * the test is replaced by a new one. Default is 0.
+   *
+   * @return The timeout in milliseconds, or zero if there's no limit.
+   */
+  public long getTestTimeout() {
+    return testTimeout;
+  }
+
+  /** Returns the maximum CPU time a single test can use. It's measured in
+   * the thread that loads the test page and waits for the test to finish,
+   * so it stops tests that are busy instead of slow. When it expires, the
+   * test fails like on {@link #getTestTimeout()}. Default is 0.
+   *
+   * @return The CPU timeout in milliseconds, or zero if there's no limit.
+   */
+  public long getTestCpuTimeout() {
+    return testCpuTimeout;
+  }
+
+  /** Returns the maximum time a single script execution can run, like a
+   * script block, an event handler or a timer callback. When it expires, the
+   * script is aborted with a JavaScript error. Default is 0.
+   *
+   * @return The timeout in milliseconds, or zero if there's no limit.
+   */
+  public long getScriptTimeout() {
+    return scriptTimeout;
+  }
+
+  /** Returns the names of the built-in result reporters to use. Supported
+   * reporters are <code>xml</code>, which writes surefire XML reports, and
+   * <code>json</code>, which writes line-delimited JSON results. Default is
+   * both.
+   *
+   * @return A valid list of names, never returns null.
+   */
+  public List<String> getReporters() {
+    return reporters;
+  }
+
+  /** Returns the directory to write reports into. Default is the
+   * <code>reports</code> directory in the output directory.
+   *
+   * @return A valid directory. Never returns null after {@link #init}.
+   */
+  public File getReportsDirectory() {
+    return reportsDirectory;
+  }
+
+  /** Returns the resources shared with other executions in the same build
+   * session.
+   *
+   * @return The shared resources, or null if resources are not shared.
+   */
+  public RunnerSession getSession() {
+    return session;
+  }
+
+  /** Sets the resources shared with other executions in the same build
+   * session. It must be set before {@link #init}.
+   *
+   * @param theSession The shared resources. Can be null to not share
+   *    resources.
+   */
+  public void setSession(final RunnerSession theSession) {
+    session = theSession;
+  }
+
   /** Returns the runners files and test results output directory.
    *
    * @return A valid directory. Never returns null after
@@ -265,6 +515,35 @@ public class RunnerContext {
     return outputDirectory;
   }
 
+  /** Expands the script and test file patterns again, so resources added or
+   * removed since the configuration was read are taken into account. It's
+   * used by executions that outlive a single build, like the test execution
+   * service. It does nothing if JavaScript is disabled.
+   */
+  public void reloadResources() {
+    if (isJavaScriptEnabled()) {
+      readResources(runnerConfiguration);
+    }
+  }
+
+  /** Expands the runner script, bootstrap scripts, source scripts and test
+   * files from the specified configuration.
+   *
+   * @param config Current runner's configuration. Cannot be null.
+   */
+  private void readResources(final Properties config) {
+    List<URL> runnerScriptFiles = expand(readProperty(config, String.class,
+        "testRunnerScript", ""));
+    if (runnerScriptFiles.size() > 0) {
+      testRunnerScript = runnerScriptFiles.get(0);
+    }
+    bootstrapScripts = expand(readProperty(config, String.class,
+        "bootstrapScripts", ""));
+    sourceScripts = expand(readProperty(config, String.class,
+        "sourceScripts", ""));
+    testFiles = expand(readProperty(config, String.class, "testFiles", ""));
+  }
+
   /** Reads common runners' configuration from the current runner config.
    *
    * @param config Current runner's configuration. Cannot be null.
@@ -275,13 +554,38 @@ public class RunnerContext {
       debugPort = readProperty(config, Integer.class, "debugPort",
           DEFAULT_DEBUG_PORT);
 
+      runnerLookahead = Math.max(0, readProperty(config, Integer.class,
+          "runnerLookahead", DEFAULT_RUNNER_LOOKAHEAD));
+
+      threadCount = Math.max(1, readProperty(config, Integer.class,
+          "threadCount", 1));
+
+      specShards = Math.max(1, readProperty(config, Integer.class,
+          "specShards", 1));
+
+      maxFailures = Math.max(1, readProperty(config, Integer.class,
+          "maxFailures", 1));
+      if (!readProperty(config, Boolean.class, "failFast", true)) {
+        maxFailures = 0;
+      }
+
+      testTimeout = Math.max(0, readProperty(config, Integer.class,
+          "testTimeout", 0));
+
+      testCpuTimeout = Math.max(0, readProperty(config, Integer.class,
+          "testCpuTimeout", 0));
+
+      scriptTimeout = Math.max(0, readProperty(config, Integer.class,
+          "scriptTimeout", 0));
+
       // Reads runner template.
       String template = readProperty(config, String.class, "testRunnerTemplate",
           null);
       if (template == null) {
         testRunnerTemplate = new URL(DEFAULT_TEMPLATE);
       } else {
-        List<URL> urls = ResourceUtils.expand(template);
+        List<URL> urls = ResourceUtils.expand(Arrays.asList(template),
+            getJarEntryIndex());
 
         if (urls.size() > 0) {
           testRunnerTemplate = urls.get(0);
@@ -292,16 +596,9 @@ public class RunnerContext {
 
       // Reads javascript resources only if javascript is enabled.
       if (isJavaScriptEnabled()) {
-        List<URL> runnerScriptFiles = expand(readProperty(config, String.class,
-            "testRunnerScript", ""));
-        if (runnerScriptFiles.size() > 0) {
-          testRunnerScript = runnerScriptFiles.get(0);
-        }
-        bootstrapScripts = expand(readProperty(config, String.class,
-            "bootstrapScripts", ""));
-        sourceScripts = expand(readProperty(config, String.class,
-            "sourceScripts", ""));
-        testFiles = expand(readProperty(config, String.class, "testFiles", ""));
+        readResources(config);
+        inlineScriptThreshold = readProperty(config, Integer.class,
+            "inlineScriptThreshold", 0);
       }
 
       // Reads output directory.
@@ -309,6 +606,23 @@ public class RunnerContext {
       Validate.notEmpty(output,
           "The output directory cannot be null or empty.");
       outputDirectory = new File(output);
+
+      // Reads result reporters.
+      reporters = new ArrayList<String>();
+      for (String reporter : readProperty(config, String.class, "reporters",
+          DEFAULT_REPORTERS).split(";")) {
+        if (reporter.trim().length() > 0) {
+          reporters.add(reporter.trim());
+        }
+      }
+      String reports = readProperty(config, String.class, "reportsDirectory",
+          "");
+      if (reports.length() > 0) {
+        reportsDirectory = new File(reports);
+      } else {
+        reportsDirectory = new File(outputDirectory,
+            DEFAULT_REPORTS_DIRECTORY);
+      }
     } catch (Exception cause) {
       throw new RuntimeException("Error reading runner configuration.", cause);
     }
@@ -338,6 +652,16 @@ public class RunnerContext {
     return defaultValue;
   }
 
+  /** Returns the index of JAR entries shared with other executions.
+   * @return The shared index, or null if resources are not shared.
+   */
+  private JarEntryIndex getJarEntryIndex() {
+    if (session == null) {
+      return null;
+    }
+    return session.getJarEntryIndex();
+  }
+
   /** Expands the specified resource matching expression into real
    * resources, taking into account whether <code>debugMode</code> is active.
    * @param expression Expression to expand. Cannot be null.
@@ -345,7 +669,7 @@ public class RunnerContext {
    */
   private List<URL> expand(final String expression) {
     List<URL> resources = ResourceUtils.expand(Arrays
-        .asList(expression.split(";")));
+        .asList(expression.split(";")), getJarEntryIndex());
 
     if (debugMode) {
       // In debug mode, all resources are served by the debug server.
@@ -0,0 +1,112 @@
+package org.htmlunit.maven;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.commons.lang.Validate;
+
+/** Resources shared by all plugin executions in the same build session, like
+ * executions in the modules of a multi-module build.
+ *
+ * <p>
+ * It keeps class loaders for identical dependency sets, the cache of
+ * resources extracted from JAR files and the index of JAR entries used to
+ * scan the classpath. So, each of them is initialized only once per session
+ * instead of once per module. All operations are thread-safe, so executions
+ * of a parallel build can share the same session.
+ * </p>
+ * <p>
+ * Sessions are discarded once the build session object is garbage collected.
+ * </p>
+ */
+public class RunnerSession {
+
+  /** Existing sessions, indexed by build session; it's never null. */
+  private static final Map<Object, RunnerSession> SESSIONS =
+      new WeakHashMap<Object, RunnerSession>();
+
+  /** Class loaders, indexed by dependencies key; it's never null. */
+  private final Map<String, ClassLoader> classLoaders =
+      new HashMap<String, ClassLoader>();
+
+  /** Index of JAR entries; it's never null. */
+  private final JarEntryIndex jarEntryIndex = new JarEntryIndex();
+
+  /** Cache of resources extracted from JAR files; it's null until the first
+   * resource is required. */
+  private JarResourceCache jarResourceCache;
+
+  /** Returns the session for the specified build session, creating it if it
+   * doesn't exist.
+   *
+   * @param buildSession Object that identifies the build session. Cannot be
+   *    null.
+   * @return A valid session, never returns null.
+   */
+  public static RunnerSession get(final Object buildSession) {
+    Validate.notNull(buildSession, "The build session cannot be null.");
+
+    synchronized (SESSIONS) {
+      RunnerSession session = SESSIONS.get(buildSession);
+      if (session == null) {
+        session = new RunnerSession();
+        SESSIONS.put(buildSession, session);
+      }
+      return session;
+    }
+  }
+
+  /** Returns the class loader created for the specified dependencies.
+   *
+   * @param dependenciesKey Key that identifies the dependencies of the class
+   *    loader. Cannot be null.
+   * @return The class loader, or null if there's no class loader for the
+   *    dependencies.
+   */
+  public synchronized ClassLoader getClassLoader(
+      final String dependenciesKey) {
+    Validate.notNull(dependenciesKey, "The dependencies key cannot be null.");
+    return classLoaders.get(dependenciesKey);
+  }
+
+  /** Registers the class loader created for the specified dependencies, so
+   * it's reused by other executions with the same dependencies.
+   *
+   * @param dependenciesKey Key that identifies the dependencies of the class
+   *    loader. Cannot be null.
+   * @param classLoader Class loader to share. Cannot be null.
+   */
+  public synchronized void addClassLoader(final String dependenciesKey,
+      final ClassLoader classLoader) {
+    Validate.notNull(dependenciesKey, "The dependencies key cannot be null.");
+    Validate.notNull(classLoader, "The class loader cannot be null.");
+    classLoaders.put(dependenciesKey, classLoader);
+  }
+
+  /** Returns the index of JAR entries shared by this session.
+   * @return A valid index, never returns null.
+   */
+  public JarEntryIndex getJarEntryIndex() {
+    return jarEntryIndex;
+  }
+
+  /** Returns the cache of resources extracted from JAR files. The cache is
+   * created into the specified directory the first time it's required, and
+   * it's reused by other executions. Extracted resources are
+   * content-addressed, so they're valid for every execution.
+   *
+   * @param cacheDirectory Directory to create the cache into if it doesn't
+   *    exist yet. Cannot be null.
+   * @return A valid cache, never returns null.
+   */
+  public synchronized JarResourceCache getJarResourceCache(
+      final File cacheDirectory) {
+    Validate.notNull(cacheDirectory, "The cache directory cannot be null.");
+    if (jarResourceCache == null) {
+      jarResourceCache = new JarResourceCache(cacheDirectory);
+    }
+    return jarResourceCache;
+  }
+}
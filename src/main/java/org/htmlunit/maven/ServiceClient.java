@@ -0,0 +1,348 @@
+package org.htmlunit.maven;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.Validate;
+
+/** Client of the test execution service. It runs tests in a service started
+ * in service mode, so tests run in a warm JVM.
+ *
+ * <p>
+ * Requests carry a key that identifies the configuration and dependencies of
+ * the client. The service rejects requests from clients with a different key,
+ * so a service started for a different dependency set is never used.
+ * </p>
+ * <p>
+ * The client never fails because of the service: any transport or protocol
+ * error is reported as {@link Outcome#FAILED}, so callers can always run the
+ * tests by themselves.
+ * </p>
+ */
+public class ServiceClient {
+
+  /** Result of the last request to the service. */
+  public enum Outcome {
+    /** Tests ran in the service. */
+    COMPLETED,
+    /** There's no service running. */
+    NOT_RUNNING,
+    /** The service was started for a different configuration. */
+    CONFLICT,
+    /** The service is running other tests. */
+    BUSY,
+    /** The service failed to answer with test results. */
+    FAILED
+  }
+
+  /** Time to wait for the service to accept the connection, in
+   * milliseconds. */
+  private static final int CONNECT_TIMEOUT = 1000;
+
+  /** Time between checks while the service is stopping, in milliseconds. */
+  private static final int STOP_INTERVAL = 100;
+
+  /** Number of checks until the client gives up waiting for the service
+   * to stop. */
+  private static final int STOP_CHECKS = 100;
+
+  /** Status code of successful requests. */
+  private static final int STATUS_OK = 200;
+
+  /** Status code of rejected requests. */
+  private static final int STATUS_CONFLICT = 409;
+
+  /** Status code of requests received while tests are running. */
+  private static final int STATUS_UNAVAILABLE = 503;
+
+  /** Hexadecimal radix used to read JSON unicode escapes. */
+  private static final int HEX = 16;
+
+  /** Number of hexadecimal digits in a JSON unicode escape. */
+  private static final int UNICODE_DIGITS = 4;
+
+  /** JSON string pattern. */
+  private static final String JSON_STRING = "\"((?:[^\"\\\\]|\\\\.)*)\"";
+
+  /** Pattern of results written by {@link TestResult#toJson()}. */
+  private static final Pattern RESULT = Pattern.compile("\\{\"test\":"
+      + JSON_STRING + "(?:,\"browser\":" + JSON_STRING + ")?"
+      + ",\"status\":\"(\\w+)\",\"duration\":(\\d+),"
+      + "\"message\":(null|" + JSON_STRING + ")\\}");
+
+  /** Host the service is running on; it's never null. */
+  private final String host;
+
+  /** Port the service listens to. */
+  private final int port;
+
+  /** Time to wait for the service to run the tests, in milliseconds. Zero
+   * means it waits forever. */
+  private int readTimeout;
+
+  /** Result of the last request; it's null until the first request. */
+  private Outcome outcome;
+
+  /** Description of the last failure; it's null unless the last request
+   * failed. */
+  private String failure;
+
+  /** Creates a client for the service at the specified port.
+   *
+   * @param host Host the service is running on. Cannot be null or empty.
+   * @param port Port the service listens to.
+   */
+  public ServiceClient(final String host, final int port) {
+    Validate.notEmpty(host, "The host cannot be null or empty.");
+    this.host = host;
+    this.port = port;
+  }
+
+  /** Sets the time to wait for the service to run the tests. If it expires,
+   * {@link #run} gives up instead of waiting for a hung service forever.
+   *
+   * @param theReadTimeout Timeout in milliseconds. Zero means it waits
+   *    forever.
+   */
+  public void setReadTimeout(final int theReadTimeout) {
+    Validate.isTrue(theReadTimeout >= 0, "The timeout cannot be negative.");
+    readTimeout = theReadTimeout;
+  }
+
+  /** Runs all tests in the service. The reason why tests didn't run is
+   * available via {@link #getOutcome()}.
+   *
+   * @param key Key of the client configuration and dependencies. Cannot be
+   *    null.
+   * @return The test results, or null if tests didn't run in the service.
+   */
+  public List<TestResult> run(final String key) {
+    Validate.notNull(key, "The key cannot be null.");
+
+    outcome = Outcome.FAILED;
+    failure = null;
+    try {
+      HttpURLConnection connection = post(TestDebugServer.RUN_ENDPOINT,
+          "key=" + URLEncoder.encode(key, "UTF-8"), readTimeout);
+
+      int status = connection.getResponseCode();
+      switch (status) {
+      case STATUS_OK:
+        break;
+      case STATUS_CONFLICT:
+        outcome = Outcome.CONFLICT;
+        return null;
+      case STATUS_UNAVAILABLE:
+        outcome = Outcome.BUSY;
+        return null;
+      default:
+        failure = "Unexpected status " + status + ".";
+        return null;
+      }
+      InputStream input = connection.getInputStream();
+      try {
+        String response = IOUtils.toString(input, "UTF-8");
+        if (!response.trim().startsWith("{")) {
+          failure = "Unexpected response.";
+          return null;
+        }
+        List<TestResult> results = parseResults(response);
+        outcome = Outcome.COMPLETED;
+        return results;
+      } finally {
+        IOUtils.closeQuietly(input);
+      }
+    } catch (ConnectException cause) {
+      outcome = Outcome.NOT_RUNNING;
+      return null;
+    } catch (IOException cause) {
+      failure = String.valueOf(cause);
+      return null;
+    } catch (RuntimeException cause) {
+      failure = String.valueOf(cause);
+      return null;
+    }
+  }
+
+  /** Asks the service to stop, and waits until it's stopped. A busy service
+   * doesn't stop.
+   *
+   * @return True if there's no service running anymore, false otherwise.
+   */
+  public boolean stop() {
+    try {
+      HttpURLConnection connection = post(TestDebugServer.STOP_ENDPOINT, "",
+          CONNECT_TIMEOUT);
+      if (connection.getResponseCode() != STATUS_OK) {
+        return false;
+      }
+    } catch (ConnectException cause) {
+      return true;
+    } catch (IOException cause) {
+      // The service may close the connection while it's stopping.
+    }
+    for (int i = 0; i < STOP_CHECKS; i++) {
+      try {
+        new Socket(host, port).close();
+        Thread.sleep(STOP_INTERVAL);
+      } catch (IOException cause) {
+        return true;
+      } catch (InterruptedException cause) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /** Returns the result of the last request.
+   *
+   * @return The last outcome, or null if there was no request yet.
+   */
+  public Outcome getOutcome() {
+    return outcome;
+  }
+
+  /** Returns the description of the last failure.
+   *
+   * @return The failure, or null if the last request didn't fail.
+   */
+  public String getFailure() {
+    return failure;
+  }
+
+  /** Posts a form to the specified service endpoint.
+   *
+   * @param endpoint Service endpoint. Cannot be null.
+   * @param form Url encoded form to post. Cannot be null.
+   * @param timeout Time to wait for the response, in milliseconds. Zero
+   *    means it waits forever.
+   * @return The connection, with the request already sent. Never returns
+   *    null.
+   * @throws IOException If the request cannot be sent.
+   */
+  private HttpURLConnection post(final String endpoint, final String form,
+      final int timeout) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http", host,
+        port, endpoint).openConnection();
+    connection.setConnectTimeout(CONNECT_TIMEOUT);
+    connection.setReadTimeout(timeout);
+    connection.setDoOutput(true);
+    connection.setRequestMethod("POST");
+    connection.setRequestProperty("Content-Type",
+        "application/x-www-form-urlencoded");
+
+    OutputStream output = connection.getOutputStream();
+    try {
+      output.write(form.getBytes("UTF-8"));
+    } finally {
+      IOUtils.closeQuietly(output);
+    }
+    return connection;
+  }
+
+  /** Reads the results sent by the service.
+   *
+   * @param json Service response. Cannot be null.
+   * @return The test results, never returns null.
+   */
+  static List<TestResult> parseResults(final String json) {
+    List<TestResult> results = new ArrayList<TestResult>();
+    Matcher matcher = RESULT.matcher(json);
+
+    while (matcher.find()) {
+      try {
+        URL test = new URL(unquote(matcher.group(1)));
+        String browserVersion = null;
+        if (matcher.group(2) != null) {
+          browserVersion = unquote(matcher.group(2));
+        }
+        long duration = Long.parseLong(matcher.group(4));
+        if (TestResult.Status.SKIPPED.name().equalsIgnoreCase(
+            matcher.group(3))) {
+          results.add(TestResult.skipped(test, browserVersion, duration));
+          continue;
+        }
+        RemoteFailure failure = null;
+        if (matcher.group(6) != null) {
+          failure = new RemoteFailure(unquote(matcher.group(6)));
+        }
+        results.add(new TestResult(test, browserVersion, duration, failure));
+      } catch (IOException cause) {
+        throw new RuntimeException("Invalid test url.", cause);
+      }
+    }
+    return results;
+  }
+
+  /** Reads the content of a JSON string.
+   *
+   * @param value String content, without quotes. Cannot be null.
+   * @return The unescaped value, never returns null.
+   */
+  private static String unquote(final String value) {
+    StringBuilder result = new StringBuilder();
+
+    for (int i = 0; i < value.length(); i++) {
+      char character = value.charAt(i);
+      if (character != '\\') {
+        result.append(character);
+        continue;
+      }
+      i += 1;
+      character = value.charAt(i);
+      switch (character) {
+      case 'n':
+        result.append('\n');
+        break;
+      case 'r':
+        result.append('\r');
+        break;
+      case 't':
+        result.append('\t');
+        break;
+      case 'u':
+        result.append((char) Integer.parseInt(value.substring(i + 1,
+            i + 1 + UNICODE_DIGITS), HEX));
+        i += UNICODE_DIGITS;
+        break;
+      default:
+        result.append(character);
+      }
+    }
+    return result.toString();
+  }
+
+  /** Failure of a test executed by the service. */
+  private static class RemoteFailure extends RuntimeException {
+
+    /** Default id for serialization. */
+    private static final long serialVersionUID = 1L;
+
+    /** Creates a new failure.
+     * @param message Failure reported by the service. Cannot be null.
+     */
+    public RemoteFailure(final String message) {
+      super(message);
+    }
+
+    /** The message already describes the original error.
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+      return getMessage();
+    }
+  }
+}
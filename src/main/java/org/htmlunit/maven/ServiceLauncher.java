@@ -0,0 +1,147 @@
+package org.htmlunit.maven;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+
+/** Starts the test execution service in its own JVM. The plugin starts the
+ * service in the background when tests are configured to run in the service
+ * and there's no service running for the current configuration.
+ *
+ * <p>
+ * It receives the configuration file written by the plugin and the log file
+ * to write the service output to. The class path of the JVM contains the
+ * dependencies tests run with, so custom url protocols are resolved from the
+ * system class loader.
+ * </p>
+ */
+public final class ServiceLauncher {
+
+  /** Configuration entry with the service key. */
+  static final String SERVICE_KEY = "serviceKey";
+
+  /** Configuration entry with the runner class name. */
+  static final String RUNNER_CLASS = "runnerClassName";
+
+  /** Configuration entry with the browser versions, separated by comma. */
+  static final String BROWSER_VERSIONS = "browserVersions";
+
+  /** Configuration entry with the web client page load timeout. */
+  static final String TIMEOUT = "timeout";
+
+  /** Prefix of runner configuration entries. */
+  static final String RUNNER_PREFIX = "runner.";
+
+  /** Prefix of web client configuration entries. */
+  static final String WEB_CLIENT_PREFIX = "webClient.";
+
+  /** Prefix of system properties. */
+  static final String SYSTEM_PREFIX = "system.";
+
+  /** Number of arguments: the configuration file and the log file. */
+  private static final int ARGUMENTS = 2;
+
+  /** Utility class, it cannot be instantiated.
+   */
+  private ServiceLauncher() {
+  }
+
+  /** Runs the test execution service until it's stopped.
+   *
+   * @param args The configuration file and the log file. Cannot be null.
+   * @throws IOException If the configuration cannot be read.
+   */
+  public static void main(final String[] args) throws IOException {
+    Validate.isTrue(args.length == ARGUMENTS,
+        "Usage: ServiceLauncher [configuration] [log]");
+
+    PrintStream log = new PrintStream(new FileOutputStream(args[1], true),
+        true, "UTF-8");
+    System.setOut(log);
+    System.setErr(log);
+
+    Properties configuration = new Properties();
+    InputStream input = new FileInputStream(args[0]);
+    try {
+      configuration.load(input);
+    } finally {
+      IOUtils.closeQuietly(input);
+    }
+
+    int status = 0;
+    try {
+      run(configuration);
+    } catch (RuntimeException cause) {
+      cause.printStackTrace();
+      status = 1;
+    }
+    // Runners may leave non-daemon threads behind.
+    System.exit(status);
+  }
+
+  /** Configures and runs the runner in service mode.
+   *
+   * @param configuration Configuration written by the plugin. Cannot be
+   *    null.
+   */
+  private static void run(final Properties configuration) {
+    for (String name : configuration.stringPropertyNames()) {
+      if (name.startsWith(SYSTEM_PREFIX)) {
+        System.setProperty(StringUtils.removeStart(name, SYSTEM_PREFIX),
+            configuration.getProperty(name));
+      }
+    }
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    DelegatingURLStreamHandlerFactory.getInstance().register(classLoader);
+
+    RunnerContext context = new RunnerContext();
+    List<BrowserVersion> versions = new ArrayList<BrowserVersion>();
+    for (String version : StringUtils.split(configuration
+        .getProperty(BROWSER_VERSIONS), ",")) {
+      versions.add(TestMojo.getBrowserVersion(version));
+    }
+    context.setBrowserVersions(versions);
+    context.setRunnerConfiguration(getEntries(configuration, RUNNER_PREFIX));
+    context.setWebClientConfiguration(getEntries(configuration,
+        WEB_CLIENT_PREFIX));
+    context.setTimeout(Integer.parseInt(configuration.getProperty(TIMEOUT)));
+    context.setLog(new SystemStreamLog());
+    context.setServiceMode(true);
+    context.setServiceKey(configuration.getProperty(SERVICE_KEY));
+
+    WebDriverRunner runner = TestMojo.createRunner(configuration
+        .getProperty(RUNNER_CLASS), classLoader);
+    runner.initialize(context);
+    runner.run();
+  }
+
+  /** Returns the configuration entries with the specified prefix.
+   *
+   * @param configuration Configuration to read. Cannot be null.
+   * @param prefix Prefix of the entries. Cannot be null.
+   * @return The entries without the prefix, never returns null.
+   */
+  private static Properties getEntries(final Properties configuration,
+      final String prefix) {
+    Properties entries = new Properties();
+    for (String name : configuration.stringPropertyNames()) {
+      if (name.startsWith(prefix)) {
+        entries.setProperty(StringUtils.removeStart(name, prefix),
+            configuration.getProperty(name));
+      }
+    }
+    return entries;
+  }
+}
@@ -0,0 +1,66 @@
+package org.htmlunit.maven;
+
+import org.apache.commons.lang.Validate;
+
+/** Result of a single spec reported by a JavaScript test framework through
+ * the result channel. For further information look at
+ * {@link AbstractRunner#specFinished}.
+ */
+public class SpecResult {
+
+  /** Full name of the spec; it's never null. */
+  private final String name;
+
+  /** True if the spec passed. */
+  private final boolean passed;
+
+  /** Failure message; it's null if there's no message. */
+  private final String message;
+
+  /** Execution time, in milliseconds. */
+  private final long duration;
+
+  /** Creates a new spec result.
+   *
+   * @param theName Full name of the spec. Cannot be null.
+   * @param isPassed True if the spec passed, false otherwise.
+   * @param theMessage Failure message. Can be null.
+   * @param theDuration Execution time, in milliseconds.
+   */
+  public SpecResult(final String theName, final boolean isPassed,
+      final String theMessage, final long theDuration) {
+    Validate.notNull(theName, "The name cannot be null.");
+    name = theName;
+    passed = isPassed;
+    message = theMessage;
+    duration = theDuration;
+  }
+
+  /** Returns the full name of the spec.
+   * @return A valid name, never returns null.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /** Determines whether the spec passed or not.
+   * @return Returns true if the spec passed, false otherwise.
+   */
+  public boolean isPassed() {
+    return passed;
+  }
+
+  /** Returns the failure message.
+   * @return The message, or null if there's no message.
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  /** Returns the spec execution time.
+   * @return The execution time, in milliseconds.
+   */
+  public long getDuration() {
+    return duration;
+  }
+}
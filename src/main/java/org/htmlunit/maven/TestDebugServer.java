@@ -1,13 +1,27 @@
 package org.htmlunit.maven;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-
-import javax.activation.MimetypesFileTypeMap;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
@@ -44,6 +58,9 @@ import org.slf4j.LoggerFactory;
  *     <code>handleAction(String uri, Map<String, String> params)</code>.</li>
  *     <li>Request handler method must return a valid {@link Response}.</li>
  *   </ul>
+ * Handler methods are resolved once when the server is created, and they're
+ * invoked through reflection. Custom routes can also be registered explicitly
+ * via {@link #addRoute}, which dispatches requests with a direct call.
  * </p>
  * <p>
  * The default request handler (endpoint <code>/</code>) can be changed
@@ -53,22 +70,86 @@ import org.slf4j.LoggerFactory;
  * It notifies when browser window is closed via {@link #handleDisconnect} (or
  * by issuing a HTTP GET request to <code>/disconnect/</code>.
  * </p>
+ * <p>
+ * Implementations that override {@link #runTests} can run tests on request.
+ * Clients post the tests to <code>/run/</code>, and results are sent back as
+ * JSON once all tests finished. Requests to <code>/stop/</code> stop the
+ * server, so it can be replaced by a server with a different configuration.
+ * </p>
+ * <p>
+ * Resources registered via {@link #watch} are watched for changes, and
+ * changes are pushed to browsers as server-sent events from the
+ * <code>/events/</code> endpoint. Changed tests are sent as
+ * <code>reload</code> events, and any other resource as <code>change</code>
+ * events. The event data is the list of changed urls, one per line. The debug
+ * support script reloads the runner of a changed test, and reloads changed
+ * scripts in place.
+ * </p>
+ * <p>
+ * Responses carrying an <code>ETag</code> or <code>Last-Modified</code>
+ * header are validated against the request conditional headers, and a
+ * <code>304 Not Modified</code> response is sent if they match. Static
+ * content is cached in memory until the resource modification date changes.
+ * File resources are not kept in memory, they're sent straight from the file
+ * system.
+ * </p>
+ * <p>
+ * Text responses carrying an <code>ETag</code> are compressed according to the
+ * request <code>Accept-Encoding</code> header. Compressed variants are cached
+ * by entity tag, so each content is compressed only once per encoding, up to
+ * a fixed amount of memory. Responses sent from files are not compressed.
+ * </p>
  */
 public abstract class TestDebugServer extends NanoHTTPD {
 
   /** Test handler endpoint. */
   public static final String TEST_ENDPOINT = "/test/";
 
+  /** Test execution endpoint. */
+  public static final String RUN_ENDPOINT = "/run/";
+
+  /** Endpoint to stop a server that runs tests on request. */
+  public static final String STOP_ENDPOINT = "/stop/";
+
   /** Class logger. */
   private static final Logger LOG = LoggerFactory
       .getLogger(TestDebugServer.class);
 
+  /** Parameter with the list of tests to run. */
+  private static final String TESTS_PARAM = "tests";
+
+  /** Parameter with the key of the client that requests to run tests. */
+  private static final String KEY_PARAM = "key";
+
+  /** Host the server listens to. Only local clients can connect. */
+  private static final String LOCALHOST = "localhost";
+
+  /** Actions that change the server state, and only accept POST requests. */
+  private static final List<String> POST_ACTIONS = Arrays.asList("Run",
+      "Stop");
+
+  /** Live reload events endpoint. */
+  public static final String EVENTS_ENDPOINT = "/events/";
+
   /** Static content request parameter. */
   private static final String STATIC_CONTENT_PARAM = "url";
 
   /** Static content endpoint. */
   private static final String STATIC_CONTENT_ENDPOINT = "/static/";
 
+  /** Date format used by HTTP headers. */
+  private static final String HTTP_DATE_FORMAT =
+      "EEE, dd MMM yyyy HH:mm:ss 'GMT'";
+
+  /** Maximum size, in bytes, of the compressed variants kept in memory. */
+  private static final int MAX_ENCODED_SIZE = 16 * 1024 * 1024;
+
+  /** Prefix of request handler methods. */
+  private static final String HANDLER_PREFIX = "handle";
+
+  /** Number of milliseconds in a second, HTTP dates precision. */
+  private static final long SECOND = 1000;
+
   /** Debug support file, should be added to runners in order to
    * support debugging. */
   private static final String DEBUG_SUPPORT =
@@ -131,14 +212,59 @@ public abstract class TestDebugServer extends NanoHTTPD {
 
   /** List of available test files; it's never null.
    */
-  private List<URL> testFiles;
+  private List<URL> testFiles = new ArrayList<URL>();
+
+  /** Test files indexed by the suffixes of their url that start at a path
+   * separator, so tests are found by either the full url or a partial path.
+   * It's replaced when test files change; it's never null.
+   */
+  private volatile Map<String, URL> testIndex = new HashMap<String, URL>();
+
+  /** Runners already rendered, indexed by test url; it's never null.
+   */
+  private final Map<String, RunnerContent> runners =
+      new ConcurrentHashMap<String, RunnerContent>();
+
+  /** Stream of live reload events; it's never null.
+   */
+  private final EventStream events = new EventStream();
+
+  /** Watches resources for live reload, or null if resources are not watched.
+   */
+  private ResourceWatcher watcher;
+
+  /** Request handlers, indexed by capitalized action name; it's never null.
+   */
+  private final Map<String, RequestHandler> routes =
+      new ConcurrentHashMap<String, RequestHandler>();
+
+  /** Held while tests are running, so executions never overlap; it's never
+   * null. */
+  private final Lock runLock = new ReentrantLock();
+
+  /** Static contents already read, indexed by url; it's never null.
+   */
+  private final Map<String, StaticContent> staticContents =
+      new ConcurrentHashMap<String, StaticContent>();
+
+  /** Compressed variants of responses, indexed by encoding and entity tag.
+   * The least recently used variants are discarded once they exceed
+   * {@link #MAX_ENCODED_SIZE} bytes. It's never null.
+   */
+  private final Map<String, byte[]> encodedContents =
+      new LinkedHashMap<String, byte[]>(0, 0.75f, true);
+
+  /** Size, in bytes, of the compressed variants kept in memory. It's
+   * guarded by {@link #encodedContents}. */
+  private long encodedSize;
 
   /** Creates the debug server to listen in the specified port of localhost.
    *
    * @param port Port to listen. Must be greater than 0.
    */
   public TestDebugServer(final int port) {
-    super(port);
+    super(LOCALHOST, port);
+    registerHandlers();
   }
 
   /** Creates the debug server to listen in the specified port of localhost.
@@ -147,10 +273,11 @@ public abstract class TestDebugServer extends NanoHTTPD {
    * @param theTestFiles List of available tests. Cannot be null.
    */
   public TestDebugServer(final int port, final List<URL> theTestFiles) {
-    super(port);
+    super(LOCALHOST, port);
     Validate.notNull(theTestFiles, "The test files cannot be null.");
 
-    testFiles = theTestFiles;
+    setTestFiles(theTestFiles);
+    registerHandlers();
   }
 
   /** Delegates to methods by the following naming convention:
@@ -181,15 +308,44 @@ public abstract class TestDebugServer extends NanoHTTPD {
 
     String action = StringUtils.capitalize(StringUtils
         .substringBefore(uri.substring(1), "/"));
-    try {
-      java.lang.reflect.Method handler = getClass().getMethod("handle" + action,
-          new Class[] {String.class, Map.class});
-      handler.setAccessible(true);
-      return (Response) handler.invoke(this, uri, params);
-    } catch (Exception cause) {
-      LOG.debug("Action not found", cause);
+    RequestHandler handler = routes.get(action);
+    if (handler == null) {
+      LOG.debug("Action not found: {}", action);
       return new Response(Status.NOT_FOUND, "text/plain", "Not found");
     }
+    if (POST_ACTIONS.contains(action) && method != Method.POST) {
+      Response response = new Response(Status.METHOD_NOT_ALLOWED,
+          "text/plain", "Method not allowed");
+      response.addHeader("Allow", "POST");
+      return response;
+    }
+    Response response;
+    try {
+      response = handler.handle(uri, params);
+    } catch (RuntimeException cause) {
+      LOG.warn("Action failed", cause);
+      return new Response(Status.INTERNAL_ERROR, "text/plain",
+          "Action failed: " + cause.getMessage());
+    }
+    // Validated first, so a 304 response is never read nor compressed.
+    Response validated = validate(header, response);
+    if (validated != response) {
+      return validated;
+    }
+    return compress(header, response);
+  }
+
+  /** Registers a handler for requests to <code>/action/</code>. It replaces
+   * any handler previously registered for the same action.
+   *
+   * @param action Name of the action, the first element of the request path.
+   *    Cannot be null or empty.
+   * @param handler Handler for the action requests. Cannot be null.
+   */
+  public void addRoute(final String action, final RequestHandler handler) {
+    Validate.notEmpty(action, "The action cannot be null or empty.");
+    Validate.notNull(handler, "The handler cannot be null.");
+    routes.put(StringUtils.capitalize(action), handler);
   }
 
   /** Sets the test files managed by this server.
@@ -197,7 +353,83 @@ public abstract class TestDebugServer extends NanoHTTPD {
    */
   public void setTestFiles(final List<URL> theTestFiles) {
     Validate.notNull(theTestFiles, "Test files cannot be null.");
+
+    Map<String, URL> index = new HashMap<String, URL>();
+    for (URL test : theTestFiles) {
+      String url = test.toString();
+      for (int i = 0; i < url.length(); i++) {
+        if (i == 0 || url.charAt(i) == '/' || url.charAt(i - 1) == '/') {
+          String suffix = url.substring(i);
+          if (!index.containsKey(suffix)) {
+            index.put(suffix, test);
+          }
+        }
+      }
+    }
     testFiles = theTestFiles;
+    testIndex = index;
+    runners.clear();
+  }
+
+  /** Watches the specified resources and notifies changes to connected
+   * browsers. It replaces resources previously watched.
+   *
+   * @param resources Resources to watch. Cannot be null.
+   */
+  public synchronized void watch(final List<URL> resources) {
+    Validate.notNull(resources, "The resources cannot be null.");
+    if (watcher != null) {
+      watcher.stop();
+    }
+    watcher = new ResourceWatcher(resources, ResourceWatcher.DEFAULT_INTERVAL,
+        new ResourceWatcher.Listener() {
+          @Override
+          public void resourcesChanged(final List<URL> changes) {
+            notifyChanges(changes);
+          }
+        });
+    watcher.start();
+  }
+
+  /** Stops watching resources and stops the server.
+   * {@inheritDoc}
+   */
+  @Override
+  public void stop() {
+    synchronized (this) {
+      if (watcher != null) {
+        watcher.stop();
+        watcher = null;
+      }
+    }
+    super.stop();
+  }
+
+  /** Notifies the specified changes to connected browsers. Changed tests are
+   * sent in a <code>reload</code> event, other resources in a
+   * <code>change</code> event.
+   *
+   * @param changes Changed resources. Cannot be null.
+   */
+  protected void notifyChanges(final List<URL> changes) {
+    Validate.notNull(changes, "The changes cannot be null.");
+    LOG.info("Resources changed: " + changes);
+
+    List<String> tests = new ArrayList<String>();
+    List<String> resources = new ArrayList<String>();
+    for (URL change : changes) {
+      if (lookupTest(change.toString()) != null) {
+        tests.add(change.toString());
+      } else {
+        resources.add(change.toString());
+      }
+    }
+    if (!tests.isEmpty()) {
+      events.send("reload", StringUtils.join(tests, "\n"));
+    }
+    if (!resources.isEmpty()) {
+      events.send("change", StringUtils.join(resources, "\n"));
+    }
   }
 
   /** Handles default request (<code>/</code>).
@@ -228,18 +460,43 @@ public abstract class TestDebugServer extends NanoHTTPD {
     Validate.notNull(params, "The request parameters cannot be null.");
 
     try {
-      String sourceCode = "";
+      InputStream debugScript = null;
 
-      if (params.get(STATIC_CONTENT_PARAM).endsWith(DEBUG_SUPPORT)
-          && getDebugScript() != null) {
-        sourceCode += ResourceUtils.readAsText(getDebugScript());
+      if (params.get(STATIC_CONTENT_PARAM).endsWith(DEBUG_SUPPORT)) {
+        debugScript = getDebugScript();
       }
 
       URL url = new URL(params.get(STATIC_CONTENT_PARAM));
-      sourceCode += ResourceUtils.readAsText(url);
+      StaticContent content;
+
+      if (debugScript != null) {
+        // Debug code is generated in runtime, so it's never cached.
+        ByteArrayOutputStream sourceCode = new ByteArrayOutputStream();
+        sourceCode.write(ResourceUtils.readAsBytes(debugScript));
+        sourceCode.write(ResourceUtils.readAsBytes(url));
+        content = new StaticContent(sourceCode.toByteArray(), 0);
+      } else {
+        content = getStaticContent(url);
+      }
 
-      return new Response(Status.OK, MimetypesFileTypeMap
-          .getDefaultFileTypeMap().getContentType(url.toString()), sourceCode);
+      String contentType = ResourceUtils.getContentType(url);
+      if (ResourceUtils.isTextContent(contentType)) {
+        contentType += "; charset=" + ResourceWebResponse.CHARSET;
+      }
+      Response response;
+      if (content.getFile() != null) {
+        response = new Response(Status.OK, contentType, content.getFile());
+      } else {
+        response = new Response(Status.OK, contentType,
+            new ByteArrayInputStream(content.getData()));
+      }
+      response.addHeader("ETag", content.getETag());
+      response.addHeader("Cache-Control", "no-cache");
+      if (ResourceUtils.getFile(url) != null) {
+        response.addHeader("Last-Modified",
+            formatDate(content.getLastModified()));
+      }
+      return response;
     } catch (Exception cause) {
       LOG.debug("Cannot read resource data.", cause);
       return new Response(Status.NOT_FOUND, "text/plain", "Not found");
@@ -261,9 +518,145 @@ public abstract class TestDebugServer extends NanoHTTPD {
     if (test == null) {
       return new Response(Status.NOT_FOUND, "text/plain", "TEST NOT FOUND.");
     }
-    URL runner = getRunner(test);
-    return new Response(Status.OK, "text/html",
-        ResourceUtils.readAsText(runner));
+    StaticContent content = getRunnerContent(test);
+    Response response = new Response(Status.OK, "text/html; charset="
+        + ResourceWebResponse.CHARSET,
+        new ByteArrayInputStream(content.getData()));
+    response.addHeader("ETag", content.getETag());
+    response.addHeader("Cache-Control", "no-cache");
+    return response;
+  }
+
+  /** Opens a stream of live reload events (<code>/events/</code>).
+   *
+   * @param uri Request uri. Cannot be null or empty.
+   * @param params Parameters provided to the request. Cannot be null.
+   * @return Returns the server response. Never returns null.
+   */
+  public Response handleEvents(final String uri,
+      final Map<String, String> params) {
+    Validate.notEmpty(uri, "The request uri cannot be null or empty.");
+    Validate.notNull(params, "The request parameters cannot be null.");
+
+    return new Response(events);
+  }
+
+  /** Runs tests on request (<code>/run/</code>) and writes the results as
+   * JSON. Tests are looked up like in {@link #handleTest}, either from the
+   * request path or from the <code>tests</code> parameter, which is a list of
+   * tests separated by semicolon. If no test is specified, all tests are
+   * executed.
+   *
+   * <p>
+   * The response is an object with the number of <code>passed</code> and
+   * <code>failed</code> tests and the list of <code>results</code>, as
+   * written by {@link TestResult#toJson()}.
+   * </p>
+   * <p>
+   * If the server has a {@link #getServiceKey()}, requests must have a
+   * <code>key</code> parameter, otherwise it answers with
+   * <code>403 Forbidden</code>. If the key doesn't match, tests are not
+   * executed and it answers with <code>409 Conflict</code>. Only POST
+   * requests are accepted.
+   * </p>
+   * <p>
+   * Only one execution runs at a time. While tests are running, further
+   * requests are answered with <code>503 Service Unavailable</code> instead
+   * of holding a server thread. If the server doesn't support test
+   * execution, it answers with <code>501 Not Implemented</code>.
+   * </p>
+   *
+   * @param uri Request uri. Cannot be null or empty.
+   * @param params Parameters provided to the request. Cannot be null.
+   * @return Returns the server response. Never returns null.
+   */
+  public Response handleRun(final String uri,
+      final Map<String, String> params) {
+    Validate.notEmpty(uri, "The request uri cannot be null or empty.");
+    Validate.notNull(params, "The request parameters cannot be null.");
+
+    String key = params.get(KEY_PARAM);
+    String serviceKey = getServiceKey();
+    if (serviceKey != null && key == null) {
+      return new Response(Status.FORBIDDEN, "text/plain",
+          "The service key is required.");
+    }
+    if (serviceKey != null && !key.equals(serviceKey)) {
+      return new Response(Status.CONFLICT, "text/plain",
+          "The service was started for a different configuration.");
+    }
+
+    if (!runLock.tryLock()) {
+      return new Response(Status.SERVICE_UNAVAILABLE, "text/plain",
+          "Tests are already running.");
+    }
+    try {
+      return runRequest(uri, params);
+    } finally {
+      runLock.unlock();
+    }
+  }
+
+  /** Resolves and runs the tests of a run request. It's invoked while the
+   * run lock is held.
+   *
+   * @param uri Request uri. Cannot be null or empty.
+   * @param params Parameters provided to the request. Cannot be null.
+   * @return Returns the server response. Never returns null.
+   */
+  private Response runRequest(final String uri,
+      final Map<String, String> params) {
+    beforeRun();
+
+    List<String> names = new ArrayList<String>();
+    String path = StringUtils.substringAfter(uri, RUN_ENDPOINT);
+    if (!StringUtils.isBlank(path)) {
+      names.add(path);
+    }
+    if (params.containsKey(TESTS_PARAM)) {
+      for (String name : StringUtils.split(params.get(TESTS_PARAM), ";")) {
+        if (!StringUtils.isBlank(name)) {
+          names.add(name.trim());
+        }
+      }
+    }
+
+    List<URL> tests = new ArrayList<URL>();
+    for (String name : names) {
+      URL test = lookupTest(name);
+      if (test == null) {
+        return new Response(Status.NOT_FOUND, "text/plain",
+            "TEST NOT FOUND: " + name);
+      }
+      tests.add(test);
+    }
+    if (names.isEmpty()) {
+      tests.addAll(testFiles);
+    }
+
+    List<TestResult> executed = runTests(tests);
+    if (executed == null) {
+      return new Response(Status.NOT_IMPLEMENTED, "text/plain",
+          "Test execution not supported.");
+    }
+
+    int passed = 0;
+    int failed = 0;
+    StringBuilder results = new StringBuilder();
+    for (TestResult result : executed) {
+      if (result.isPassed()) {
+        passed += 1;
+      } else if (result.isFailed()) {
+        failed += 1;
+      }
+      if (results.length() > 0) {
+        results.append(",");
+      }
+      results.append(result.toJson());
+    }
+    String json = "{\"passed\":" + passed + ",\"failed\":" + failed
+        + ",\"results\":[" + results + "]}";
+    return new Response(Status.OK, "application/json", json);
   }
 
   /** Shutdowns the server (<code>/disconnect/</code>).
@@ -280,6 +673,91 @@ public abstract class TestDebugServer extends NanoHTTPD {
     return new Response("Bye");
   }
 
+  /** Stops a server that runs tests on request (<code>/stop/</code>). The
+   * server stops once the response is sent. Only POST requests are
+   * accepted. If tests are running, it
+   * answers with <code>503 Service Unavailable</code> and keeps running.
+   * Servers that don't run tests on request answer with
+   * <code>501 Not Implemented</code>.
+   *
+   * @param uri Request uri. Cannot be null or empty.
+   * @param params Parameters provided to the request. Cannot be null.
+   * @return Returns the server response. Never returns null.
+   */
+  public Response handleStop(final String uri,
+      final Map<String, String> params) {
+    Validate.notEmpty(uri, "The request uri cannot be null or empty.");
+    Validate.notNull(params, "The request parameters cannot be null.");
+
+    if (getServiceKey() == null) {
+      return new Response(Status.NOT_IMPLEMENTED, "text/plain",
+          "The server doesn't run tests on request.");
+    }
+    if (!runLock.tryLock()) {
+      return new Response(Status.SERVICE_UNAVAILABLE, "text/plain",
+          "Tests are already running.");
+    }
+    // The lock is never released, so no test runs while the server stops.
+    Thread stopper = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        stop();
+      }
+    });
+    stopper.setName("TestDebugServer Stop");
+    stopper.start();
+    return new Response("Bye");
+  }
+
+  /** Returns the template used to render runners. Runners rendered in
+   * memory are discarded when either the template or the test changes.
+   *
+   * @return The runner template, or null if there's no template.
+   */
+  protected URL getRunnerTemplate() {
+    return null;
+  }
+
+  /** Returns a key that identifies the scripts loaded into runners, like the
+   * source scripts urls and their modification dates. Runners rendered in
+   * memory are discarded when the key changes, so scripts inlined into
+   * runners are never served stale. By default scripts are not tracked.
+   *
+   * @return A valid key, never returns null.
+   */
+  protected String getScriptsKey() {
+    return "";
+  }
+
+  /** Prepares a run request before its tests are resolved, for instance to
+   * update the test files with {@link #setTestFiles}. It's invoked by
+   * {@link #handleRun}, and executions never overlap. By default it does
+   * nothing.
+   */
+  protected void beforeRun() {
+  }
+
+  /** Runs the specified tests. It's invoked by {@link #handleRun}, and
+   * executions never overlap. By default test execution is not supported.
+   *
+   * @param tests Tests to run. Cannot be null.
+   * @return The results of the tests, in the same order, or null if test
+   *    execution is not supported.
+   */
+  protected List<TestResult> runTests(final List<URL> tests) {
+    return null;
+  }
+
+  /** Returns the key that identifies the configuration and dependencies
+   * this server runs tests with. By default there's no key, and tests are
+   * executed for any client.
+   *
+   * @return The service key, or null if the server accepts any client.
+   */
+  protected String getServiceKey() {
+    return null;
+  }
+
   /** Allows to add debugging code to tests. Debugging code is included
    * just before debug support scripts specified by
    * {@link #getDebugBootstrapScripts}.
@@ -292,13 +770,312 @@ public abstract class TestDebugServer extends NanoHTTPD {
     return null;
   }
 
-  /** Searches for a test that matches the specified url.
+  /** Builds the route table. Built-in actions are registered explicitly, so
+   * overridden handlers are dispatched without reflection. Handler methods
+   * declared by subclasses are resolved here, once.
+   */
+  private void registerHandlers() {
+    addRoute("static", new RequestHandler() {
+      @Override
+      public Response handle(final String uri,
+          final Map<String, String> params) {
+        return handleStatic(uri, params);
+      }
+    });
+    addRoute("test", new RequestHandler() {
+      @Override
+      public Response handle(final String uri,
+          final Map<String, String> params) {
+        return handleTest(uri, params);
+      }
+    });
+    addRoute("events", new RequestHandler() {
+      @Override
+      public Response handle(final String uri,
+          final Map<String, String> params) {
+        return handleEvents(uri, params);
+      }
+    });
+    addRoute("run", new RequestHandler() {
+      @Override
+      public Response handle(final String uri,
+          final Map<String, String> params) {
+        return handleRun(uri, params);
+      }
+    });
+    addRoute("disconnect", new RequestHandler() {
+      @Override
+      public Response handle(final String uri,
+          final Map<String, String> params) {
+        return handleDisconnect(uri, params);
+      }
+    });
+    addRoute("stop", new RequestHandler() {
+      @Override
+      public Response handle(final String uri,
+          final Map<String, String> params) {
+        return handleStop(uri, params);
+      }
+    });
+
+    for (java.lang.reflect.Method method : getClass().getMethods()) {
+      String action = StringUtils.removeStart(method.getName(),
+          HANDLER_PREFIX);
+      boolean isHandler = method.getName().startsWith(HANDLER_PREFIX)
+          && action.length() > 0
+          && Response.class.isAssignableFrom(method.getReturnType())
+          && Arrays.equals(method.getParameterTypes(),
+              new Class[] {String.class, Map.class});
+
+      if (isHandler && !routes.containsKey(action)) {
+        routes.put(action, new MethodRequestHandler(this, method));
+      }
+    }
+  }
+
+  /** Returns the content of the specified static resource. Contents are
+   * cached until the resource modification date changes; resources with
+   * unknown modification date are never cached.
+   *
+   * @param url Resource to read. Cannot be null.
+   * @return The resource content, never returns null.
+   */
+  private StaticContent getStaticContent(final URL url) {
+    String key = url.toString();
+    long lastModified = ResourceUtils.getLastModified(url);
+    StaticContent content = staticContents.get(key);
+
+    if (content == null || lastModified == 0
+        || content.getLastModified() != lastModified) {
+      File file = ResourceUtils.getFile(url);
+      if (file != null && file.isFile()) {
+        content = new StaticContent(file, lastModified);
+      } else {
+        content = new StaticContent(ResourceUtils.readAsBytes(url),
+            lastModified);
+      }
+      if (lastModified != 0) {
+        staticContents.put(key, content);
+      }
+    }
+    return content;
+  }
+
+  /** Compresses the response if the client accepts it. Only text responses
+   * identified by an entity tag are compressed here, so the compressed
+   * variant can be cached; the entity tag is suffixed by the encoding, as
+   * it identifies a different representation. Responses backed by files are
+   * never compressed, they're sent straight from the file system instead of
+   * being read into memory.
+   *
+   * @param header Request headers, names are lower-cased. Cannot be null.
+   * @param response Response to compress. Cannot be null.
+   * @return The compressed response, or the specified response if it cannot
+   *    be compressed.
+   */
+  private Response compress(final Map<String, String> header,
+      final Response response) {
+    String eTag = null;
+    if (response.header != null) {
+      eTag = response.header.get("ETag");
+    }
+    if (response.status != Status.OK || eTag == null
+        || response.data == null || response.file != null
+        || response.mimeType == null || getCompressionThreshold() < 0
+        || !ResourceUtils.isTextContent(StringUtils.substringBefore(
+            response.mimeType, ";"))) {
+      return response;
+    }
+    String encoding = negotiateEncoding(header.get("accept-encoding"));
+    if (encoding == null) {
+      return response;
+    }
+
+    String key = encoding + eTag;
+    byte[] encoded;
+    synchronized (encodedContents) {
+      encoded = encodedContents.get(key);
+    }
+    if (encoded == null) {
+      byte[] data = ResourceUtils.readAsBytes(response.data);
+      if (data.length < getCompressionThreshold()) {
+        response.data = new ByteArrayInputStream(data);
+        return response;
+      }
+      encoded = NanoHTTPD.encode(data, encoding);
+      cacheEncoded(key, encoded);
+    }
+    response.data = new ByteArrayInputStream(encoded);
+    response.addHeader("Content-Encoding", encoding);
+    response.addHeader("Vary", "Accept-Encoding");
+    response.addHeader("ETag", getEncodedTag(eTag, encoding));
+    return response;
+  }
+
+  /** Returns the entity tag of a compressed variant.
+   *
+   * @param eTag Entity tag of the uncompressed content. Cannot be null.
+   * @param encoding Encoding of the variant. Cannot be null.
+   * @return The variant entity tag, never returns null.
+   */
+  private static String getEncodedTag(final String eTag,
+      final String encoding) {
+    return StringUtils.removeEnd(eTag, "\"") + "-" + encoding + "\"";
+  }
+
+  /** Keeps a compressed variant in memory, discarding the least recently
+   * used variants until they fit in {@link #MAX_ENCODED_SIZE} bytes.
+   * Variants larger than the limit are not kept.
+   *
+   * @param key Encoding and entity tag of the variant. Cannot be null.
+   * @param encoded Compressed content. Cannot be null.
+   */
+  private void cacheEncoded(final String key, final byte[] encoded) {
+    if (encoded.length > MAX_ENCODED_SIZE) {
+      return;
+    }
+    synchronized (encodedContents) {
+      byte[] previous = encodedContents.put(key, encoded);
+      encodedSize += encoded.length;
+      if (previous != null) {
+        encodedSize -= previous.length;
+      }
+      Iterator<byte[]> eldest = encodedContents.values().iterator();
+      while (encodedSize > MAX_ENCODED_SIZE && eldest.hasNext()) {
+        encodedSize -= eldest.next().length;
+        eldest.remove();
+      }
+    }
+  }
+
+  /** Validates the response against the request conditional headers. It's
+   * invoked before the response is compressed, so entity tags of the
+   * compressed variant accepted by the client match too.
+   *
+   * @param header Request headers, names are lower-cased. Cannot be null.
+   * @param response Response to validate. Cannot be null.
+   * @return A <code>304 Not Modified</code> response if the client already
+   *    has the response content, or the specified response otherwise.
+   */
+  private Response validate(final Map<String, String> header,
+      final Response response) {
+    if (response.status != Status.OK || response.header == null) {
+      return response;
+    }
+    String eTag = response.header.get("ETag");
+    String lastModified = response.header.get("Last-Modified");
+    String ifNoneMatch = header.get("if-none-match");
+    String ifModifiedSince = header.get("if-modified-since");
+    boolean notModified = false;
+    String matchedTag = eTag;
+
+    if (ifNoneMatch != null) {
+      if (eTag != null) {
+        String encoding = negotiateEncoding(header.get("accept-encoding"));
+        String encodedTag = null;
+        if (encoding != null) {
+          encodedTag = getEncodedTag(eTag, encoding);
+        }
+        for (String tag : StringUtils.split(ifNoneMatch, ",")) {
+          tag = StringUtils.removeStart(tag.trim(), "W/");
+          if (tag.equals(encodedTag)) {
+            matchedTag = encodedTag;
+          }
+          notModified = notModified || tag.equals("*") || tag.equals(eTag)
+              || tag.equals(encodedTag);
+        }
+      }
+    } else if (ifModifiedSince != null && lastModified != null) {
+      long since = parseDate(ifModifiedSince);
+      notModified = since != 0 && parseDate(lastModified) <= since;
+    }
+    if (!notModified) {
+      return response;
+    }
+
+    Response notModifiedResponse = new Response(Status.NOT_MODIFIED, null,
+        (InputStream) null);
+    for (String name : new String[] {"Last-Modified", "Cache-Control",
+        "Vary"}) {
+      if (response.header.containsKey(name)) {
+        notModifiedResponse.addHeader(name, response.header.get(name));
+      }
+    }
+    if (matchedTag != null) {
+      notModifiedResponse.addHeader("ETag", matchedTag);
+      if (!matchedTag.equals(eTag)) {
+        notModifiedResponse.addHeader("Vary", "Accept-Encoding");
+      }
+    }
+    return notModifiedResponse;
+  }
+
+  /** Formats a date to be sent in HTTP headers.
+   * @param time Time to format, in milliseconds.
+   * @return The formatted date, never returns null.
+   */
+  private static String formatDate(final long time) {
+    SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT,
+        Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    return format.format(new Date(time));
+  }
+
+  /** Parses a date sent in HTTP headers, truncated to seconds.
+   * @param date Date to parse. Cannot be null.
+   * @return The time in milliseconds, or 0 if the date is not valid.
+   */
+  private static long parseDate(final String date) {
+    SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT,
+        Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    try {
+      return format.parse(date).getTime() / SECOND * SECOND;
+    } catch (ParseException cause) {
+      return 0;
+    }
+  }
+
+  /** Returns the rendered runner for the specified test. Runners are
+   * rendered once and kept in memory until the test, the runner template or
+   * the scripts change.
+   *
+   * @param test Test to get the runner for. Cannot be null.
+   * @return The runner content, never returns null.
+   */
+  private StaticContent getRunnerContent(final URL test) {
+    long testModified = ResourceUtils.getLastModified(test);
+    long templateModified = 0;
+    if (getRunnerTemplate() != null) {
+      templateModified = ResourceUtils.getLastModified(getRunnerTemplate());
+    }
+    String scriptsKey = getScriptsKey();
+    RunnerContent runner = runners.get(test.toString());
+
+    if (runner == null
+        || !runner.isValid(testModified, templateModified, scriptsKey)) {
+      StaticContent content = new StaticContent(ResourceUtils.readAsBytes(
+          getRunner(test)), 0);
+      runner = new RunnerContent(content, testModified, templateModified,
+          scriptsKey);
+      runners.put(test.toString(), runner);
+    }
+    return runner.getContent();
+  }
+
+  /** Searches for a test that matches the specified url. Tests are found in
+   * the index by any suffix of their url that starts at a path separator.
+   * Other suffixes are searched sequentially.
    *
    * @param uri Url to match tests. Cannot be null or empty.
    * @return Returns the matching test, or <code>null</code> if no one
    *    matches.
    */
   private URL lookupTest(final String uri) {
+    URL indexed = testIndex.get(uri);
+    if (indexed != null) {
+      return indexed;
+    }
     for (URL test : testFiles) {
       if (test.toString().endsWith(uri)) {
         return test;
@@ -307,4 +1084,189 @@ public abstract class TestDebugServer extends NanoHTTPD {
 
     return null;
   }
+
+  /** Content of a static resource. File resources are not read into memory,
+   * only their hash is calculated.
+   */
+  private static class StaticContent {
+
+    /** Resource content, or null if it's a file resource. */
+    private final byte[] data;
+
+    /** Resource file, or null if it's not a file resource. */
+    private final File file;
+
+    /** Entity tag derived from the content hash; it's never null. */
+    private final String eTag;
+
+    /** Resource modification date, or 0 if it's unknown. */
+    private final long lastModified;
+
+    /** Creates a new static content.
+     * @param theData Resource content. Cannot be null.
+     * @param theLastModified Resource modification date, or 0 if it's
+     *    unknown.
+     */
+    public StaticContent(final byte[] theData, final long theLastModified) {
+      data = theData;
+      file = null;
+      eTag = "\"" + ResourceUtils.hash(theData) + "\"";
+      lastModified = theLastModified;
+    }
+
+    /** Creates a new static content backed by a file.
+     * @param theFile Resource file. Cannot be null.
+     * @param theLastModified Resource modification date.
+     */
+    public StaticContent(final File theFile, final long theLastModified) {
+      data = null;
+      file = theFile;
+      eTag = "\"" + ResourceUtils.hash(theFile) + "\"";
+      lastModified = theLastModified;
+    }
+
+    /** Returns the resource content.
+     * @return The content, or null if it's a file resource.
+     */
+    public byte[] getData() {
+      return data;
+    }
+
+    /** Returns the resource file.
+     * @return The file, or null if it's not a file resource.
+     */
+    public File getFile() {
+      return file;
+    }
+
+    /** Returns the entity tag derived from the content hash.
+     * @return A quoted entity tag, never returns null.
+     */
+    public String getETag() {
+      return eTag;
+    }
+
+    /** Returns the resource modification date.
+     * @return The modification date, or 0 if it's unknown.
+     */
+    public long getLastModified() {
+      return lastModified;
+    }
+  }
+
+  /** Handles requests to an action registered in the debug server.
+   */
+  public interface RequestHandler {
+
+    /** Handles a request.
+     * @param uri Request uri. Cannot be null or empty.
+     * @param params Parameters provided to the request. Cannot be null.
+     * @return Returns the server response. Never returns null.
+     */
+    Response handle(final String uri, final Map<String, String> params);
+  }
+
+  /** Request handler that delegates to a <code>handleXxx</code> method
+   * declared by a subclass. The method is looked up once, but each request
+   * is dispatched through {@link java.lang.reflect.Method#invoke}: method
+   * handles are not available in the Java version the plugin targets.
+   * Exceptions thrown by the method are propagated as if it was invoked
+   * directly.
+   */
+  private static class MethodRequestHandler implements RequestHandler {
+
+    /** Server that declares the method; it's never null. */
+    private final TestDebugServer server;
+
+    /** Handler method; it's never null. */
+    private final java.lang.reflect.Method method;
+
+    /** Creates a new handler for the specified method.
+     * @param theServer Server that declares the method. Cannot be null.
+     * @param theMethod Handler method. Cannot be null.
+     */
+    public MethodRequestHandler(final TestDebugServer theServer,
+        final java.lang.reflect.Method theMethod) {
+      server = theServer;
+      method = theMethod;
+      method.setAccessible(true);
+    }
+
+    /** {@inheritDoc}
+     */
+    @Override
+    public Response handle(final String uri,
+        final Map<String, String> params) {
+      try {
+        return (Response) method.invoke(server, uri, params);
+      } catch (InvocationTargetException cause) {
+        if (cause.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) cause.getCause();
+        }
+        if (cause.getCause() instanceof Error) {
+          throw (Error) cause.getCause();
+        }
+        throw new RuntimeException("Handler failed: " + method.getName(),
+            cause.getCause());
+      } catch (IllegalAccessException cause) {
+        throw new RuntimeException("Cannot invoke handler "
+            + method.getName(), cause);
+      }
+    }
+  }
+
+  /** Runner rendered in memory.
+   */
+  private static class RunnerContent {
+
+    /** Runner content; it's never null. */
+    private final StaticContent content;
+
+    /** Modification date of the test when the runner was rendered. */
+    private final long testModified;
+
+    /** Modification date of the template when the runner was rendered. */
+    private final long templateModified;
+
+    /** Scripts key when the runner was rendered; it's never null. */
+    private final String scriptsKey;
+
+    /** Creates a new rendered runner.
+     * @param theContent Runner content. Cannot be null.
+     * @param theTestModified Modification date of the test.
+     * @param theTemplateModified Modification date of the template.
+     * @param theScriptsKey Key of the scripts loaded into the runner. Cannot
+     *    be null.
+     */
+    public RunnerContent(final StaticContent theContent,
+        final long theTestModified, final long theTemplateModified,
+        final String theScriptsKey) {
+      content = theContent;
+      testModified = theTestModified;
+      templateModified = theTemplateModified;
+      scriptsKey = theScriptsKey;
+    }
+
+    /** Returns the runner content.
+     * @return A valid content, never returns null.
+     */
+    public StaticContent getContent() {
+      return content;
+    }
+
+    /** Determines whether the runner is still valid for the specified
+     * modification dates and scripts.
+     * @param theTestModified Current modification date of the test.
+     * @param theTemplateModified Current modification date of the template.
+     * @param theScriptsKey Current key of the scripts. Cannot be null.
+     * @return True if neither the test, the template nor the scripts
+     *    changed.
+     */
+    public boolean isValid(final long theTestModified,
+        final long theTemplateModified, final String theScriptsKey) {
+      return testModified == theTestModified
+          && templateModified == theTemplateModified
+          && scriptsKey.equals(theScriptsKey);
+    }
+  }
 }
@@ -0,0 +1,207 @@
+package org.htmlunit.maven;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Duration and outcome of the last execution of each test, used to decide
+ * the order tests run in.
+ *
+ * <p>
+ * Tests that failed in their last execution run first, so regressions are
+ * reported as soon as possible. Then tests that never ran, and finally tests
+ * that passed. Within each group, longest tests run first, so concurrent
+ * executions finish at about the same time.
+ * </p>
+ * <p>
+ * The history is kept per browser version, in a properties file. Tests that
+ * don't run keep their previous history. All operations are thread-safe.
+ * </p>
+ */
+public class TestHistory {
+
+  /** Class logger. */
+  private static final Logger LOG = LoggerFactory.getLogger(TestHistory.class);
+
+  /** Rank of tests that failed in their last execution. */
+  private static final int RANK_FAILED = 0;
+
+  /** Rank of tests that never ran. */
+  private static final int RANK_UNKNOWN = 1;
+
+  /** Rank of tests that passed in their last execution. */
+  private static final int RANK_PASSED = 2;
+
+  /** File the history is persisted to; it's never null. */
+  private final File file;
+
+  /** Last status and duration, indexed by test key; it's never null. */
+  private final Properties entries = new Properties();
+
+  /** Creates a history persisted to the specified file, and loads it if the
+   * file exists. A file that cannot be read is ignored.
+   *
+   * @param theFile File to persist the history to. Cannot be null.
+   */
+  public TestHistory(final File theFile) {
+    Validate.notNull(theFile, "The file cannot be null.");
+    file = theFile;
+
+    if (file.exists()) {
+      InputStream input = null;
+      try {
+        input = new FileInputStream(file);
+        entries.load(input);
+      } catch (IOException cause) {
+        LOG.warn("Cannot read test history, it will be discarded.", cause);
+        entries.clear();
+      } finally {
+        IOUtils.closeQuietly(input);
+      }
+    }
+  }
+
+  /** Returns the specified tests in the order they must run in a browser
+   * version. Tests with the same history keep their relative order.
+   *
+   * @param tests Tests to sort. Cannot be null.
+   * @param browserVersion Nickname of the browser version tests run in. Can
+   *    be null if it's unknown.
+   * @return A new list with the sorted tests, never returns null.
+   */
+  public List<URL> sort(final List<URL> tests, final String browserVersion) {
+    Validate.notNull(tests, "The tests cannot be null.");
+
+    // Takes a snapshot, since results may be recorded while sorting.
+    final Map<String, String> history = new HashMap<String, String>();
+    for (URL test : tests) {
+      history.put(test.toString(), entries.getProperty(getKey(test,
+          browserVersion)));
+    }
+
+    List<URL> sortedTests = new ArrayList<URL>(tests);
+    Collections.sort(sortedTests, new Comparator<URL>() {
+      @Override
+      public int compare(final URL test1, final URL test2) {
+        String entry1 = history.get(test1.toString());
+        String entry2 = history.get(test2.toString());
+        int rank = getRank(entry1) - getRank(entry2);
+        if (rank != 0) {
+          return rank;
+        }
+        long duration1 = getDuration(entry1);
+        long duration2 = getDuration(entry2);
+        if (duration1 > duration2) {
+          return -1;
+        }
+        if (duration1 < duration2) {
+          return 1;
+        }
+        return 0;
+      }
+    });
+    return sortedTests;
+  }
+
+  /** Records the result of a test execution. Skipped tests keep their
+   * previous history.
+   *
+   * @param result Result to record. Cannot be null.
+   */
+  public void record(final TestResult result) {
+    Validate.notNull(result, "The result cannot be null.");
+    if (result.getStatus() == TestResult.Status.SKIPPED) {
+      return;
+    }
+    entries.setProperty(getKey(result.getTest(), result.getBrowserVersion()),
+        result.getStatus().name() + ":" + result.getDuration());
+  }
+
+  /** Writes the history to its file. It writes a temporary file and renames
+   * it, so a partially written history is never read.
+   */
+  public synchronized void save() {
+    File tempFile = new File(file.getPath() + ".tmp");
+    OutputStream output = null;
+
+    try {
+      FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+      output = new FileOutputStream(tempFile);
+      entries.store(output, "htmlunit-maven-plugin test history");
+      output.close();
+      FileUtils.deleteQuietly(file);
+      if (!tempFile.renameTo(file)) {
+        throw new IOException("Cannot rename " + tempFile);
+      }
+    } catch (IOException cause) {
+      throw new RuntimeException("Cannot write test history.", cause);
+    } finally {
+      IOUtils.closeQuietly(output);
+      FileUtils.deleteQuietly(tempFile);
+    }
+  }
+
+  /** Returns the key of a test in a browser version.
+   *
+   * @param test Test to get the key for. Cannot be null.
+   * @param browserVersion Nickname of the browser version. Can be null.
+   * @return A valid key, never returns null.
+   */
+  private static String getKey(final URL test, final String browserVersion) {
+    if (browserVersion == null) {
+      return test.toString();
+    }
+    return browserVersion + " " + test;
+  }
+
+  /** Returns the rank of a test according to its last outcome.
+   *
+   * @param entry History entry of the test. Can be null.
+   * @return The rank of the test, lower ranks run first.
+   */
+  private static int getRank(final String entry) {
+    if (entry == null) {
+      return RANK_UNKNOWN;
+    }
+    if (entry.startsWith(TestResult.Status.FAILED.name() + ":")) {
+      return RANK_FAILED;
+    }
+    if (entry.startsWith(TestResult.Status.PASSED.name() + ":")) {
+      return RANK_PASSED;
+    }
+    return RANK_UNKNOWN;
+  }
+
+  /** Returns the duration of the last execution of a test.
+   *
+   * @param entry History entry of the test. Can be null.
+   * @return The duration in milliseconds, or zero if it's unknown.
+   */
+  private static long getDuration(final String entry) {
+    if (entry == null) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(entry.substring(entry.indexOf(':') + 1));
+    } catch (NumberFormatException cause) {
+      return 0;
+    }
+  }
+}
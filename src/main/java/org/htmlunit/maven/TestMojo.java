@@ -1,19 +1,36 @@
 package org.htmlunit.maven;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.net.URL;
-import java.net.URLStreamHandler;
-import java.net.URLStreamHandlerFactory;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
@@ -21,6 +38,7 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
 import org.htmlunit.maven.runner.JavaScriptTestRunner;
+import org.slf4j.LoggerFactory;
 
 import com.gargoylesoftware.htmlunit.BrowserVersion;
 
@@ -28,9 +46,27 @@ import com.gargoylesoftware.htmlunit.BrowserVersion;
  * executes the runner.
  */
 @Mojo(name = "run", defaultPhase = LifecyclePhase.TEST,
-  requiresDependencyResolution = ResolutionScope.TEST)
+  requiresDependencyResolution = ResolutionScope.TEST, threadSafe = true)
 public class TestMojo extends AbstractMojo {
 
+  /** Charset used to build the service key. */
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** Milliseconds per second. */
+  private static final int MILLIS_PER_SECOND = 1000;
+
+  /** Factor applied to the derived service timeout, to account for page
+   * loads and runner rendering that are not bounded by test timeouts. */
+  private static final int SERVICE_TIMEOUT_FACTOR = 2;
+
+  /** Name of the file the test execution service configuration is written
+   * to, in the build directory. */
+  private static final String SERVICE_CONFIGURATION =
+      "htmlunit-service.properties";
+
+  /** Name of the test execution service log file, in the build directory. */
+  private static final String SERVICE_LOG = "htmlunit-service.log";
+
   /** Maven's artifact resolver. */
   @Component
   private ArtifactResolver artifactResolver;
@@ -95,11 +131,27 @@ public class TestMojo extends AbstractMojo {
   @Parameter(defaultValue = "FIREFOX_17")
   private String browserVersion;
 
+  /** Browser and version profiles to run tests in. Each test runs once in
+   * each profile, and profiles run concurrently. If it's set,
+   * <code>browserVersion</code> is ignored.
+   */
+  @Parameter
+  private List<String> browserVersions;
+
   /** Web client page load timeout, in seconds.
    */
   @Parameter(defaultValue = "30")
   private int timeout;
 
+  /** Maximum time to wait for the test execution service to run all tests,
+   * in seconds, when tests run in the service. By default it's derived from
+   * the time a single test can take (<code>timeout</code> and the
+   * <code>testTimeout</code> runner attribute) and the number of tests. If
+   * no test timeout is set, it waits forever.
+   */
+  @Parameter(property = "htmlunit.serviceTimeout")
+  private int serviceTimeout;
+
   /** Indicates whether to skip tests or not. Runners won't be processed
    * if tests are skipped.
    *
@@ -114,6 +166,33 @@ public class TestMojo extends AbstractMojo {
   @Parameter(property = "maven.surefire.debug")
   private boolean debugMode;
 
+  /** Enables the test execution service. It starts a server that runs tests
+   * on request, so tests can be executed many times without starting maven.
+   */
+  @Parameter(property = "htmlunit.service")
+  private boolean serviceMode;
+
+  /** Runs tests in the test execution service if it's running, instead of
+   * running them in this JVM. The service is used only if it was started
+   * with the same configuration and dependencies. If there's no service
+   * running, or if it was started for a different configuration, a new
+   * service is started in a background JVM for the next builds, and tests
+   * run in this JVM.
+   */
+  @Parameter(property = "htmlunit.daemon")
+  private boolean daemon;
+
+  /** Shares class loaders, resources extracted from JAR files and classpath
+   * indexes with other executions in the same build, like executions in
+   * other modules of a multi-module build.
+   */
+  @Parameter(property = "htmlunit.shareSession")
+  private boolean shareSession;
+
+  /** Current build session. */
+  @Parameter(defaultValue = "${session}", readonly = true)
+  private MavenSession session;
+
   /** List of properties to register in {@link System#getProperties()}.
    */
   @SuppressWarnings("rawtypes")
@@ -133,9 +212,44 @@ public class TestMojo extends AbstractMojo {
 
     registerSystemProperties();
 
-    WebDriverRunner runner = createRunner();
+    ClassLoader contextClassLoader = Thread.currentThread()
+        .getContextClassLoader();
+    ClassLoader classLoader = createDependenciesClassLoader();
+    DelegatingURLStreamHandlerFactory.getInstance().register(classLoader);
+    Thread.currentThread().setContextClassLoader(classLoader);
+
+    try {
+      // Test files are expanded with the dependencies class loader, like
+      // runners do.
+      if (daemon && !debugMode && !serviceMode
+          && runInService(classLoader)) {
+        return;
+      }
+      runTests(createRunner(runnerClassName, classLoader));
+    } finally {
+      DelegatingURLStreamHandlerFactory.getInstance().unregister(classLoader);
+      Thread.currentThread().setContextClassLoader(contextClassLoader);
+    }
+  }
+
+  /** Configures and executes the specified runner.
+   *
+   * @param runner Runner to execute. Cannot be null.
+   * @throws MojoExecutionException On plugin internal error.
+   * @throws MojoFailureException On plugin failure.
+   */
+  private void runTests(final WebDriverRunner runner)
+      throws MojoExecutionException, MojoFailureException {
     RunnerContext context = new RunnerContext();
-    context.setBrowserVersion(getBrowserVersion());
+    if (browserVersions == null || browserVersions.isEmpty()) {
+      context.setBrowserVersion(getBrowserVersion(browserVersion));
+    } else {
+      List<BrowserVersion> versions = new ArrayList<BrowserVersion>();
+      for (String version : browserVersions) {
+        versions.add(getBrowserVersion(version));
+      }
+      context.setBrowserVersions(versions);
+    }
 
     if (runnerConfiguration != null) {
       Properties runnerProperties = new Properties();
@@ -152,6 +266,11 @@ public class TestMojo extends AbstractMojo {
     context.setTimeout(timeout);
     context.setLog(getLog());
     context.setDebugMode(debugMode);
+    context.setServiceMode(serviceMode);
+    context.setSession(getRunnerSession());
+    if (serviceMode) {
+      context.setServiceKey(getServiceKey());
+    }
 
     try {
       getLog().info("Initializing " + runner.getName());
@@ -175,21 +294,361 @@ public class TestMojo extends AbstractMojo {
   }
 
 
+  /** Runs tests in the test execution service, if there's a service running
+   * for the current configuration and dependencies. If there's no service
+   * running, or if it was started for a different configuration, it starts
+   * a new service for the next builds. It never fails because of the
+   * service.
+   *
+   * @param classLoader Class loader with the dependencies tests run with.
+   *    Cannot be null.
+   * @return Returns true if tests ran in the service, false if tests must
+   *    run in this JVM.
+   * @throws MojoFailureException If any test failed.
+   */
+  private boolean runInService(final ClassLoader classLoader)
+      throws MojoFailureException {
+    String serviceKey = getServiceKey();
+    ServiceClient client = new ServiceClient("localhost", getDebugPort());
+    client.setReadTimeout(getServiceTimeout());
+    List<TestResult> results = client.run(serviceKey);
+
+    switch (client.getOutcome()) {
+    case COMPLETED:
+      break;
+    case NOT_RUNNING:
+      startService(serviceKey, classLoader);
+      break;
+    case CONFLICT:
+      getLog().info("The test execution service was started for a different"
+          + " configuration, replacing it.");
+      if (client.stop()) {
+        startService(serviceKey, classLoader);
+      } else {
+        getLog().warn("Cannot stop the test execution service.");
+      }
+      break;
+    case BUSY:
+      getLog().info("The test execution service is running other tests.");
+      break;
+    default:
+      getLog().warn("The test execution service failed: "
+          + client.getFailure());
+      break;
+    }
+    if (results == null) {
+      getLog().info("Running tests in this JVM.");
+      return false;
+    }
+
+    int failures = 0;
+    int skipped = 0;
+    for (TestResult result : results) {
+      if (result.getStatus() == TestResult.Status.SKIPPED) {
+        skipped += 1;
+      }
+      if (result.isFailed()) {
+        failures += 1;
+        String test = result.getTest().toString();
+        if (result.getBrowserVersion() != null) {
+          test += " [" + result.getBrowserVersion() + "]";
+        }
+        getLog().error(test + ": " + result.getFailure());
+      }
+    }
+    getLog().info("Tests run: " + results.size() + ", Failures: " + failures
+        + ", Skipped: " + skipped);
+    if (failures > 0) {
+      throw new MojoFailureException("There are test failures.");
+    }
+    return true;
+  }
+
+  /** Starts the test execution service in a background JVM, so next builds
+   * run tests in the service. The service writes its output to
+   * <code>htmlunit-service.log</code> in the build directory. It never fails:
+   * if the service cannot be started, next builds will try again.
+   *
+   * @param serviceKey Key of the current configuration and dependencies.
+   *    Cannot be null.
+   * @param classLoader Class loader with the dependencies tests run with.
+   *    Cannot be null.
+   */
+  private void startService(final String serviceKey,
+      final ClassLoader classLoader) {
+    File directory = new File(project.getBuild().getDirectory());
+    File configuration = new File(directory, SERVICE_CONFIGURATION);
+    File log = new File(directory, SERVICE_LOG);
+    try {
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("Cannot create directory " + directory);
+      }
+      OutputStream output = new FileOutputStream(configuration);
+      try {
+        getServiceConfiguration(serviceKey).store(output,
+            "Test execution service");
+      } finally {
+        IOUtils.closeQuietly(output);
+      }
+
+      String java = new File(new File(System.getProperty("java.home"), "bin"),
+          "java").getAbsolutePath();
+      ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+          getServiceClassPath(classLoader), ServiceLauncher.class.getName(),
+          configuration.getAbsolutePath(), log.getAbsolutePath());
+      builder.directory(project.getBasedir());
+      builder.redirectErrorStream(true);
+      Process process = builder.start();
+      // The service writes its output to the log file.
+      IOUtils.closeQuietly(process.getOutputStream());
+      IOUtils.closeQuietly(process.getInputStream());
+      getLog().info("Starting the test execution service, see " + log);
+    } catch (IOException cause) {
+      getLog().warn("Cannot start the test execution service.", cause);
+    } catch (RuntimeException cause) {
+      getLog().warn("Cannot start the test execution service.", cause);
+    }
+  }
+
+  /** Returns the configuration the test execution service is started with.
+   * It's read by {@link ServiceLauncher}.
+   *
+   * @param serviceKey Key of the current configuration and dependencies.
+   *    Cannot be null.
+   * @return A valid configuration, never returns null.
+   */
+  private Properties getServiceConfiguration(final String serviceKey) {
+    Properties configuration = new Properties();
+    configuration.setProperty(ServiceLauncher.SERVICE_KEY, serviceKey);
+    if (runnerClassName != null) {
+      configuration.setProperty(ServiceLauncher.RUNNER_CLASS,
+          runnerClassName);
+    }
+    if (browserVersions == null || browserVersions.isEmpty()) {
+      configuration.setProperty(ServiceLauncher.BROWSER_VERSIONS,
+          browserVersion);
+    } else {
+      configuration.setProperty(ServiceLauncher.BROWSER_VERSIONS,
+          StringUtils.join(browserVersions, ","));
+    }
+    configuration.setProperty(ServiceLauncher.TIMEOUT,
+        String.valueOf(timeout));
+    putAll(configuration, ServiceLauncher.RUNNER_PREFIX,
+        runnerConfiguration);
+    putAll(configuration, ServiceLauncher.WEB_CLIENT_PREFIX,
+        webClientConfiguration);
+    putAll(configuration, ServiceLauncher.SYSTEM_PREFIX, systemProperties);
+    return configuration;
+  }
+
+  /** Adds entries to a configuration, prefixing their names.
+   *
+   * @param configuration Configuration to add entries to. Cannot be null.
+   * @param prefix Prefix of the entry names. Cannot be null.
+   * @param entries Entries to add. Can be null.
+   */
+  private static void putAll(final Properties configuration,
+      final String prefix, final Map<?, ?> entries) {
+    if (entries == null) {
+      return;
+    }
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      if (entry.getValue() != null) {
+        configuration.setProperty(prefix + entry.getKey(),
+            String.valueOf(entry.getValue()));
+      }
+    }
+  }
+
+  /** Returns the class path of the test execution service JVM. It contains
+   * the dependencies tests run with, the plugin and the Maven APIs the
+   * plugin uses.
+   *
+   * @param classLoader Class loader with the dependencies tests run with.
+   *    Cannot be null.
+   * @return A valid class path, never returns null.
+   */
+  private static String getServiceClassPath(final ClassLoader classLoader) {
+    Set<String> entries = new LinkedHashSet<String>();
+    ClassLoader loader = classLoader;
+    while (loader != null) {
+      if (loader instanceof URLClassLoader) {
+        for (URL url : ((URLClassLoader) loader).getURLs()) {
+          File file = ResourceUtils.getFile(url);
+          if (file != null) {
+            entries.add(file.getAbsolutePath());
+          }
+        }
+      }
+      loader = loader.getParent();
+    }
+    // Maven APIs are imported by the plugin class loader.
+    Class<?>[] apis = new Class<?>[] {TestMojo.class, Log.class,
+        LoggerFactory.class };
+    for (Class<?> api : apis) {
+      CodeSource source = api.getProtectionDomain().getCodeSource();
+      if (source != null && source.getLocation() != null) {
+        File file = ResourceUtils.getFile(source.getLocation());
+        if (file != null) {
+          entries.add(file.getAbsolutePath());
+        }
+      }
+    }
+    return StringUtils.join(entries, File.pathSeparator);
+  }
+
+  /** Returns the time to wait for the test execution service to run all
+   * tests. If <code>serviceTimeout</code> isn't set, it's the time a single
+   * test can take multiplied by the number of test runs. It never fails: if
+   * the timeout cannot be calculated, it waits forever.
+   *
+   * @return The timeout in milliseconds, or zero to wait forever.
+   */
+  private int getServiceTimeout() {
+    if (serviceTimeout > 0) {
+      return serviceTimeout * MILLIS_PER_SECOND;
+    }
+    long testLimit = 0;
+    if (timeout > -1) {
+      testLimit = (long) timeout * MILLIS_PER_SECOND;
+    }
+    String testTimeout = null;
+    if (runnerConfiguration != null) {
+      testTimeout = runnerConfiguration.get("testTimeout");
+    }
+    if (!StringUtils.isBlank(testTimeout)) {
+      try {
+        long value = Long.parseLong(testTimeout.trim());
+        if (value > 0 && (testLimit == 0 || value < testLimit)) {
+          testLimit = value;
+        }
+      } catch (NumberFormatException cause) {
+        getLog().debug("Invalid test timeout: " + testTimeout, cause);
+      }
+    }
+    int tests = countTests();
+    if (testLimit == 0 || tests == 0) {
+      return 0;
+    }
+    if (browserVersions != null && !browserVersions.isEmpty()) {
+      tests *= browserVersions.size();
+    }
+    return (int) Math.min(Integer.MAX_VALUE, testLimit * tests
+        * SERVICE_TIMEOUT_FACTOR);
+  }
+
+  /** Counts the tests to run. Test files are expanded like the runner
+   * context does, splitting expressions by semicolon, with the current
+   * context class loader.
+   *
+   * @return The number of tests, or zero if they cannot be counted.
+   */
+  private int countTests() {
+    String testFiles = null;
+    if (runnerConfiguration != null) {
+      testFiles = runnerConfiguration.get("testFiles");
+    }
+    if (StringUtils.isBlank(testFiles)) {
+      return 0;
+    }
+    try {
+      return ResourceUtils.expand(Arrays.asList(testFiles.split(";")))
+          .size();
+    } catch (RuntimeException cause) {
+      getLog().warn("Cannot count tests, waiting for the test execution"
+          + " service without timeout: " + cause.getMessage());
+      return 0;
+    }
+  }
+
+  /** Returns the port the test execution service listens to. It's the
+   * runner's debug port.
+   *
+   * @return A valid port.
+   */
+  private int getDebugPort() {
+    if (runnerConfiguration != null
+        && !StringUtils.isBlank(runnerConfiguration.get("debugPort"))) {
+      return Integer.parseInt(runnerConfiguration.get("debugPort").trim());
+    }
+    return RunnerContext.DEFAULT_DEBUG_PORT;
+  }
+
+  /** Returns a key that identifies the configuration and the dependencies
+   * tests run with. The test execution service rejects clients with a
+   * different key.
+   *
+   * @return A valid key, never returns null.
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private String getServiceKey() {
+    StringBuilder key = new StringBuilder()
+      .append(runnerClassName).append("\n")
+      .append(browserVersion).append(":").append(browserVersions)
+      .append(":").append(timeout).append("\n")
+      .append(new TreeMap(runnerConfiguration)).append("\n")
+      .append(new TreeMap(systemProperties)).append("\n");
+    if (webClientConfiguration != null) {
+      key.append(new TreeMap(webClientConfiguration));
+    }
+    key.append("\n").append(getDependenciesKey());
+    return ResourceUtils.hash(key.toString().getBytes(UTF_8));
+  }
+
+  /** Returns a key that identifies the dependencies included in the class
+   * loader.
+   *
+   * @return A valid key, never returns null.
+   */
+  private String getDependenciesKey() {
+    StringBuilder key = new StringBuilder()
+      .append(dependenciesClassLoader).append(":")
+      .append(testDependenciesClassLoader);
+
+    List<String> artifacts = new ArrayList<String>();
+    for (Object dependency : project.getArtifacts()) {
+      Artifact artifact = (Artifact) dependency;
+      File file = artifact.getFile();
+      String id = artifact.getId() + ":" + file;
+      if (file != null) {
+        id += ":" + file.lastModified();
+      }
+      artifacts.add(id);
+    }
+    Collections.sort(artifacts);
+    for (String artifact : artifacts) {
+      key.append("\n").append(artifact);
+    }
+    return key.toString();
+  }
+
+  /** Returns the resources shared by executions in the current build session.
+   *
+   * @return The shared resources, or null if they're not shared.
+   */
+  private RunnerSession getRunnerSession() {
+    if (!shareSession || session == null) {
+      return null;
+    }
+    return RunnerSession.get(session);
+  }
+
   /** Creates the web driver to load pages. It uses the factory class if
    * it was specified, or creates the default web driver otherwise.
    *
+   * @param className Name of the runner class. Can be null.
+   * @param classLoader Class loader to load the runner class. Cannot be
+   *    null.
    * @return a valid web driver, never returns null.
    */
   @SuppressWarnings("unchecked")
-  private WebDriverRunner createRunner() {
-    ClassLoader classLoader = createDependenciesClassLoader();
-    Thread.currentThread().setContextClassLoader(classLoader);
-
-    if (runnerClassName != null) {
+  static WebDriverRunner createRunner(final String className,
+      final ClassLoader classLoader) {
+    if (className != null) {
       try {
         Class<? extends WebDriverRunner> klass;
         klass = (Class<? extends WebDriverRunner>) classLoader
-            .loadClass(runnerClassName);
+            .loadClass(className);
         Constructor<? extends WebDriverRunner> ctor = klass.getConstructor();
         return ctor.newInstance();
       } catch (Exception cause) {
@@ -202,12 +661,25 @@ public class TestMojo extends AbstractMojo {
   }
 
   /** Creates a {@link ClassLoader} which contains all the project's
-   * dependencies.
+   * dependencies. If resources are shared in the build session, the class
+   * loader is reused by executions with the same dependencies.
    *
    * @return Returns the created {@link ClassLoader} containing all the
    *    project's dependencies.
    */
   private ClassLoader createDependenciesClassLoader() {
+    RunnerSession runnerSession = getRunnerSession();
+    String dependenciesKey = null;
+
+    if (runnerSession != null) {
+      dependenciesKey = getDependenciesKey();
+      ClassLoader sharedClassLoader = runnerSession
+          .getClassLoader(dependenciesKey);
+      if (sharedClassLoader != null) {
+        return sharedClassLoader;
+      }
+    }
+
     ClassLoaderBuilder builder = new ClassLoaderBuilder(artifactResolver,
         metadataSource, localRepository, project);
     ClassLoader classLoader = builder
@@ -215,45 +687,21 @@ public class TestMojo extends AbstractMojo {
         .includeTestDependencies(testDependenciesClassLoader)
         .setParent(Thread.currentThread().getContextClassLoader())
         .create();
-    registerContextUrlStreamHandlerFactory(classLoader);
-
+    if (runnerSession != null) {
+      runnerSession.addClassLoader(dependenciesKey, classLoader);
+    }
     return classLoader;
   }
 
-  /** Registers a url handler factory to resolve stream handlers loaded
-   * by the specified class loader.
-   *
-   * @param classLoader Class loader that loaded stream handlers. Cannot be
-   *    null.
-   */
-  private void registerContextUrlStreamHandlerFactory(
-      final ClassLoader classLoader) {
-    URL.setURLStreamHandlerFactory(new URLStreamHandlerFactory() {
-      @Override
-      @SuppressWarnings("unchecked")
-      public URLStreamHandler createURLStreamHandler(final String protocol) {
-        try {
-          Class<? extends URLStreamHandler> handlerClass;
-          handlerClass = (Class<? extends URLStreamHandler>) classLoader
-              .loadClass("sun.net.www.protocol." + protocol + ".Handler");
-          Constructor<? extends URLStreamHandler> ctor;
-          ctor = handlerClass.getConstructor();
-          return ctor.newInstance();
-        } catch (Exception cause) {
-          throw new RuntimeException("Cannot resolve stream handler.", cause);
-        }
-      }
-    });
-  }
-
   /** Determines the htmlunit browser version to use.
+   * @param name Name of the browser version constant. Cannot be null.
    * @return A valid browser version, never returns null.
    */
-  private BrowserVersion getBrowserVersion() {
+  static BrowserVersion getBrowserVersion(final String name) {
     BrowserVersion driverBrowserVersion;
     try {
       driverBrowserVersion = (BrowserVersion) BrowserVersion.class
-          .getField(browserVersion.toUpperCase()).get(BrowserVersion.class);
+          .getField(name.trim().toUpperCase()).get(BrowserVersion.class);
     } catch (Exception cause) {
       throw new RuntimeException(cause);
     }
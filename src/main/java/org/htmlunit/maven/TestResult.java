@@ -0,0 +1,240 @@
+package org.htmlunit.maven;
+
+import java.net.URL;
+import java.util.Locale;
+
+import org.apache.commons.lang.Validate;
+
+/** Result of a single test execution.
+ *
+ * <p>
+ * A test fails if the runner throws an exception while it's running, either
+ * because of a script error, a timeout or a failed validation in
+ * {@link AbstractRunner#testFinished}. A test is skipped if it didn't run,
+ * or if it was cancelled while running, because the execution stopped.
+ * </p>
+ */
+public class TestResult {
+
+  /** Outcome of a test. */
+  public enum Status {
+    /** The test ran without errors. */
+    PASSED,
+
+    /** The test ran and it failed. */
+    FAILED,
+
+    /** The test didn't run because the execution stopped. */
+    SKIPPED
+  }
+
+  /** Hexadecimal radix used to escape JSON characters. */
+  private static final int HEX = 16;
+
+  /** Number of hexadecimal digits in a JSON unicode escape. */
+  private static final int UNICODE_DIGITS = 4;
+
+  /** First printable character. */
+  private static final char FIRST_PRINTABLE = 0x20;
+
+  /** Test that was executed; it's never null. */
+  private final URL test;
+
+  /** Nickname of the browser version the test ran in; it's null if it's
+   * unknown. */
+  private final String browserVersion;
+
+  /** Execution time, in milliseconds. */
+  private final long duration;
+
+  /** Error that caused the test to fail; it's null if the test didn't
+   * fail. */
+  private final Throwable failure;
+
+  /** True if the test didn't run because the execution stopped. */
+  private final boolean skipped;
+
+  /** Creates a new test result.
+   *
+   * @param theTest Test that was executed. Cannot be null.
+   * @param theDuration Execution time, in milliseconds.
+   * @param theFailure Error that caused the test to fail. Can be null if the
+   *    test passed.
+   */
+  public TestResult(final URL theTest, final long theDuration,
+      final Throwable theFailure) {
+    this(theTest, null, theDuration, theFailure);
+  }
+
+  /** Creates a new result of a test executed in a browser version.
+   *
+   * @param theTest Test that was executed. Cannot be null.
+   * @param theBrowserVersion Nickname of the browser version the test ran
+   *    in. Can be null if it's unknown.
+   * @param theDuration Execution time, in milliseconds.
+   * @param theFailure Error that caused the test to fail. Can be null if the
+   *    test passed.
+   */
+  public TestResult(final URL theTest, final String theBrowserVersion,
+      final long theDuration, final Throwable theFailure) {
+    this(theTest, theBrowserVersion, theDuration, theFailure, false);
+  }
+
+  /** Creates a new result.
+   *
+   * @param theTest Test that was executed. Cannot be null.
+   * @param theBrowserVersion Nickname of the browser version the test ran
+   *    in. Can be null if it's unknown.
+   * @param theDuration Execution time, in milliseconds.
+   * @param theFailure Error that caused the test to fail. Can be null if the
+   *    test didn't fail.
+   * @param isSkipped True if the test didn't run.
+   */
+  private TestResult(final URL theTest, final String theBrowserVersion,
+      final long theDuration, final Throwable theFailure,
+      final boolean isSkipped) {
+    Validate.notNull(theTest, "The test cannot be null.");
+    test = theTest;
+    browserVersion = theBrowserVersion;
+    duration = theDuration;
+    failure = theFailure;
+    skipped = isSkipped;
+  }
+
+  /** Creates the result of a test that didn't run, or that was cancelled
+   * while running, because the execution stopped.
+   *
+   * @param theTest Test that was skipped. Cannot be null.
+   * @param theBrowserVersion Nickname of the browser version the test was
+   *    scheduled in. Can be null if it's unknown.
+   * @param theDuration Time spent on the test before it was skipped, in
+   *    milliseconds.
+   * @return A valid result, never returns null.
+   */
+  public static TestResult skipped(final URL theTest,
+      final String theBrowserVersion, final long theDuration) {
+    return new TestResult(theTest, theBrowserVersion, theDuration, null,
+        true);
+  }
+
+  /** Returns the test that was executed.
+   * @return A valid url, never returns null.
+   */
+  public URL getTest() {
+    return test;
+  }
+
+  /** Returns the browser version the test ran in.
+   * @return The browser version nickname, or null if it's unknown.
+   */
+  public String getBrowserVersion() {
+    return browserVersion;
+  }
+
+  /** Returns the test execution time.
+   * @return The execution time, in milliseconds.
+   */
+  public long getDuration() {
+    return duration;
+  }
+
+  /** Returns the error that caused the test to fail.
+   * @return The failure, or null if the test passed or it was skipped.
+   */
+  public Throwable getFailure() {
+    return failure;
+  }
+
+  /** Returns the test outcome.
+   * @return A valid status, never returns null.
+   */
+  public Status getStatus() {
+    if (skipped) {
+      return Status.SKIPPED;
+    }
+    if (failure == null) {
+      return Status.PASSED;
+    }
+    return Status.FAILED;
+  }
+
+  /** Determines whether the test passed or not.
+   * @return Returns true if the test passed, false otherwise.
+   */
+  public boolean isPassed() {
+    return getStatus() == Status.PASSED;
+  }
+
+  /** Determines whether the test failed or not. Skipped tests didn't fail.
+   * @return Returns true if the test failed, false otherwise.
+   */
+  public boolean isFailed() {
+    return getStatus() == Status.FAILED;
+  }
+
+  /** Writes this result as a JSON object with the <code>test</code>,
+   * <code>status</code>, <code>duration</code> and <code>message</code>
+   * fields. The message is null if the test didn't fail. If the browser version
+   * is known, it's written in the <code>browser</code> field after the test.
+   *
+   * @return A valid JSON object, never returns null.
+   */
+  public String toJson() {
+    StringBuilder json = new StringBuilder()
+      .append("{\"test\":").append(quote(test.toString()));
+    if (browserVersion != null) {
+      json.append(",\"browser\":").append(quote(browserVersion));
+    }
+    json.append(",\"status\":")
+      .append(quote(getStatus().name().toLowerCase(Locale.ENGLISH)))
+      .append(",\"duration\":").append(duration)
+      .append(",\"message\":");
+    if (failure == null) {
+      json.append("null");
+    } else {
+      json.append(quote(String.valueOf(failure)));
+    }
+    return json.append("}").toString();
+  }
+
+  /** Writes the specified value as a JSON string.
+   *
+   * @param value Value to write. Cannot be null.
+   * @return A valid JSON string, never returns null.
+   */
+  static String quote(final String value) {
+    StringBuilder json = new StringBuilder("\"");
+
+    for (char character : value.toCharArray()) {
+      switch (character) {
+      case '"':
+        json.append("\\\"");
+        break;
+      case '\\':
+        json.append("\\\\");
+        break;
+      case '\n':
+        json.append("\\n");
+        break;
+      case '\r':
+        json.append("\\r");
+        break;
+      case '\t':
+        json.append("\\t");
+        break;
+      default:
+        if (character < FIRST_PRINTABLE) {
+          String code = Integer.toString(character, HEX);
+          json.append("\\u");
+          for (int i = code.length(); i < UNICODE_DIGITS; i++) {
+            json.append('0');
+          }
+          json.append(code);
+        } else {
+          json.append(character);
+        }
+      }
+    }
+    return json.append("\"").toString();
+  }
+}
@@ -34,6 +34,9 @@ public class WebClientWait extends FluentWait<WebClient> {
   /** Keeps the exception thrown in JavaScript. */
   private Exception exception;
 
+  /** Error that aborted this wait; it's null if the wait wasn't aborted. */
+  private volatile RuntimeException abortCause;
+
   /** Indicates whether JavaScript exceptions will be thrown. If it's
    * false, exceptions will be saved but not thrown. */
   private boolean throwJavaScriptException;
@@ -56,6 +59,9 @@ public class WebClientWait extends FluentWait<WebClient> {
   public void start() {
     until(new Predicate<WebClient>() {
       public boolean apply(final WebClient input) {
+        if (abortCause != null) {
+          throw abortCause;
+        }
         if (getException() != null && throwJavaScriptException) {
           throw new RuntimeException("JavaScript exception", getException());
         }
@@ -92,11 +98,21 @@ public class WebClientWait extends FluentWait<WebClient> {
     return this;
   }
 
+  /** Aborts this wait. The waiting thread stops and throws the specified
+   * error, even if windows are still open. It can be invoked from any thread.
+   *
+   * @param cause Error to throw in the waiting thread. Cannot be null.
+   */
+  public void abort(final RuntimeException cause) {
+    Validate.notNull(cause, "The cause cannot be null.");
+    abortCause = cause;
+  }
+
   /** Indicates whether this wait finished or not.
    * @return True if finished, false otherwise.
    */
   boolean isDone() {
-    return windows.size() == 0 || exception != null;
+    return windows.size() == 0 || exception != null || abortCause != null;
   }
 
   /** Initializes the web client to wait for, registering opened windows and
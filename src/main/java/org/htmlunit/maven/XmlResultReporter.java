@@ -0,0 +1,179 @@
+package org.htmlunit.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.Validate;
+import org.apache.commons.lang.exception.ExceptionUtils;
+
+/** Writes results as surefire XML reports, so they can be read by the tools
+ * that read surefire reports.
+ *
+ * <p>
+ * Each test is reported as a test suite with a single test case, and it's
+ * written to its own <code>TEST-[name]-[key].xml</code> file as soon as the
+ * test finishes. The test case is named after the browser version. Failed
+ * validations are reported as failures, and any other error is reported as
+ * an error. Tests that didn't run because the execution stopped are reported
+ * as skipped.
+ * </p>
+ */
+public class XmlResultReporter implements ResultReporter {
+
+  /** Charset of the reports. */
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** Number of characters of the test key used in report names. */
+  private static final int KEY_LENGTH = 12;
+
+  /** Milliseconds per second, to write durations in seconds. */
+  private static final double MILLIS_PER_SECOND = 1000.0;
+
+  /** First printable character. */
+  private static final char FIRST_PRINTABLE = 0x20;
+
+  /** Directory to write reports into; it's never null. */
+  private final File directory;
+
+  /** Creates a reporter that writes reports into the specified directory.
+   * @param theDirectory Directory to write reports into. Cannot be null.
+   */
+  public XmlResultReporter(final File theDirectory) {
+    Validate.notNull(theDirectory, "The directory cannot be null.");
+    directory = theDirectory;
+  }
+
+  /** {@inheritDoc}
+   */
+  @Override
+  public void open() {
+    try {
+      FileUtils.forceMkdir(directory);
+    } catch (IOException cause) {
+      throw new RuntimeException("Cannot create reports directory "
+          + directory, cause);
+    }
+  }
+
+  /** Writes the report of a single test. The report is written to a
+   * temporary file with a unique name and renamed, so partially written
+   * reports are never read, even if the same test is reported concurrently.
+   * {@inheritDoc}
+   */
+  @Override
+  public void report(final TestResult result) {
+    Validate.notNull(result, "The result cannot be null.");
+
+    String name = FilenameUtils.getBaseName(result.getTest().getFile());
+    String key = ResourceUtils.hash((result.getTest() + " "
+        + result.getBrowserVersion()).getBytes(UTF_8));
+    File report = new File(directory, "TEST-" + name + "-"
+        + key.substring(0, KEY_LENGTH) + ".xml");
+    File tempFile = null;
+
+    try {
+      tempFile = File.createTempFile(report.getName(), ".tmp", directory);
+      FileUtils.writeStringToFile(tempFile, toXml(name, result), "UTF-8");
+      FileUtils.deleteQuietly(report);
+      if (!tempFile.renameTo(report)) {
+        throw new IOException("Cannot rename " + tempFile);
+      }
+    } catch (IOException cause) {
+      FileUtils.deleteQuietly(tempFile);
+      throw new RuntimeException("Cannot write report " + report, cause);
+    }
+  }
+
+  /** {@inheritDoc}
+   */
+  @Override
+  public void close() {
+  }
+
+  /** Writes a result as a surefire test suite.
+   *
+   * @param name Test suite name. Cannot be null.
+   * @param result Result to write. Cannot be null.
+   * @return A valid XML document, never returns null.
+   */
+  static String toXml(final String name, final TestResult result) {
+    Throwable failure = result.getFailure();
+    String testCase = result.getBrowserVersion();
+    if (testCase == null) {
+      testCase = name;
+    }
+    String type = null;
+    int failures = 0;
+    int errors = 0;
+    int skipped = 0;
+    if (result.getStatus() == TestResult.Status.SKIPPED) {
+      skipped = 1;
+    } else if (failure instanceof AssertionError) {
+      type = "failure";
+      failures = 1;
+    } else if (failure != null) {
+      type = "error";
+      errors = 1;
+    }
+    String time = String.format(Locale.ENGLISH, "%.3f",
+        result.getDuration() / MILLIS_PER_SECOND);
+
+    StringBuilder xml = new StringBuilder()
+      .append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+      .append("<testsuite name=\"").append(escape(name))
+      .append("\" tests=\"1\" failures=\"").append(failures)
+      .append("\" errors=\"").append(errors)
+      .append("\" skipped=\"").append(skipped)
+      .append("\" time=\"").append(time).append("\">\n")
+      .append("  <properties>\n")
+      .append("    <property name=\"test\" value=\"")
+      .append(escape(result.getTest().toString())).append("\"/>\n");
+    if (result.getBrowserVersion() != null) {
+      xml.append("    <property name=\"browserVersion\" value=\"")
+        .append(escape(result.getBrowserVersion())).append("\"/>\n");
+    }
+    xml.append("  </properties>\n")
+      .append("  <testcase name=\"").append(escape(testCase))
+      .append("\" classname=\"").append(escape(name))
+      .append("\" time=\"").append(time).append("\"");
+    if (skipped > 0) {
+      xml.append(">\n")
+        .append("    <skipped/>\n")
+        .append("  </testcase>\n");
+    } else if (failure == null) {
+      xml.append("/>\n");
+    } else {
+      xml.append(">\n")
+        .append("    <").append(type).append(" message=\"")
+        .append(escape(String.valueOf(failure.getMessage())))
+        .append("\" type=\"").append(failure.getClass().getName())
+        .append("\">").append(escape(ExceptionUtils
+            .getFullStackTrace(failure)))
+        .append("</").append(type).append(">\n")
+        .append("  </testcase>\n");
+    }
+    return xml.append("</testsuite>\n").toString();
+  }
+
+  /** Escapes a value to write it as XML text or attribute. Characters not
+   * allowed in XML are discarded.
+   *
+   * @param value Value to escape. Cannot be null.
+   * @return The escaped value, never returns null.
+   */
+  private static String escape(final String value) {
+    StringBuilder validValue = new StringBuilder();
+    for (char character : value.toCharArray()) {
+      if (character >= FIRST_PRINTABLE || character == '\t'
+          || character == '\n' || character == '\r') {
+        validValue.append(character);
+      }
+    }
+    return StringEscapeUtils.escapeXml(validValue.toString());
+  }
+}
@@ -0,0 +1,91 @@
+/** Reports Jasmine specs to the test runner through the htmlunitReportSpec
+ * function. It must be loaded after Jasmine. It does nothing if the function
+ * isn't available, for instance in debug mode.
+ *
+ * If the test is split into shards, it runs only the specs of the current
+ * shard. It enumerates the specs of the describe/it tree that pass the spec
+ * filter and splits them into contiguous slices of the same size, so all
+ * shards of a test run disjoint sets of specs.
+ */
+(function () {
+  var started = {};
+
+  if (typeof htmlunitReportSpec === "undefined"
+      || typeof jasmine === "undefined") {
+    return;
+  }
+
+  /** Returns the failure messages of a spec, or null if it passed.
+   */
+  var getMessage = function (results) {
+    var items = results.getItems();
+    var messages = [];
+    var i;
+    for (i = 0; i < items.length; i++) {
+      if (items[i].passed && !items[i].passed()) {
+        messages.push(items[i].message || String(items[i]));
+      }
+    }
+    return messages.length > 0 ? messages.join("\n") : null;
+  };
+
+  /** Restricts the spec filter to the specs of the current shard. It
+   * applies the filter set when the runner starts, so filters set by the page
+   * are still applied, and shards are balanced by the specs that actually
+   * run. Specs added after the runner started are assigned by their id.
+   */
+  var filterShard = function () {
+    var env = jasmine.getEnv();
+    var specFilter = env.specFilter;
+    var specs;
+    var selected = [];
+    var shards = {};
+    var i;
+
+    if (typeof htmlunitSpecShards === "undefined"
+        || htmlunitSpecShards < 2) {
+      return;
+    }
+    specs = env.currentRunner().specs();
+    for (i = 0; i < specs.length; i++) {
+      if (specFilter.call(env, specs[i])) {
+        selected.push(specs[i]);
+      }
+    }
+    for (i = 0; i < selected.length; i++) {
+      shards[selected[i].id] = Math.floor(i * htmlunitSpecShards
+        / selected.length);
+    }
+    env.specFilter = function (spec) {
+      if (shards.hasOwnProperty(spec.id)) {
+        return shards[spec.id] === htmlunitSpecShard;
+      }
+      return spec.id % htmlunitSpecShards === htmlunitSpecShard
+        && specFilter.call(env, spec);
+    };
+  };
+
+  jasmine.getEnv().addReporter({
+    reportRunnerStarting: function () {
+      filterShard();
+    },
+    reportSpecStarting: function (spec) {
+      started[spec.id] = new Date().getTime();
+    },
+    reportSpecResults: function (spec) {
+      var results = spec.results();
+      if (results.skipped) {
+        return;
+      }
+      htmlunitReportSpec({
+        name: spec.getFullName(),
+        passed: results.passed(),
+        message: getMessage(results),
+        duration: new Date().getTime() - (started[spec.id] || 0)
+      });
+    },
+    reportSuiteResults: function () {},
+    reportRunnerResults: function () {},
+    log: function () {}
+  });
+}());
@@ -0,0 +1,35 @@
+/** Reports QUnit tests to the test runner through the htmlunitReportSpec
+ * function. It must be loaded after QUnit. It does nothing if the function
+ * isn't available, for instance in debug mode.
+ */
+(function () {
+  var messages = [];
+  var started = 0;
+
+  if (typeof htmlunitReportSpec === "undefined"
+      || typeof QUnit === "undefined") {
+    return;
+  }
+
+  QUnit.testStart(function () {
+    messages = [];
+    started = new Date().getTime();
+  });
+
+  QUnit.log(function (details) {
+    if (!details.result) {
+      messages.push(details.message || "Expected " + details.expected
+        + ", actual " + details.actual);
+    }
+  });
+
+  QUnit.testDone(function (details) {
+    htmlunitReportSpec({
+      name: details.module ? details.module + " " + details.name
+        : details.name,
+      passed: details.failed === 0,
+      message: messages.length > 0 ? messages.join("\n") : null,
+      duration: new Date().getTime() - started
+    });
+  });
+}());
@@ -1,6 +1,11 @@
 (function () {
+  var events;
+
   var disconnect = function () {
     var xhr;
+    if (events) {
+      events.close();
+    }
     if (window.XMLHttpRequest) {
       xhr = new XMLHttpRequest();
     } else {
@@ -17,6 +22,63 @@
     xhr.send();
   };
 
+  /** Returns the script elements loaded from the specified url.
+   */
+  var findScripts = function (url) {
+    var scripts = document.getElementsByTagName("script");
+    var matches = [];
+    var i, src;
+    for (i = 0; i < scripts.length; i++) {
+      src = scripts[i].getAttribute("src");
+      if (src && src.indexOf("url=" + url) !== -1) {
+        matches.push(scripts[i]);
+      }
+    }
+    return matches;
+  };
+
+  /** Reloads changed scripts in place. If any changed resource is not a
+   * script in this page, the whole runner is reloaded.
+   */
+  var handleChange = function (event) {
+    var urls = event.data.split("\n");
+    var i, j, scripts, replacement, src;
+    for (i = 0; i < urls.length; i++) {
+      scripts = findScripts(urls[i]);
+      if (scripts.length === 0) {
+        window.location.reload();
+        return;
+      }
+      for (j = 0; j < scripts.length; j++) {
+        src = scripts[j].getAttribute("src").replace(/&reload=\d+$/, "");
+        replacement = document.createElement("script");
+        replacement.type = "text/javascript";
+        replacement.src = src + "&reload=" + new Date().getTime();
+        scripts[j].parentNode.replaceChild(replacement, scripts[j]);
+      }
+    }
+  };
+
+  /** Reloads the runner if its test changed.
+   */
+  var handleReload = function (event) {
+    var urls = event.data.split("\n");
+    var path = decodeURIComponent(window.location.pathname);
+    var i;
+    for (i = 0; i < urls.length; i++) {
+      if (path.indexOf(urls[i]) !== -1) {
+        window.location.reload();
+        return;
+      }
+    }
+  };
+
+  if (window.EventSource) {
+    events = new EventSource("/events/");
+    events.addEventListener("change", handleChange, false);
+    events.addEventListener("reload", handleReload, false);
+  }
+
   if (window.addEventListener) {
     window.addEventListener("beforeunload", disconnect);
   } else if (window.attachEvent) {
@@ -0,0 +1,511 @@
+package org.htmlunit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests the {@link NanoHTTPD} class.
+ */
+public class NanoHTTPDTest {
+
+  /** Number of concurrent requests. */
+  private static final int CONCURRENT_REQUESTS = 50;
+
+  /** Server port. */
+  private int port;
+
+  /** Server under test. */
+  private NanoHTTPD server;
+
+  /** File served by the <code>/file</code> path. */
+  private File file;
+
+  /** Stream served by the <code>/events</code> path. */
+  private final NanoHTTPD.EventStream events = new NanoHTTPD.EventStream();
+
+  /** Number of temporary files created by the server. */
+  private final AtomicInteger tempFiles = new AtomicInteger();
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("nanohttpd", ".bin");
+    startServer(NanoHTTPD.DEFAULT_KEEP_ALIVE_TIMEOUT);
+  }
+
+  @After
+  public void tearDown() {
+    server.stop();
+    file.delete();
+  }
+
+  /** Starts a new server and waits until it accepts connections.
+   * @param keepAliveTimeout Time an idle connection is kept open.
+   * @throws Exception If the server doesn't start.
+   */
+  private void startServer(final int keepAliveTimeout) throws Exception {
+    ServerSocket socket = new ServerSocket(0);
+    port = socket.getLocalPort();
+    socket.close();
+
+    server = new NanoHTTPD(port) {
+      @Override
+      public Response serve(final String uri, final Method method,
+          final Map<String, String> headers,
+          final Map<String, String> parms,
+          final Map<String, String> files) {
+        if (uri.equals("/events")) {
+          return new Response(events);
+        }
+        if (uri.equals("/fail")) {
+          throw new IllegalStateException("Failed.");
+        }
+        if (uri.equals("/file")) {
+          return new Response(Response.Status.OK, "application/octet-stream",
+              file);
+        }
+        if (uri.equals("/stream")) {
+          // A stream that doesn't know its length.
+          return new Response(Response.Status.OK, "text/plain",
+              new FilterInputStream(new ByteArrayInputStream(
+                  "streamed body".getBytes())) {
+                @Override
+                public int available() {
+                  return 1;
+                }
+              });
+        }
+        String body = method + " " + uri;
+        if (parms.containsKey("foo")) {
+          body += " foo=" + parms.get("foo");
+        }
+        if (parms.containsKey("repeat")) {
+          body = StringUtils.repeat(body,
+              Integer.parseInt(parms.get("repeat")));
+        }
+        return new Response(body);
+      }
+    };
+    server.setKeepAliveTimeout(keepAliveTimeout);
+    server.setTempFileManagerFactory(new NanoHTTPD.TempFileManagerFactory() {
+      @Override
+      public NanoHTTPD.TempFileManager create() {
+        return new NanoHTTPD.DefaultTempFileManager() {
+          @Override
+          public NanoHTTPD.TempFile createTempFile() throws Exception {
+            tempFiles.incrementAndGet();
+            return super.createTempFile();
+          }
+        };
+      }
+    });
+    runServer();
+  }
+
+  /** Runs the current server in a new thread and waits until it accepts
+   * connections.
+   * @throws Exception If the server doesn't start.
+   */
+  private void runServer() throws Exception {
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          server.start();
+        } catch (IOException cause) {
+          throw new RuntimeException(cause);
+        }
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+    waitForServer();
+  }
+
+  @Test
+  public void serve_concurrent() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(
+        CONCURRENT_REQUESTS);
+    List<Future<String>> results = new ArrayList<Future<String>>();
+
+    for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+      final String path = "/test/" + i;
+      results.add(executor.submit(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          return get(path);
+        }
+      }));
+    }
+    for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+      assertThat(results.get(i).get(), is("GET /test/" + i));
+    }
+    executor.shutdown();
+  }
+
+  @Test
+  public void serve_post() throws Exception {
+    assertThat(post("foo=bar\r\n"), is("POST /form foo=bar"));
+  }
+
+  @Test
+  public void serve_noTempFiles() throws Exception {
+    assertThat(get("/first"), is("GET /first"));
+    post("foo=bar\r\n");
+    assertThat(tempFiles.get(), is(0));
+  }
+
+  @Test
+  public void serve_largeBody() throws Exception {
+    server.setMaxMemoryBodySize(4);
+    assertThat(post("foo=bar\r\n"), is("POST /form foo=bar"));
+    assertThat(tempFiles.get(), is(1));
+  }
+
+  @Test
+  public void serve_largeBodyPipelined() throws Exception {
+    server.setMaxMemoryBodySize(4);
+    String response = send("POST /form HTTP/1.1\r\nHost: localhost\r\n"
+        + "Content-Type: application/x-www-form-urlencoded\r\n"
+        + "Content-Length: 9\r\n\r\nfoo=bar\r\n"
+        + "GET /second HTTP/1.1\r\nHost: localhost\r\n"
+        + "Connection: close\r\n\r\n");
+    assertThat(response.contains("\r\n\r\nPOST /form foo=bar"), is(true));
+    assertThat(response.endsWith("\r\n\r\nGET /second"), is(true));
+    assertThat(tempFiles.get(), is(1));
+  }
+
+  @Test
+  public void serve_bodyTooLarge() throws Exception {
+    server.setMaxBodySize(4);
+    String response = send("POST /form HTTP/1.1\r\nHost: localhost\r\n"
+        + "Content-Length: 100000000\r\n\r\nfoo");
+    assertThat(response.startsWith("HTTP/1.1 413 "), is(true));
+    assertThat(tempFiles.get(), is(0));
+  }
+
+  @Test
+  public void serve_invalidLength() throws Exception {
+    assertThat(send("POST /form HTTP/1.1\r\nHost: localhost\r\n"
+        + "Content-Length: -5\r\n\r\n").startsWith("HTTP/1.1 400 "),
+        is(true));
+    assertThat(send("POST /form HTTP/1.1\r\nHost: localhost\r\n"
+        + "Content-Length: foo\r\n\r\n").startsWith("HTTP/1.1 400 "),
+        is(true));
+  }
+
+  @Test
+  public void serve_chunked() throws Exception {
+    String response = send("GET /stream HTTP/1.1\r\nHost: localhost\r\n"
+        + "Connection: close\r\n\r\n");
+    assertThat(response.contains("Transfer-Encoding: chunked\r\n"),
+        is(true));
+    assertThat(response.contains("Content-Length"), is(false));
+    assertThat(response.endsWith("\r\n\r\nd\r\nstreamed body\r\n0\r\n\r\n"),
+        is(true));
+  }
+
+  @Test
+  public void serve_unknownLengthHttp10() throws Exception {
+    String response = send("GET /stream HTTP/1.0\r\n"
+        + "Connection: keep-alive\r\n\r\n");
+    assertThat(response.contains("Transfer-Encoding"), is(false));
+    assertThat(response.contains("Content-Length"), is(false));
+    assertThat(response.contains("Connection: close\r\n"), is(true));
+    assertThat(response.endsWith("\r\n\r\nstreamed body"), is(true));
+  }
+
+  @Test
+  public void serve_chunkedRequest() throws Exception {
+    assertThat(send("POST /form HTTP/1.1\r\nHost: localhost\r\n"
+        + "Transfer-Encoding: chunked\r\n\r\n3\r\nfoo\r\n0\r\n\r\n")
+        .startsWith("HTTP/1.1 411 "), is(true));
+    assertThat(send("POST /form HTTP/1.1\r\nHost: localhost\r\n"
+        + "Transfer-Encoding: gzip\r\n\r\n").startsWith("HTTP/1.1 501 "),
+        is(true));
+  }
+
+  @Test
+  public void serve_headerTooLarge() throws Exception {
+    String response = send("GET /first HTTP/1.1\r\nHost: localhost\r\n"
+        + "X-Foo: " + StringUtils.repeat("a", 10000) + "\r\n\r\n");
+    assertThat(response.startsWith("HTTP/1.1 400 "), is(true));
+  }
+
+  @Test
+  public void serve_pipelined() throws Exception {
+    Socket socket = new Socket("localhost", port);
+    try {
+      OutputStream output = socket.getOutputStream();
+      output.write(("GET /first HTTP/1.1\r\nHost: localhost\r\n\r\n"
+          + "GET /second HTTP/1.1\r\nHost: localhost\r\n"
+          + "Connection: close\r\n\r\n").getBytes("UTF-8"));
+      output.flush();
+
+      String response = IOUtils.toString(socket.getInputStream(), "UTF-8");
+      assertThat(response.startsWith("HTTP/1.1 200 OK"), is(true));
+      assertThat(response.contains("Connection: keep-alive"), is(true));
+      assertThat(response.contains("Content-Length: 10\r\n"), is(true));
+      assertThat(response.contains("\r\n\r\nGET /first"), is(true));
+      assertThat(response.endsWith("Connection: close\r\n\r\nGET /second"),
+          is(true));
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void serve_idleTimeout() throws Exception {
+    server.stop();
+    startServer(100);
+
+    Socket socket = new Socket("localhost", port);
+    try {
+      OutputStream output = socket.getOutputStream();
+      output.write("GET /first HTTP/1.1\r\nHost: localhost\r\n\r\n"
+          .getBytes("UTF-8"));
+      output.flush();
+
+      // Returns once the server closes the idle connection.
+      String response = IOUtils.toString(socket.getInputStream(), "UTF-8");
+      assertThat(response.endsWith("GET /first"), is(true));
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void serve_failure() throws Exception {
+    HttpURLConnection connection = (HttpURLConnection) new URL(
+        "http://localhost:" + port + "/fail").openConnection();
+    assertThat(connection.getResponseCode(), is(500));
+    connection.disconnect();
+
+    assertThat(get("/next"), is("GET /next"));
+  }
+
+  @Test
+  public void serve_restart() throws Exception {
+    assertThat(get("/first"), is("GET /first"));
+    server.stop();
+    runServer();
+    assertThat(get("/second"), is("GET /second"));
+  }
+
+  @Test
+  public void serve_compressed() throws Exception {
+    HttpURLConnection connection = (HttpURLConnection) new URL(
+        "http://localhost:" + port + "/big?repeat=200").openConnection();
+    connection.setRequestProperty("Accept-Encoding", "deflate, gzip");
+
+    assertThat(connection.getContentEncoding(), is("gzip"));
+    assertThat(connection.getHeaderField("Vary"), is("Accept-Encoding"));
+    InputStream input = new GZIPInputStream(connection.getInputStream());
+    try {
+      assertThat(IOUtils.toString(input, "UTF-8"),
+          is(StringUtils.repeat("GET /big", 200)));
+    } finally {
+      IOUtils.closeQuietly(input);
+    }
+  }
+
+  @Test
+  public void serve_belowCompressionThreshold() throws Exception {
+    HttpURLConnection connection = (HttpURLConnection) new URL(
+        "http://localhost:" + port + "/small").openConnection();
+    connection.setRequestProperty("Accept-Encoding", "gzip");
+
+    assertThat(connection.getContentEncoding(), nullValue());
+    InputStream input = connection.getInputStream();
+    try {
+      assertThat(IOUtils.toString(input, "UTF-8"), is("GET /small"));
+    } finally {
+      IOUtils.closeQuietly(input);
+    }
+  }
+
+  @Test
+  public void serve_file() throws Exception {
+    byte[] data = new byte[1024 * 1024];
+    new Random().nextBytes(data);
+    FileUtils.writeByteArrayToFile(file, data);
+
+    HttpURLConnection connection = (HttpURLConnection) new URL(
+        "http://localhost:" + port + "/file").openConnection();
+    assertThat(connection.getContentLength(), is(data.length));
+    InputStream input = connection.getInputStream();
+    try {
+      assertThat(Arrays.equals(IOUtils.toByteArray(input), data), is(true));
+    } finally {
+      IOUtils.closeQuietly(input);
+    }
+  }
+
+  @Test
+  public void serve_eventStream() throws Exception {
+    Socket socket = new Socket("localhost", port);
+    try {
+      OutputStream output = socket.getOutputStream();
+      output.write("GET /events HTTP/1.1\r\nHost: localhost\r\n\r\n"
+          .getBytes("UTF-8"));
+      output.flush();
+
+      InputStream input = socket.getInputStream();
+      String header = readUntil(input, "\r\n\r\n");
+      assertThat(header.contains("Content-Type: text/event-stream"),
+          is(true));
+      assertThat(header.contains("Content-Length"), is(false));
+      waitFor(1);
+
+      events.send("change", "foo\nbar");
+      assertThat(readUntil(input, "\n\n"),
+          is("event: change\ndata: foo\ndata: bar\n\n"));
+    } finally {
+      socket.close();
+    }
+    waitFor(0);
+  }
+
+  @Test
+  public void negotiateEncoding() {
+    assertThat(NanoHTTPD.negotiateEncoding(null), nullValue());
+    assertThat(NanoHTTPD.negotiateEncoding("identity"), nullValue());
+    assertThat(NanoHTTPD.negotiateEncoding("deflate, gzip"), is("gzip"));
+    assertThat(NanoHTTPD.negotiateEncoding("gzip;q=0, deflate"),
+        is("deflate"));
+    assertThat(NanoHTTPD.negotiateEncoding("*"), is("gzip"));
+  }
+
+  /** Reads the specified path from the server.
+   * @param path Path to read. Cannot be null.
+   * @return The response body, never returns null.
+   * @throws IOException If the request fails.
+   */
+  private String get(final String path) throws IOException {
+    InputStream input = new URL("http://localhost:" + port + path)
+        .openStream();
+    try {
+      return IOUtils.toString(input, "UTF-8");
+    } finally {
+      IOUtils.closeQuietly(input);
+    }
+  }
+
+  /** Posts a form to the server.
+   * @param body Form data. Cannot be null.
+   * @return The response body, never returns null.
+   * @throws IOException If the request fails.
+   */
+  private String post(final String body) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(
+        "http://localhost:" + port + "/form").openConnection();
+    connection.setDoOutput(true);
+    connection.setRequestMethod("POST");
+    connection.setRequestProperty("Content-Type",
+        "application/x-www-form-urlencoded");
+    OutputStream output = connection.getOutputStream();
+    output.write(body.getBytes("UTF-8"));
+    output.close();
+
+    InputStream input = connection.getInputStream();
+    try {
+      return IOUtils.toString(input, "UTF-8");
+    } finally {
+      IOUtils.closeQuietly(input);
+    }
+  }
+
+  /** Sends a raw request and reads the response until the server closes
+   * the connection.
+   * @param request Request to send. Cannot be null.
+   * @return The response, never returns null.
+   * @throws IOException If the request fails.
+   */
+  private String send(final String request) throws IOException {
+    Socket socket = new Socket("localhost", port);
+    try {
+      OutputStream output = socket.getOutputStream();
+      try {
+        output.write(request.getBytes("UTF-8"));
+        output.flush();
+      } catch (IOException cause) {
+        // The server may reject the request before it's sent completely.
+      }
+      return IOUtils.toString(socket.getInputStream(), "UTF-8");
+    } finally {
+      socket.close();
+    }
+  }
+
+  /** Reads from the input until the specified delimiter.
+   * @param input Input to read. Cannot be null.
+   * @param delimiter Delimiter to read. Cannot be null.
+   * @return The data read, including the delimiter. Never returns null.
+   * @throws IOException If the input cannot be read.
+   */
+  private String readUntil(final InputStream input, final String delimiter)
+      throws IOException {
+    StringBuilder data = new StringBuilder();
+    while (!data.toString().endsWith(delimiter)) {
+      int read = input.read();
+      if (read == -1) {
+        throw new IOException("Unexpected end of stream.");
+      }
+      data.append((char) read);
+    }
+    return data.toString();
+  }
+
+  /** Waits until the event stream has the specified number of clients.
+   * @param clients Expected number of clients.
+   * @throws Exception If the clients don't connect.
+   */
+  private void waitFor(final int clients) throws Exception {
+    for (int i = 0; i < 100 && events.getClientCount() != clients; i++) {
+      Thread.sleep(50);
+    }
+    assertThat(events.getClientCount(), is(clients));
+  }
+
+  /** Waits until the server accepts connections.
+   * @throws Exception If the server doesn't start.
+   */
+  private void waitForServer() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      try {
+        new Socket("localhost", port).close();
+        return;
+      } catch (IOException cause) {
+        Thread.sleep(50);
+      }
+    }
+    throw new IllegalStateException("Server not started.");
+  }
+}
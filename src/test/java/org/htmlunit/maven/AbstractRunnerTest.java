@@ -3,15 +3,29 @@ package org.htmlunit.maven;
 import static org.easymock.EasyMock.*;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.assertThat;
+import static org.junit.matchers.JUnitMatchers.containsString;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
 
 import org.antlr.stringtemplate.StringTemplate;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.htmlunit.javascript.EventHandler;
 import org.htmlunit.maven.AbstractRunner;
+import org.htmlunit.maven.AbstractRunner.RunnerCache;
 import org.htmlunit.maven.AbstractRunner.RunnerDriver;
+import org.htmlunit.maven.AbstractRunner.RunnerQueue;
+import org.htmlunit.maven.AbstractRunner.ScheduledTest;
 import org.htmlunit.maven.RunnerContext;
+import org.junit.After;
 import org.junit.Test;
 
 import com.gargoylesoftware.htmlunit.BrowserVersion;
@@ -25,6 +39,17 @@ import com.gargoylesoftware.htmlunit.javascript.host.Window;
  */
 public class AbstractRunnerTest {
 
+  /** Directory runners are written into; it's null if the test doesn't
+   * render runners. */
+  private File outputDirectory;
+
+  @After
+  public void tearDown() throws IOException {
+    if (outputDirectory != null) {
+      FileUtils.deleteDirectory(outputDirectory);
+    }
+  }
+
   @Test
   public void configuration() {
     final RunnerContext context = createMock(RunnerContext.class);
@@ -91,4 +116,118 @@ public class AbstractRunnerTest {
     }, false);
     runner.run();
   }
+
+  @Test
+  public void mergeResults() throws Exception {
+    URL test = new URL("file:/foo/BarTest.js");
+    TestResult passed = new TestResult(test, "FF17", 10, null);
+    TestResult failed = new TestResult(test, "FF17", 5,
+        new AssertionError("foo"));
+
+    TestResult result = AbstractRunner.mergeResults(Arrays.asList(passed,
+        passed), 2);
+    assertThat(result.getStatus(), is(TestResult.Status.PASSED));
+    assertThat(result.getDuration(), is(20L));
+
+    result = AbstractRunner.mergeResults(Arrays.asList(passed, failed), 2);
+    assertThat(result.getStatus(), is(TestResult.Status.FAILED));
+
+    // Shards that never ran don't count as passed.
+    result = AbstractRunner.mergeResults(Arrays.asList(passed), 2);
+    assertThat(result.getStatus(), is(TestResult.Status.SKIPPED));
+
+    result = AbstractRunner.mergeResults(Arrays.asList(failed), 2);
+    assertThat(result.getStatus(), is(TestResult.Status.FAILED));
+  }
+
+  @Test
+  public void runnerQueue() throws Exception {
+    final List<String> rendered = Collections.synchronizedList(
+        new ArrayList<String>());
+    AbstractRunner runner = new AbstractRunner() {
+      @Override
+      protected void loadTest(final StringTemplate runnerTemplate,
+          final URL test) {
+        rendered.add(Thread.currentThread().getName() + " " + test);
+      }
+    };
+    runner.initialize(createContext());
+    List<URL> tests = Arrays.asList(new URL("file:/foo/FirstTest.js"),
+        new URL("file:/foo/SecondTest.js"), new URL("file:/foo/ThirdTest.js"));
+
+    RunnerQueue queue = runner.new RunnerQueue(tests, 1,
+        runner.new RunnerCache(), 2);
+    try {
+      for (URL test : tests) {
+        for (int shard = 0; shard < 2; shard++) {
+          ScheduledTest scheduledTest = queue.next();
+          assertThat(scheduledTest.getTest(), is(test));
+          assertThat(scheduledTest.getShard(), is(shard));
+          assertThat(scheduledTest.getShards(), is(2));
+          assertThat(scheduledTest.getRunner().getFile(), containsString(
+              "/" + FilenameUtils.getBaseName(test.getFile()) + "-"));
+        }
+      }
+      assertThat(queue.next(), is(nullValue()));
+    } finally {
+      queue.close();
+    }
+    assertThat(rendered, is(Arrays.asList(
+        "htmlunit-runner-renderer file:/foo/FirstTest.js",
+        "htmlunit-runner-renderer file:/foo/SecondTest.js",
+        "htmlunit-runner-renderer file:/foo/ThirdTest.js")));
+  }
+
+  @Test
+  public void runnerQueue_close() throws Exception {
+    final CountDownLatch rendering = new CountDownLatch(1);
+    final List<URL> rendered = Collections.synchronizedList(
+        new ArrayList<URL>());
+    AbstractRunner runner = new AbstractRunner() {
+      @Override
+      protected void loadTest(final StringTemplate runnerTemplate,
+          final URL test) {
+        rendered.add(test);
+        rendering.countDown();
+        try {
+          // Blocks until the queue is closed.
+          new CountDownLatch(1).await();
+        } catch (InterruptedException cause) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    runner.initialize(createContext());
+    List<URL> tests = Arrays.asList(new URL("file:/foo/FirstTest.js"),
+        new URL("file:/foo/SecondTest.js"), new URL("file:/foo/ThirdTest.js"));
+
+    RunnerQueue queue = runner.new RunnerQueue(tests, 2,
+        runner.new RunnerCache(), 1);
+    ScheduledTest first = queue.next();
+    rendering.await();
+    queue.close();
+
+    assertThat(queue.next(), is(nullValue()));
+    assertThat(first.isCancelled(), is(false));
+    // Waits for the interrupted runner, pending runners never render.
+    first.getRunner();
+    assertThat(rendered, is(Arrays.asList(tests.get(0))));
+  }
+
+  /** Creates a context that writes runners into a new temporary directory,
+   * so runners are always rendered.
+   * @return A valid context, never returns null.
+   * @throws IOException If the directory cannot be created.
+   */
+  private RunnerContext createContext() throws IOException {
+    outputDirectory = File.createTempFile("runners", "");
+    outputDirectory.delete();
+    outputDirectory.mkdirs();
+
+    RunnerContext context = new RunnerContext();
+    Properties runnerConfig = new Properties();
+    runnerConfig.put("outputDirectory", outputDirectory.getAbsolutePath());
+    context.setRunnerConfiguration(runnerConfig);
+    return context;
+  }
 }
@@ -4,6 +4,7 @@ import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.assertThat;
 
 import java.net.URL;
+import java.util.HashSet;
 import java.util.List;
 
 import org.htmlunit.maven.AntExpression;
@@ -34,4 +35,18 @@ public class ClassPathScannerTest {
     assertThat(resources.get(0).toString()
         .startsWith("classpath:org/codehaus/plexus/util"), is(true));
   }
+
+  @Test
+  public void list_index() {
+    AntExpression expression = new AntExpression(
+        "classpath:/org/codehaus/plexus/util/**/*.class");
+    JarEntryIndex index = new JarEntryIndex();
+
+    List<URL> expected = new ClassPathScanner(expression).list();
+    List<URL> resources = new ClassPathScanner(expression, index).list();
+    assertThat(new HashSet<URL>(resources),
+        is(new HashSet<URL>(expected)));
+    assertThat(new ClassPathScanner(expression, index).list().size(),
+        is(expected.size()));
+  }
 }
@@ -0,0 +1,54 @@
+package org.htmlunit.maven;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.junit.Test;
+
+/** Tests the {@link DelegatingURLStreamHandlerFactory} class.
+ */
+public class DelegatingURLStreamHandlerFactoryTest {
+
+  @Test
+  public void getInstance() {
+    assertThat(DelegatingURLStreamHandlerFactory.getInstance(),
+        sameInstance(DelegatingURLStreamHandlerFactory.getInstance()));
+  }
+
+  @Test
+  public void createURLStreamHandler() {
+    DelegatingURLStreamHandlerFactory factory =
+        DelegatingURLStreamHandlerFactory.getInstance();
+    ClassLoader classLoader = new URLClassLoader(new URL[] {},
+        getClass().getClassLoader());
+
+    factory.register(classLoader);
+    try {
+      assertThat(factory.createURLStreamHandler("classpath"),
+          instanceOf(sun.net.www.protocol.classpath.Handler.class));
+      assertThat(factory.createURLStreamHandler("foo"), nullValue());
+    } finally {
+      factory.unregister(classLoader);
+    }
+    assertThat(factory.createURLStreamHandler("classpath"), nullValue());
+  }
+
+  @Test
+  public void register_twice() {
+    DelegatingURLStreamHandlerFactory factory =
+        DelegatingURLStreamHandlerFactory.getInstance();
+    ClassLoader classLoader = new URLClassLoader(new URL[] {},
+        getClass().getClassLoader());
+
+    factory.register(classLoader);
+    factory.register(classLoader);
+    factory.unregister(classLoader);
+    assertThat(factory.createURLStreamHandler("classpath"),
+        notNullValue());
+    factory.unregister(classLoader);
+    assertThat(factory.createURLStreamHandler("classpath"), nullValue());
+  }
+}
@@ -0,0 +1,50 @@
+package org.htmlunit.maven;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.Test;
+
+/** Tests the {@link JarEntryIndex} class.
+ */
+public class JarEntryIndexTest {
+
+  @Test
+  public void getEntries() throws Exception {
+    File jar = File.createTempFile("index", ".jar");
+    try {
+      writeJar(jar, "foo/", "foo/bar.js");
+      JarEntryIndex index = new JarEntryIndex();
+
+      List<String> entries = index.getEntries(jar);
+      assertThat(entries, is(Arrays.asList("foo/", "foo/bar.js")));
+      assertThat(index.getEntries(jar), sameInstance(entries));
+
+      writeJar(jar, "baz.js");
+      jar.setLastModified(jar.lastModified() + 10000);
+      assertThat(index.getEntries(jar), is(Arrays.asList("baz.js")));
+    } finally {
+      jar.delete();
+    }
+  }
+
+  private void writeJar(final File jar, final String... names)
+      throws Exception {
+    JarOutputStream output = new JarOutputStream(new FileOutputStream(jar));
+    try {
+      for (String name : names) {
+        output.putNextEntry(new ZipEntry(name));
+        output.closeEntry();
+      }
+    } finally {
+      output.close();
+    }
+  }
+}
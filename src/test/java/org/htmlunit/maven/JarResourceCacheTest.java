@@ -0,0 +1,64 @@
+package org.htmlunit.maven;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests the {@link JarResourceCache} class.
+ */
+public class JarResourceCacheTest {
+
+  private File cacheDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    cacheDirectory = File.createTempFile("jar-cache", "");
+    cacheDirectory.delete();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(cacheDirectory);
+  }
+
+  @Test
+  public void get() throws IOException {
+    String resource = "/com/gargoylesoftware/htmlunit/WebWindow.class";
+    byte[] expected = IOUtils.toByteArray(getClass()
+        .getResourceAsStream(resource));
+
+    JarResourceCache cache = new JarResourceCache(cacheDirectory);
+    File content = cache.get(new URL("classpath:" + resource));
+
+    assertThat(content, is(notNullValue()));
+    assertThat(FileUtils.readFileToByteArray(content), is(expected));
+    assertThat(FileUtils.listFiles(cacheDirectory, null, true).size(), is(1));
+
+    // Second read is served from the extracted copy.
+    assertThat(cache.get(new URL("classpath:" + resource)), is(content));
+    assertThat(new JarResourceCache(cacheDirectory)
+        .get(new URL("classpath:" + resource)), is(content));
+
+    // The resource is extracted again if the copy is deleted.
+    FileUtils.deleteDirectory(cacheDirectory);
+    assertThat(FileUtils.readFileToByteArray(
+        cache.get(new URL("classpath:" + resource))), is(expected));
+  }
+
+  @Test
+  public void get_notJarResource() throws IOException {
+    JarResourceCache cache = new JarResourceCache(cacheDirectory);
+    assertThat(cache.get(new URL("classpath:/org/htmlunit/maven/BarWidget.js")),
+        is(nullValue()));
+    assertThat(cacheDirectory.exists(), is(false));
+  }
+}
@@ -0,0 +1,43 @@
+package org.htmlunit.maven;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/** Tests the {@link JsonResultReporter} class.
+ */
+public class JsonResultReporterTest {
+
+  @Test
+  public void report() throws Exception {
+    File file = File.createTempFile("results", ".jsonl");
+    TestResult passed = new TestResult(new URL("file:/foo/bar.js"), 10, null);
+    TestResult failed = new TestResult(new URL("file:/foo/baz.js"), 20,
+        new AssertionError("foo"));
+
+    try {
+      JsonResultReporter reporter = new JsonResultReporter(file);
+      reporter.open();
+      reporter.report(passed);
+      assertThat(FileUtils.readLines(file),
+          is(Arrays.asList(passed.toJson())));
+      reporter.report(failed);
+      reporter.close();
+
+      assertThat(FileUtils.readLines(file),
+          is(Arrays.asList(passed.toJson(), failed.toJson())));
+
+      reporter.open();
+      reporter.close();
+      assertThat(file.length(), is(0L));
+    } finally {
+      file.delete();
+    }
+  }
+}
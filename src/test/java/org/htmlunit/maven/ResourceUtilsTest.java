@@ -10,6 +10,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
 import org.junit.Test;
 
 /** Tests the {@link ResourceUtils} class.
@@ -30,6 +31,21 @@ public class ResourceUtilsTest {
     }
   }
 
+  @Test
+  public void readAsText_utf8() throws IOException {
+    File tempFile = File.createTempFile("foo", "bar");
+    String text = "espa\u00f1a \u20ac";
+
+    try {
+      FileUtils.writeByteArrayToFile(tempFile, text.getBytes("UTF-8"));
+      assertThat(ResourceUtils.readAsText(tempFile), is(text));
+      assertThat(ResourceUtils.readAsText(tempFile.toURI().toURL()),
+          is(text));
+    } finally {
+      tempFile.delete();
+    }
+  }
+
   @Test
   public void isJarResource() {
     String fileResource = "/org/htmlunit/maven/TestRunner.js";
@@ -60,4 +76,89 @@ public class ResourceUtilsTest {
 
     assertThat(expectedTags.toString(), is(scriptTags));
   }
+
+  @Test
+  public void generateScriptTags_inline() throws Exception {
+    File tempFile = File.createTempFile("large", ".js");
+    URL small = new URL("classpath:/org/htmlunit/maven/BarWidget.js");
+    URL remote = new URL("http://foo.bar/remote.js");
+
+    try {
+      FileUtils.writeStringToFile(tempFile, StringUtils.repeat("x", 4096));
+      URL large = tempFile.toURI().toURL();
+      String scriptTags = ResourceUtils.generateScriptTags(
+          Arrays.asList(small, large, remote), 1024);
+
+      assertThat(scriptTags.contains("src=\"" + small + "\""), is(false));
+      assertThat(scriptTags.contains("PROP_BAR"), is(true));
+      assertThat(scriptTags.contains("//# sourceURL=" + small), is(true));
+      assertThat(scriptTags.contains("src=\"" + large + "\""), is(true));
+      assertThat(scriptTags.contains("src=\"" + remote + "\""), is(true));
+    } finally {
+      tempFile.delete();
+    }
+  }
+
+  @Test
+  public void generateScriptTags_escapesEndTags() throws Exception {
+    File tempFile = File.createTempFile("script", ".js");
+
+    try {
+      FileUtils.writeStringToFile(tempFile,
+          "var a = '</script>', b = '</SCRIPT >', c = '</Script';");
+      String scriptTags = ResourceUtils.generateScriptTags(
+          Arrays.asList(tempFile.toURI().toURL()), 1024);
+
+      assertThat(scriptTags.contains("var a = '<\\/script>',"
+          + " b = '<\\/SCRIPT >', c = '<\\/Script';"), is(true));
+      assertThat(scriptTags.endsWith("\n</script>"), is(true));
+    } finally {
+      tempFile.delete();
+    }
+  }
+
+  @Test
+  public void getContentType() throws Exception {
+    assertThat(ResourceUtils.getContentType(
+        new URL("classpath:/org/htmlunit/maven/BarWidget.js")),
+        is("application/javascript"));
+    assertThat(ResourceUtils.getContentType(new URL("file:/foo/Bar.PNG")),
+        is("image/png"));
+    assertThat(ResourceUtils.getContentType(new URL("file:/foo/bar.json")),
+        is("application/json"));
+    assertThat(ResourceUtils.getContentType(new URL("file:/foo/bar")),
+        is(ResourceUtils.DEFAULT_CONTENT_TYPE));
+  }
+
+  @Test
+  public void isTextContent() {
+    assertThat(ResourceUtils.isTextContent("text/css"), is(true));
+    assertThat(ResourceUtils.isTextContent("application/javascript"),
+        is(true));
+    assertThat(ResourceUtils.isTextContent("image/png"), is(false));
+  }
+
+  @Test
+  public void getFile() throws Exception {
+    File tempFile = File.createTempFile("foo", "bar");
+    tempFile.delete();
+
+    assertThat(ResourceUtils.getFile(tempFile.toURI().toURL()),
+        is(tempFile));
+    assertThat(ResourceUtils.getFile(new URL("classpath:/foo/bar.js")),
+        is(nullValue()));
+  }
+
+  @Test
+  public void hash_file() throws Exception {
+    File tempFile = File.createTempFile("foo", "bar");
+    byte[] data = StringUtils.repeat("foo", 10000).getBytes("UTF-8");
+    FileUtils.writeByteArrayToFile(tempFile, data);
+
+    try {
+      assertThat(ResourceUtils.hash(tempFile), is(ResourceUtils.hash(data)));
+    } finally {
+      tempFile.delete();
+    }
+  }
 }
@@ -0,0 +1,76 @@
+package org.htmlunit.maven;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests the {@link ResourceWatcher} class.
+ */
+public class ResourceWatcherTest {
+
+  /** Watched file. */
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("watched", ".js");
+    FileUtils.writeStringToFile(file, "var foo;");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void poll() throws Exception {
+    URL url = file.toURI().toURL();
+    ResourceWatcher watcher = new ResourceWatcher(Arrays.asList(url,
+        new URL("classpath:/org/htmlunit/maven/BarWidget.js")), 1000,
+        new ResourceWatcher.Listener() {
+          @Override
+          public void resourcesChanged(final List<URL> changes) {
+          }
+        });
+    assertThat(watcher.poll().isEmpty(), is(true));
+
+    file.setLastModified(file.lastModified() + 10000);
+    assertThat(watcher.poll(), is(Arrays.asList(url)));
+    assertThat(watcher.poll().isEmpty(), is(true));
+  }
+
+  @Test
+  public void start() throws Exception {
+    URL url = file.toURI().toURL();
+    final List<URL> notified = new ArrayList<URL>();
+    final CountDownLatch changed = new CountDownLatch(1);
+    ResourceWatcher watcher = new ResourceWatcher(Arrays.asList(url), 10,
+        new ResourceWatcher.Listener() {
+          @Override
+          public void resourcesChanged(final List<URL> changes) {
+            notified.addAll(changes);
+            changed.countDown();
+          }
+        });
+    watcher.start();
+    try {
+      file.setLastModified(file.lastModified() + 10000);
+      assertThat(changed.await(5, TimeUnit.SECONDS), is(true));
+      assertThat(notified, is(Arrays.asList(url)));
+    } finally {
+      watcher.stop();
+    }
+  }
+}
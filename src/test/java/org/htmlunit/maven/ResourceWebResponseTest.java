@@ -0,0 +1,70 @@
+package org.htmlunit.maven;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+
+/** Tests the {@link ResourceWebResponse} class.
+ */
+public class ResourceWebResponseTest {
+
+  @Test
+  public void classPathResource() throws IOException {
+    URL url = new URL("classpath:/org/htmlunit/maven/BarWidget.js");
+    WebResponse response = new ResourceWebResponse(new WebRequest(url));
+
+    assertThat(response.getStatusCode(), is(200));
+    assertThat(response.getContentType(), is("application/javascript"));
+    assertThat(response.getContentCharsetOrNull(), is("UTF-8"));
+    assertThat(response.getContentAsString().contains("PROP_BAR"), is(true));
+  }
+
+  @Test
+  public void textFile() throws IOException {
+    File file = File.createTempFile("script", ".js");
+
+    try {
+      FileUtils.writeStringToFile(file, "var name = \"\u00f1and\u00fa\";",
+          "UTF-8");
+      WebResponse response = new ResourceWebResponse(
+          new WebRequest(file.toURI().toURL()));
+
+      assertThat(response.getContentCharsetOrNull(), is("UTF-8"));
+      assertThat(response.getContentAsString(),
+          is("var name = \"\u00f1and\u00fa\";"));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void binaryFile() throws IOException {
+    byte[] data = new byte[] {(byte) 0x89, 'P', 'N', 'G', 0, (byte) 0xff};
+    File file = File.createTempFile("image", ".png");
+
+    try {
+      FileUtils.writeByteArrayToFile(file, data);
+      WebResponse response = new ResourceWebResponse(
+          new WebRequest(file.toURI().toURL()));
+
+      assertThat(response.getContentType(), is("image/png"));
+      assertThat(response.getContentCharsetOrNull(), is(nullValue()));
+      assertThat(IOUtils.toByteArray(response.getContentAsStream()),
+          is(data));
+      response.cleanUp();
+      assertThat(file.exists(), is(true));
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -5,9 +5,11 @@ import static org.junit.Assert.assertThat;
 
 import java.io.File;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugin.logging.SystemStreamLog;
 import org.junit.Test;
@@ -28,6 +30,24 @@ public class RunnerContextTest {
     assertThat(context.getLog(), is(nullValue()));
   }
 
+  @Test
+  public void browserVersions() {
+    RunnerContext context = new RunnerContext();
+    assertThat(context.getBrowserVersions(),
+        is(Arrays.asList(BrowserVersion.FIREFOX_17)));
+
+    context.setBrowserVersions(Arrays.asList(
+        BrowserVersion.INTERNET_EXPLORER_8, BrowserVersion.FIREFOX_17));
+    assertThat(context.getBrowserVersion(),
+        is(BrowserVersion.INTERNET_EXPLORER_8));
+    assertThat(context.getBrowserVersions(), is(Arrays.asList(
+        BrowserVersion.INTERNET_EXPLORER_8, BrowserVersion.FIREFOX_17)));
+
+    context.setBrowserVersion(BrowserVersion.CHROME);
+    assertThat(context.getBrowserVersions(),
+        is(Arrays.asList(BrowserVersion.CHROME)));
+  }
+
   @Test
   public void configure_default() throws Exception {
     RunnerContext context = new RunnerContext();
@@ -52,7 +72,57 @@ public class RunnerContextTest {
     assertThat(context.getSourceScripts().size(), is(0));
     assertThat(context.getTestRunnerScript(), is(nullValue()));
     assertThat(context.getTestFiles().size(), is(0));
+    assertThat(context.getRunnerLookahead(), is(2));
+    assertThat(context.getMaxFailures(), is(1));
     assertThat(context.getOutputDirectory(), is(notNullValue()));
+    assertThat(context.getReporters(), is(Arrays.asList("xml", "json")));
+    assertThat(context.getReportsDirectory(),
+        is(new File(context.getOutputDirectory(), "reports")));
+  }
+
+  @Test
+  public void configure_maxFailures() throws Exception {
+    RunnerContext context = new RunnerContext();
+    Properties runnerConfig = new Properties();
+    runnerConfig.put("outputDirectory", System.getProperty("java.io.tmpdir"));
+    runnerConfig.put("maxFailures", "5");
+
+    context.setRunnerConfiguration(runnerConfig);
+    context.init();
+    assertThat(context.getMaxFailures(), is(5));
+
+    runnerConfig.put("failFast", "false");
+    context.init();
+    assertThat(context.getMaxFailures(), is(0));
+  }
+
+  @Test
+  public void reloadResources() throws Exception {
+    File directory = File.createTempFile("tests", "");
+    directory.delete();
+    directory.mkdirs();
+
+    try {
+      FileUtils.writeStringToFile(new File(directory, "FooTest.js"), "");
+      RunnerContext context = new RunnerContext();
+      Properties runnerConfig = new Properties();
+      runnerConfig.put("outputDirectory",
+          System.getProperty("java.io.tmpdir"));
+      runnerConfig.put("testFiles", "file:" + directory.getAbsolutePath()
+          + "/*Test.js");
+      Properties webClientConfig = new Properties();
+      webClientConfig.setProperty("javaScriptEnabled", "true");
+      context.setWebClientConfiguration(webClientConfig);
+      context.setRunnerConfiguration(runnerConfig);
+      context.init();
+      assertThat(context.getTestFiles().size(), is(1));
+
+      FileUtils.writeStringToFile(new File(directory, "BarTest.js"), "");
+      context.reloadResources();
+      assertThat(context.getTestFiles().size(), is(2));
+    } finally {
+      FileUtils.deleteDirectory(directory);
+    }
   }
 
   @Test(expected = RuntimeException.class)
@@ -128,6 +198,8 @@ public class RunnerContextTest {
         "classpath:org/htmlunit/maven/*Test.js");
     runnerConfig.put("testRunnerTemplate", RunnerContext.DEFAULT_TEMPLATE
         + "foo");
+    runnerConfig.put("inlineScriptThreshold", "2048");
+    runnerConfig.put("runnerLookahead", "4");
 
     Properties webClientConfig = new Properties();
     webClientConfig.setProperty("javaScriptEnabled", "true");
@@ -161,6 +233,8 @@ public class RunnerContextTest {
     assertThat(contains(context.getSourceScripts(), "Widget.js"), is(true));
     assertThat(context.getTestFiles().size(), is(3));
     assertThat(contains(context.getTestFiles(), "WidgetTest.js"), is(true));
+    assertThat(context.getInlineScriptThreshold(), is(2048));
+    assertThat(context.getRunnerLookahead(), is(4));
     assertThat(context.getOutputDirectory(),
         is(new File(System.getProperty("java.io.tmpdir"))));
   }
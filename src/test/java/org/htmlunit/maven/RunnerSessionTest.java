@@ -0,0 +1,44 @@
+package org.htmlunit.maven;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+
+import org.junit.Test;
+
+/** Tests the {@link RunnerSession} class.
+ */
+public class RunnerSessionTest {
+
+  @Test
+  public void get() {
+    Object buildSession = new Object();
+    RunnerSession session = RunnerSession.get(buildSession);
+
+    assertThat(RunnerSession.get(buildSession), sameInstance(session));
+    assertThat(RunnerSession.get(new Object()), not(sameInstance(session)));
+  }
+
+  @Test
+  public void getClassLoader() {
+    RunnerSession session = RunnerSession.get(new Object());
+    ClassLoader classLoader = getClass().getClassLoader();
+
+    assertThat(session.getClassLoader("foo"), nullValue());
+    session.addClassLoader("foo", classLoader);
+    assertThat(session.getClassLoader("foo"), sameInstance(classLoader));
+    assertThat(session.getClassLoader("bar"), nullValue());
+  }
+
+  @Test
+  public void getJarResourceCache() {
+    RunnerSession session = RunnerSession.get(new Object());
+    File first = new File("first");
+
+    JarResourceCache cache = session.getJarResourceCache(first);
+    assertThat(cache.getCacheDirectory(), is(first));
+    assertThat(session.getJarResourceCache(new File("second")),
+        sameInstance(cache));
+  }
+}
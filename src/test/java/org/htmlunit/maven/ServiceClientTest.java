@@ -0,0 +1,175 @@
+package org.htmlunit.maven;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.matchers.JUnitMatchers.containsString;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/** Tests the {@link ServiceClient} class.
+ */
+public class ServiceClientTest {
+
+  @Test
+  public void parseResults() throws Exception {
+    URL test = new URL("file:/foo/bar.js");
+    String json = "{\"passed\":1,\"failed\":1,\"results\":["
+        + new TestResult(test, 10, null).toJson() + ","
+        + new TestResult(test, "IE8", 5, null).toJson() + ","
+        + new TestResult(test, 20, new AssertionError("\"a\"\n\u0001"))
+            .toJson() + "]}";
+
+    List<TestResult> results = ServiceClient.parseResults(json);
+    assertThat(results.size(), is(3));
+    assertThat(results.get(0).getTest(), is(test));
+    assertThat(results.get(0).isPassed(), is(true));
+    assertThat(results.get(0).getDuration(), is(10L));
+    assertThat(results.get(0).getBrowserVersion(), nullValue());
+    assertThat(results.get(1).getBrowserVersion(), is("IE8"));
+    assertThat(results.get(1).getDuration(), is(5L));
+    assertThat(results.get(2).isPassed(), is(false));
+    assertThat(results.get(2).getFailure().toString(),
+        is("java.lang.AssertionError: \"a\"\n\u0001"));
+  }
+
+  @Test
+  public void run_noService() throws Exception {
+    ServiceClient client = new ServiceClient("localhost", getFreePort());
+    assertThat(client.run("foo"), nullValue());
+    assertThat(client.getOutcome(), is(ServiceClient.Outcome.NOT_RUNNING));
+  }
+
+  @Test
+  public void run() throws Exception {
+    final URL test = new URL("file:/foo/bar.js");
+    int port = getFreePort();
+    final TestDebugServer server = new TestDebugServer(port,
+        Arrays.asList(test)) {
+      @Override
+      protected URL getRunner(final URL testFile) {
+        return null;
+      }
+      @Override
+      protected List<TestResult> runTests(final List<URL> tests) {
+        List<TestResult> results = new ArrayList<TestResult>();
+        for (URL testFile : tests) {
+          results.add(new TestResult(testFile, 1, null));
+        }
+        return results;
+      }
+      @Override
+      protected String getServiceKey() {
+        return "foo";
+      }
+    };
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          server.start();
+        } catch (IOException cause) {
+          throw new RuntimeException(cause);
+        }
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+
+    try {
+      waitForServer(port);
+      ServiceClient client = new ServiceClient("localhost", port);
+      List<TestResult> results = client.run("foo");
+      assertThat(results.size(), is(1));
+      assertThat(results.get(0).getTest(), is(test));
+      assertThat(client.getOutcome(), is(ServiceClient.Outcome.COMPLETED));
+      assertThat(client.run("bar"), nullValue());
+      assertThat(client.getOutcome(), is(ServiceClient.Outcome.CONFLICT));
+
+      assertThat(client.stop(), is(true));
+      thread.join(5000);
+      assertThat(thread.isAlive(), is(false));
+      assertThat(client.run("foo"), nullValue());
+      assertThat(client.getOutcome(), is(ServiceClient.Outcome.NOT_RUNNING));
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void run_readTimeout() throws Exception {
+    int port = getFreePort();
+    final CountDownLatch finish = new CountDownLatch(1);
+    final TestDebugServer server = new TestDebugServer(port,
+        new ArrayList<URL>()) {
+      @Override
+      protected URL getRunner(final URL testFile) {
+        return null;
+      }
+      @Override
+      protected List<TestResult> runTests(final List<URL> tests) {
+        try {
+          finish.await();
+        } catch (InterruptedException cause) {
+          throw new RuntimeException(cause);
+        }
+        return new ArrayList<TestResult>();
+      }
+    };
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          server.start();
+        } catch (IOException cause) {
+          throw new RuntimeException(cause);
+        }
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+
+    try {
+      waitForServer(port);
+      ServiceClient client = new ServiceClient("localhost", port);
+      client.setReadTimeout(200);
+      assertThat(client.run("foo"), nullValue());
+      assertThat(client.getOutcome(), is(ServiceClient.Outcome.FAILED));
+      assertThat(client.getFailure(),
+          containsString(SocketTimeoutException.class.getName()));
+    } finally {
+      finish.countDown();
+      server.stop();
+    }
+  }
+
+  private int getFreePort() throws IOException {
+    ServerSocket socket = new ServerSocket(0);
+    try {
+      return socket.getLocalPort();
+    } finally {
+      socket.close();
+    }
+  }
+
+  private void waitForServer(final int port) throws Exception {
+    for (int i = 0; i < 100; i++) {
+      try {
+        new Socket("localhost", port).close();
+        return;
+      } catch (IOException cause) {
+        Thread.sleep(50);
+      }
+    }
+    throw new IllegalStateException("Server not started.");
+  }
+}
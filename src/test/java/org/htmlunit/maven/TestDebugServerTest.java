@@ -5,6 +5,7 @@ import static org.junit.Assert.assertThat;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -14,8 +15,12 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 import org.htmlunit.NanoHTTPD.Method;
 import org.htmlunit.NanoHTTPD.Response;
 import org.htmlunit.NanoHTTPD.Response.Status;
@@ -72,6 +77,28 @@ public class TestDebugServerTest {
         is(true));
   }
 
+  @Test
+  public void handleStatic_file() throws IOException {
+    File file = File.createTempFile("static", ".js");
+    FileUtils.writeStringToFile(file, "var foo;");
+    TestDebugServer server = new TestDebugServer(1234, new ArrayList<URL>()) {
+      @Override
+      protected URL getRunner(final URL testFile) {
+        return null;
+      }
+    };
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("url", file.toURI().toURL().toString());
+    try {
+      Response response = server.handleStatic("/static", params);
+      assertThat(response.file, is(file));
+      assertThat(response.data, nullValue());
+      assertThat(response.header.get("ETag"), notNullValue());
+    } finally {
+      file.delete();
+    }
+  }
+
   @Test
   public void handleStatic_notFound() throws MalformedURLException {
     TestDebugServer server = new TestDebugServer(1234, new ArrayList<URL>()) {
@@ -109,6 +136,130 @@ public class TestDebugServerTest {
         is(true));
   }
 
+  @Test
+  public void serve_notModified() {
+    TestDebugServer server = new TestDebugServer(1234, new ArrayList<URL>()) {
+      @Override
+      protected URL getRunner(final URL testFile) {
+        return null;
+      }
+    };
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("url", "classpath:/org/htmlunit/maven/BarWidget.js");
+    Map<String, String> header = new HashMap<String, String>();
+
+    Response response = server.serve("/static/", Method.GET, header, params,
+        new HashMap<String, String>());
+    assertThat(response.status, is(Status.OK));
+    String eTag = response.header.get("ETag");
+    assertThat(eTag, notNullValue());
+
+    header.put("if-none-match", eTag);
+    response = server.serve("/static/", Method.GET, header, params,
+        new HashMap<String, String>());
+    assertThat(response.status, is(Status.NOT_MODIFIED));
+    assertThat(response.header.get("ETag"), is(eTag));
+    assertThat(response.data, nullValue());
+
+    header.put("if-none-match", "\"foo\"");
+    response = server.serve("/static/", Method.GET, header, params,
+        new HashMap<String, String>());
+    assertThat(response.status, is(Status.OK));
+  }
+
+  @Test
+  public void serve_notModifiedSince() throws IOException {
+    File file = File.createTempFile("static", ".js");
+    FileUtils.writeStringToFile(file, "var foo;");
+    TestDebugServer server = new TestDebugServer(1234, new ArrayList<URL>()) {
+      @Override
+      protected URL getRunner(final URL testFile) {
+        return null;
+      }
+    };
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("url", file.toURI().toURL().toString());
+    Map<String, String> header = new HashMap<String, String>();
+
+    try {
+      Response response = server.serve("/static/", Method.GET, header, params,
+          new HashMap<String, String>());
+      String lastModified = response.header.get("Last-Modified");
+      assertThat(lastModified, notNullValue());
+
+      header.put("if-modified-since", lastModified);
+      response = server.serve("/static/", Method.GET, header, params,
+          new HashMap<String, String>());
+      assertThat(response.status, is(Status.NOT_MODIFIED));
+
+      // Changes are detected by the file modification date.
+      FileUtils.writeStringToFile(file, "var bar;");
+      file.setLastModified(file.lastModified() + 10000);
+      response = server.serve("/static/", Method.GET, header, params,
+          new HashMap<String, String>());
+      assertThat(response.status, is(Status.OK));
+      assertThat(response.file, is(file));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void serve_compressed() throws IOException {
+    TestDebugServer server = new TestDebugServer(1234, new ArrayList<URL>()) {
+      @Override
+      protected URL getRunner(final URL testFile) {
+        return null;
+      }
+    };
+    server.setCompressionThreshold(0);
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("url", "classpath:/org/htmlunit/maven/BarWidget.js");
+    Map<String, String> header = new HashMap<String, String>();
+    header.put("accept-encoding", "gzip");
+
+    Response response = server.serve("/static/", Method.GET, header, params,
+        new HashMap<String, String>());
+    assertThat(response.header.get("Content-Encoding"), is("gzip"));
+    String eTag = response.header.get("ETag");
+    assertThat(eTag.endsWith("-gzip\""), is(true));
+    String content = IOUtils.toString(new GZIPInputStream(response.data));
+    assertThat(content.contains("PROP_BAR"), is(true));
+
+    header.put("if-none-match", eTag);
+    response = server.serve("/static/", Method.GET, header, params,
+        new HashMap<String, String>());
+    assertThat(response.status, is(Status.NOT_MODIFIED));
+    assertThat(response.header.get("ETag"), is(eTag));
+    assertThat(response.header.get("Content-Encoding"), nullValue());
+  }
+
+  @Test
+  public void serve_fileNotCompressed() throws IOException {
+    File file = File.createTempFile("static", ".js");
+    FileUtils.writeStringToFile(file, StringUtils.repeat("var foo;", 1000));
+    TestDebugServer server = new TestDebugServer(1234, new ArrayList<URL>()) {
+      @Override
+      protected URL getRunner(final URL testFile) {
+        return null;
+      }
+    };
+    server.setCompressionThreshold(0);
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("url", file.toURI().toURL().toString());
+    Map<String, String> header = new HashMap<String, String>();
+    header.put("accept-encoding", "gzip");
+
+    try {
+      Response response = server.serve("/static/", Method.GET, header, params,
+          new HashMap<String, String>());
+      assertThat(response.header.get("Content-Encoding"), nullValue());
+      assertThat(response.file, is(file));
+    } finally {
+      file.delete();
+    }
+  }
+
   @Test
   public void handleTest() throws MalformedURLException {
     URL url = new URL("classpath:/foo/bar.js");
@@ -128,6 +279,92 @@ public class TestDebugServerTest {
         is(true));
   }
 
+  @Test
+  public void handleTest_partialPath() throws MalformedURLException {
+    URL url = new URL("classpath:/foo/bar.js");
+    TestDebugServer server = new TestDebugServer(1234, Arrays.asList(
+        new URL("classpath:/foo/baz.js"), url)) {
+      @Override
+      protected URL getRunner(final URL testFile) {
+        try {
+          assertThat(testFile.toString(), is("classpath:/foo/bar.js"));
+          return new URL("classpath:/org/htmlunit/maven/BarWidget.js");
+        } catch (MalformedURLException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    for (String path : new String[] {"bar.js", "foo/bar.js", "/foo/bar.js",
+        "ar.js"}) {
+      Response response = server.handleTest("/test/" + path,
+          new HashMap<String, String>());
+      assertThat(response.status, is(Status.OK));
+    }
+  }
+
+  @Test
+  public void handleTest_cached() throws IOException {
+    File test = File.createTempFile("cached", "Test.js");
+    final List<URL> rendered = new ArrayList<URL>();
+    TestDebugServer server = new TestDebugServer(1234, Arrays.asList(
+        test.toURI().toURL())) {
+      @Override
+      protected URL getRunner(final URL testFile) {
+        rendered.add(testFile);
+        try {
+          return new URL("classpath:/org/htmlunit/maven/BarWidget.js");
+        } catch (MalformedURLException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    String uri = "/test/" + test.getName();
+    try {
+      Response response = server.handleTest(uri,
+          new HashMap<String, String>());
+      assertThat(response.header.get("ETag"), notNullValue());
+      assertThat(readResponse(response).contains("BarWidget"), is(true));
+      server.handleTest(uri, new HashMap<String, String>());
+      assertThat(rendered.size(), is(1));
+
+      test.setLastModified(test.lastModified() + 10000);
+      server.handleTest(uri, new HashMap<String, String>());
+      assertThat(rendered.size(), is(2));
+    } finally {
+      test.delete();
+    }
+  }
+
+  @Test
+  public void handleTest_scriptsChanged() throws IOException {
+    final List<URL> rendered = new ArrayList<URL>();
+    final String[] scriptsKey = new String[] {"foo.js:1"};
+    URL test = new URL("classpath:/foo/bar.js");
+    TestDebugServer server = new TestDebugServer(1234, Arrays.asList(test)) {
+      @Override
+      protected URL getRunner(final URL testFile) {
+        rendered.add(testFile);
+        try {
+          return new URL("classpath:/org/htmlunit/maven/BarWidget.js");
+        } catch (MalformedURLException e) {
+          throw new RuntimeException(e);
+        }
+      }
+
+      @Override
+      protected String getScriptsKey() {
+        return scriptsKey[0];
+      }
+    };
+    server.handleTest("/test/bar.js", new HashMap<String, String>());
+    server.handleTest("/test/bar.js", new HashMap<String, String>());
+    assertThat(rendered.size(), is(1));
+
+    scriptsKey[0] = "foo.js:2";
+    server.handleTest("/test/bar.js", new HashMap<String, String>());
+    assertThat(rendered.size(), is(2));
+  }
+
   @Test
   public void handleTest_notFound() throws MalformedURLException {
     URL url = new URL("classpath:/foo/bar.js");
@@ -183,6 +420,204 @@ public class TestDebugServerTest {
     assertThat(readResponse(response), is("bar"));
   }
 
+  @Test
+  public void serve_handlerFails() {
+    TestDebugServer server = new TestDebugServer(1234, new ArrayList<URL>()) {
+      @Override
+      protected URL getRunner(final URL testFile) {
+        return null;
+      }
+
+      @SuppressWarnings("unused")
+      public Response handleFoo(final String uri,
+          final Map<String, String> params) {
+        throw new IllegalStateException("Foo failed");
+      }
+    };
+
+    Response response = server.serve("/foo/", Method.GET,
+        new HashMap<String, String>(), new HashMap<String, String>(),
+        new HashMap<String, String>());
+
+    assertThat(response.status, is(Status.INTERNAL_ERROR));
+    assertThat(readResponse(response), is("Action failed: Foo failed"));
+  }
+
+  @Test
+  public void handleEvents() {
+    TestDebugServer server = new TestDebugServer(1234, new ArrayList<URL>()) {
+      @Override
+      protected URL getRunner(final URL testFile) {
+        return null;
+      }
+    };
+    Response response = server.serve(TestDebugServer.EVENTS_ENDPOINT,
+        Method.GET, new HashMap<String, String>(),
+        new HashMap<String, String>(), new HashMap<String, String>());
+    assertThat(response.mimeType, is("text/event-stream"));
+    assertThat(response.eventStream, notNullValue());
+  }
+
+  @Test
+  public void serve_route() {
+    TestDebugServer server = new TestDebugServer(1234, new ArrayList<URL>()) {
+      @Override
+      protected URL getRunner(final URL testFile) {
+        return null;
+      }
+    };
+    server.addRoute("foo", new TestDebugServer.RequestHandler() {
+      @Override
+      public Response handle(final String uri,
+          final Map<String, String> params) {
+        return new Response(uri + params.get("bar"));
+      }
+    });
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("bar", "baz");
+
+    Response response = server.serve("/foo/bar", Method.GET,
+        new HashMap<String, String>(), params,
+        new HashMap<String, String>());
+    assertThat(readResponse(response), is("/foo/barbaz"));
+
+    response = server.serve("/bar/", Method.GET,
+        new HashMap<String, String>(), params,
+        new HashMap<String, String>());
+    assertThat(response.status, is(Status.NOT_FOUND));
+  }
+
+  @Test
+  public void handleRun() throws MalformedURLException {
+    final URL foo = new URL("classpath:/foo/foo.js");
+    final URL bar = new URL("classpath:/foo/bar.js");
+    TestDebugServer server = new TestDebugServer(1234,
+        Arrays.asList(foo, bar)) {
+      @Override
+      protected URL getRunner(final URL testFile) {
+        return null;
+      }
+      @Override
+      protected List<TestResult> runTests(final List<URL> tests) {
+        assertThat(tests, is(Arrays.asList(bar, foo)));
+        return Arrays.asList(new TestResult(bar, 10, null),
+            new TestResult(foo, 20, new RuntimeException("\"foo\"")));
+      }
+    };
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("tests", "foo.js");
+
+    Response response = server.serve("/run/foo/bar.js", Method.POST,
+        new HashMap<String, String>(), params,
+        new HashMap<String, String>());
+    assertThat(response.mimeType, is("application/json"));
+    assertThat(readResponse(response), is("{\"passed\":1,\"failed\":1,"
+        + "\"results\":[{\"test\":\"classpath:/foo/bar.js\","
+        + "\"status\":\"passed\",\"duration\":10,\"message\":null},"
+        + "{\"test\":\"classpath:/foo/foo.js\",\"status\":\"failed\","
+        + "\"duration\":20,\"message\":"
+        + "\"java.lang.RuntimeException: \\\"foo\\\"\"}]}"));
+
+    params.put("tests", "baz.js");
+    response = server.serve("/run/", Method.POST,
+        new HashMap<String, String>(), params,
+        new HashMap<String, String>());
+    assertThat(response.status, is(Status.NOT_FOUND));
+  }
+
+  @Test
+  public void handleRun_key() {
+    TestDebugServer server = new TestDebugServer(1234, new ArrayList<URL>()) {
+      @Override
+      protected URL getRunner(final URL testFile) {
+        return null;
+      }
+      @Override
+      protected List<TestResult> runTests(final List<URL> tests) {
+        return new ArrayList<TestResult>();
+      }
+      @Override
+      protected String getServiceKey() {
+        return "foo";
+      }
+    };
+    Map<String, String> params = new HashMap<String, String>();
+    Response response = server.serve("/run/", Method.POST,
+        new HashMap<String, String>(), params,
+        new HashMap<String, String>());
+    assertThat(response.status, is(Status.FORBIDDEN));
+
+    params.put("key", "bar");
+    response = server.serve("/run/", Method.POST,
+        new HashMap<String, String>(), params,
+        new HashMap<String, String>());
+    assertThat(response.status, is(Status.CONFLICT));
+
+    params.put("key", "foo");
+    response = server.serve("/run/", Method.GET,
+        new HashMap<String, String>(), params,
+        new HashMap<String, String>());
+    assertThat(response.status, is(Status.METHOD_NOT_ALLOWED));
+    assertThat(response.header.get("Allow"), is("POST"));
+
+    response = server.serve("/run/", Method.POST,
+        new HashMap<String, String>(), params,
+        new HashMap<String, String>());
+    assertThat(response.status, is(Status.OK));
+  }
+
+  @Test
+  public void handleRun_notSupported() {
+    TestDebugServer server = new TestDebugServer(1234, new ArrayList<URL>()) {
+      @Override
+      protected URL getRunner(final URL testFile) {
+        return null;
+      }
+    };
+    Response response = server.serve("/run/", Method.POST,
+        new HashMap<String, String>(), new HashMap<String, String>(),
+        new HashMap<String, String>());
+    assertThat(response.status, is(Status.NOT_IMPLEMENTED));
+  }
+
+  @Test
+  public void handleRun_busy() throws Exception {
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch finish = new CountDownLatch(1);
+    final TestDebugServer server = new TestDebugServer(1234,
+        new ArrayList<URL>()) {
+      @Override
+      protected URL getRunner(final URL testFile) {
+        return null;
+      }
+      @Override
+      protected List<TestResult> runTests(final List<URL> tests) {
+        running.countDown();
+        try {
+          finish.await();
+        } catch (InterruptedException cause) {
+          throw new RuntimeException(cause);
+        }
+        return new ArrayList<TestResult>();
+      }
+    };
+    Thread execution = new Thread(new Runnable() {
+      public void run() {
+        server.serve("/run/", Method.POST, new HashMap<String, String>(),
+            new HashMap<String, String>(), new HashMap<String, String>());
+      }
+    });
+    execution.start();
+    running.await();
+
+    Response response = server.serve("/run/", Method.POST,
+        new HashMap<String, String>(), new HashMap<String, String>(),
+        new HashMap<String, String>());
+    assertThat(response.status, is(Status.SERVICE_UNAVAILABLE));
+    finish.countDown();
+    execution.join();
+  }
+
   @Test
   public void serve_default() {
     TestDebugServer server = new TestDebugServer(1234, new ArrayList<URL>()) {
@@ -0,0 +1,45 @@
+package org.htmlunit.maven;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/** Tests the {@link TestHistory} class.
+ */
+public class TestHistoryTest {
+
+  @Test
+  public void sort() throws Exception {
+    File file = File.createTempFile("history", ".properties");
+    file.delete();
+    URL fast = new URL("file:/fast.js");
+    URL slow = new URL("file:/slow.js");
+    URL failed = new URL("file:/failed.js");
+    URL added = new URL("file:/added.js");
+    List<URL> tests = Arrays.asList(fast, slow, failed, added);
+
+    try {
+      TestHistory history = new TestHistory(file);
+      assertThat(history.sort(tests, "FF17"), is(tests));
+
+      history.record(new TestResult(fast, "FF17", 10, null));
+      history.record(new TestResult(slow, "FF17", 500, null));
+      history.record(new TestResult(failed, "FF17", 5,
+          new AssertionError()));
+      history.save();
+
+      history = new TestHistory(file);
+      assertThat(history.sort(tests, "FF17"),
+          is(Arrays.asList(failed, added, slow, fast)));
+      assertThat(history.sort(tests, "IE8"), is(tests));
+    } finally {
+      file.delete();
+    }
+  }
+}
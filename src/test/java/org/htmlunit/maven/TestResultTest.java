@@ -0,0 +1,53 @@
+package org.htmlunit.maven;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.net.URL;
+
+import org.junit.Test;
+
+/** Tests the {@link TestResult} class.
+ */
+public class TestResultTest {
+
+  @Test
+  public void toJson() throws Exception {
+    TestResult result = new TestResult(new URL("file:/foo/bar.js"), 15, null);
+    assertThat(result.isPassed(), is(true));
+    assertThat(result.toJson(), is("{\"test\":\"file:/foo/bar.js\","
+        + "\"status\":\"passed\",\"duration\":15,\"message\":null}"));
+  }
+
+  @Test
+  public void toJson_failed() throws Exception {
+    TestResult result = new TestResult(new URL("file:/foo/bar.js"), 15,
+        new AssertionError("a\tb\n\u0001"));
+    assertThat(result.getStatus(), is(TestResult.Status.FAILED));
+    assertThat(result.toJson(), is("{\"test\":\"file:/foo/bar.js\","
+        + "\"status\":\"failed\",\"duration\":15,"
+        + "\"message\":\"java.lang.AssertionError: a\\tb\\n\\u0001\"}"));
+  }
+
+  @Test
+  public void toJson_browserVersion() throws Exception {
+    TestResult result = new TestResult(new URL("file:/foo/bar.js"), "FF17",
+        15, null);
+    assertThat(result.getBrowserVersion(), is("FF17"));
+    assertThat(result.toJson(), is("{\"test\":\"file:/foo/bar.js\","
+        + "\"browser\":\"FF17\",\"status\":\"passed\",\"duration\":15,"
+        + "\"message\":null}"));
+  }
+
+  @Test
+  public void toJson_skipped() throws Exception {
+    TestResult result = TestResult.skipped(new URL("file:/foo/bar.js"),
+        "FF17", 0);
+    assertThat(result.getStatus(), is(TestResult.Status.SKIPPED));
+    assertThat(result.isPassed(), is(false));
+    assertThat(result.isFailed(), is(false));
+    assertThat(result.toJson(), is("{\"test\":\"file:/foo/bar.js\","
+        + "\"browser\":\"FF17\",\"status\":\"skipped\",\"duration\":0,"
+        + "\"message\":null}"));
+  }
+}
@@ -0,0 +1,120 @@
+package org.htmlunit.maven;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.matchers.JUnitMatchers.containsString;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/** Tests the {@link XmlResultReporter} class.
+ */
+public class XmlResultReporterTest {
+
+  @Test
+  public void toXml() throws Exception {
+    TestResult result = new TestResult(new URL("file:/foo/BarTest.js"),
+        "FF17", 1500, null);
+    String xml = XmlResultReporter.toXml("BarTest", result);
+
+    assertThat(xml, containsString("<testsuite name=\"BarTest\" tests=\"1\" "
+        + "failures=\"0\" errors=\"0\" skipped=\"0\" time=\"1.500\">"));
+    assertThat(xml, containsString("<property name=\"test\" "
+        + "value=\"file:/foo/BarTest.js\"/>"));
+    assertThat(xml, containsString("<testcase name=\"FF17\" "
+        + "classname=\"BarTest\" time=\"1.500\"/>"));
+  }
+
+  @Test
+  public void toXml_failed() throws Exception {
+    URL test = new URL("file:/foo/BarTest.js");
+    String failure = XmlResultReporter.toXml("BarTest", new TestResult(test,
+        10, new AssertionError("expected <1>\u0001")));
+    String error = XmlResultReporter.toXml("BarTest", new TestResult(test,
+        10, new IllegalStateException("foo")));
+
+    assertThat(failure, containsString("failures=\"1\" errors=\"0\""));
+    assertThat(failure, containsString("<testcase name=\"BarTest\""));
+    assertThat(failure, containsString("<failure message=\"expected "
+        + "&lt;1&gt;\" type=\"java.lang.AssertionError\">"));
+    assertThat(error, containsString("failures=\"0\" errors=\"1\""));
+    assertThat(error, containsString("<error message=\"foo\" "
+        + "type=\"java.lang.IllegalStateException\">"));
+  }
+
+  @Test
+  public void toXml_skipped() throws Exception {
+    String xml = XmlResultReporter.toXml("BarTest", TestResult.skipped(
+        new URL("file:/foo/BarTest.js"), "FF17", 0));
+
+    assertThat(xml, containsString("failures=\"0\" errors=\"0\" "
+        + "skipped=\"1\""));
+    assertThat(xml, containsString("<skipped/>"));
+  }
+
+  @Test
+  public void report() throws Exception {
+    File directory = File.createTempFile("reports", "");
+    directory.delete();
+
+    try {
+      XmlResultReporter reporter = new XmlResultReporter(directory);
+      reporter.open();
+      reporter.report(new TestResult(new URL("file:/foo/BarTest.js"), "FF17",
+          10, null));
+      reporter.report(new TestResult(new URL("file:/foo/BarTest.js"), "IE8",
+          10, null));
+      reporter.close();
+
+      File[] reports = directory.listFiles();
+      assertThat(reports.length, is(2));
+      assertThat(reports[0].getName().startsWith("TEST-BarTest-"), is(true));
+      assertThat(FileUtils.readFileToString(reports[0]),
+          containsString("<testsuite name=\"BarTest\""));
+    } finally {
+      FileUtils.deleteDirectory(directory);
+    }
+  }
+
+  @Test
+  public void report_concurrent() throws Exception {
+    File directory = File.createTempFile("reports", "");
+    directory.delete();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    try {
+      final XmlResultReporter reporter = new XmlResultReporter(directory);
+      final TestResult result = new TestResult(
+          new URL("file:/foo/BarTest.js"), "FF17", 10, null);
+      reporter.open();
+      List<Future<Object>> reports = new ArrayList<Future<Object>>();
+      for (int i = 0; i < 20; i++) {
+        reports.add(executor.submit(new Callable<Object>() {
+          @Override
+          public Object call() {
+            reporter.report(result);
+            return null;
+          }
+        }));
+      }
+      for (Future<Object> report : reports) {
+        report.get();
+      }
+      reporter.close();
+
+      assertThat(directory.listFiles().length, is(1));
+    } finally {
+      executor.shutdown();
+      FileUtils.deleteDirectory(directory);
+    }
+  }
+}
@@ -1,15 +1,35 @@
 package org.htmlunit.maven.runner;
 
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.hamcrest.CoreMatchers.*;
 
+import java.io.File;
+import java.io.FileFilter;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Properties;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
+import org.htmlunit.maven.ResultReporter;
 import org.htmlunit.maven.RunnerContext;
+import org.htmlunit.maven.SpecResult;
+import org.htmlunit.maven.TestResult;
 import org.junit.Before;
 import org.junit.Test;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
 
+import com.gargoylesoftware.htmlunit.BrowserVersion;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
 
 /** Tests the {@link HtmlTestRunner} class.
@@ -53,4 +73,317 @@ public class HtmlTestRunnerTest {
     runner.run();
     assertThat(verified, is(true));
   }
+
+  @Test
+  public void run_deletesOutdatedRunners() throws Exception {
+    File directory = File.createTempFile("runners", "");
+    directory.delete();
+    directory.mkdirs();
+
+    try {
+      File test = new File(directory, "StaleTest.html");
+      FileUtils.copyURLToFile(getClass().getResource(
+          "/org/htmlunit/maven/FirstTest.html"), test);
+      context.getRunnerConfiguration().put("outputDirectory",
+          directory.getAbsolutePath());
+      context.getRunnerConfiguration().put("testFiles",
+          test.toURI().toString());
+      runner = new HtmlTestRunner();
+      runner.initialize(context);
+      runner.run();
+
+      test.setLastModified(test.lastModified() - 10000);
+      runner.run();
+
+      File[] runners = directory.listFiles((FileFilter)
+          new SuffixFileFilter("Runner.html"));
+      assertThat(runners.length, is(1));
+    } finally {
+      FileUtils.deleteDirectory(directory);
+    }
+  }
+
+  @Test
+  public void run_deletesRunnersOfPreviousBuilds() throws Exception {
+    File directory = File.createTempFile("runners", "");
+    directory.delete();
+    File otherDirectory = new File(directory, "other");
+    otherDirectory.mkdirs();
+
+    try {
+      File test = new File(directory, "StaleTest.html");
+      File otherTest = new File(otherDirectory, "StaleTest.html");
+      FileUtils.copyURLToFile(getClass().getResource(
+          "/org/htmlunit/maven/FirstTest.html"), test);
+      FileUtils.copyFile(test, otherTest);
+      context.getRunnerConfiguration().put("outputDirectory",
+          directory.getAbsolutePath());
+      context.getRunnerConfiguration().put("testFiles",
+          test.toURI().toString() + ";" + otherTest.toURI().toString());
+      runner = new HtmlTestRunner();
+      runner.initialize(context);
+      runner.run();
+
+      // A new runner instance, like the next build.
+      test.setLastModified(test.lastModified() - 10000);
+      context.getRunnerConfiguration().put("testFiles",
+          test.toURI().toString());
+      runner = new HtmlTestRunner();
+      runner.initialize(context);
+      runner.run();
+
+      // Runners of the test with the same name are kept.
+      File[] runners = directory.listFiles((FileFilter)
+          new SuffixFileFilter("Runner.html"));
+      assertThat(runners.length, is(2));
+    } finally {
+      FileUtils.deleteDirectory(directory);
+    }
+  }
+
+  @Test
+  public void run_concurrent() {
+    context.getRunnerConfiguration().put("threadCount", "2");
+    final Set<WebDriver> drivers = Collections.synchronizedSet(
+        new HashSet<WebDriver>());
+    final Set<URL> tests = Collections.synchronizedSet(new HashSet<URL>());
+
+    runner = new HtmlTestRunner() {
+      @Override
+      protected void testFinished(final URL test, final HtmlPage page) {
+        drivers.add(getDriver());
+        tests.add(test);
+      }
+    };
+    runner.initialize(context);
+    runner.run();
+    assertThat(tests.size(), is(2));
+    assertThat(drivers.size() > 0, is(true));
+  }
+
+  @Test
+  public void run_browserVersions() {
+    context.setBrowserVersions(Arrays.asList(BrowserVersion.FIREFOX_17,
+        BrowserVersion.INTERNET_EXPLORER_8));
+    final Set<String> runs = Collections.synchronizedSet(
+        new HashSet<String>());
+
+    runner = new HtmlTestRunner() {
+      @Override
+      protected void testFinished(final URL test, final HtmlPage page) {
+        runs.add(page.getWebClient().getBrowserVersion().getNickname()
+            + ":" + test);
+      }
+    };
+    runner.initialize(context);
+    runner.run();
+    assertThat(runs.size(), is(4));
+  }
+
+  @Test
+  public void run_testTimeout() {
+    context.getRunnerConfiguration().put("testFiles",
+        "classpath:org/htmlunit/maven/Hanging.html");
+    context.getRunnerConfiguration().put("testTimeout", "500");
+    runner = new HtmlTestRunner();
+    runner.initialize(context);
+
+    long start = System.currentTimeMillis();
+    try {
+      runner.run();
+      fail("The test must exceed the test timeout.");
+    } catch (TimeoutException cause) {
+      assertThat(System.currentTimeMillis() - start < 5000, is(true));
+    }
+
+    context.getRunnerConfiguration().put("testFiles",
+        "classpath:org/htmlunit/maven/FirstTest.html");
+    context.init();
+    // Runs in the driver that replaced the hung one.
+    runner.run();
+  }
+
+  @Test
+  public void run_testCpuTimeout() {
+    context.getRunnerConfiguration().put("testFiles",
+        "classpath:org/htmlunit/maven/Hanging.html");
+    context.getRunnerConfiguration().put("testCpuTimeout", "300");
+    runner = new HtmlTestRunner();
+    runner.initialize(context);
+    HtmlUnitDriver hungDriver = runner.getDriver();
+
+    long start = System.currentTimeMillis();
+    try {
+      runner.run();
+      fail("The test must exceed the CPU timeout.");
+    } catch (TimeoutException cause) {
+      assertThat(cause.getMessage().contains("CPU time"), is(true));
+      assertThat(System.currentTimeMillis() - start < 5000, is(true));
+    }
+    // The expired main driver is replaced.
+    assertThat(runner.getDriver() != hungDriver, is(true));
+  }
+
+  @Test
+  public void run_maxFailures() {
+    context.getRunnerConfiguration().put("testFiles",
+        "classpath:org/htmlunit/maven/Reporting.html;"
+        + "classpath:org/htmlunit/maven/Hanging.html");
+    context.getRunnerConfiguration().put("threadCount", "2");
+    final List<TestResult> results = Collections.synchronizedList(
+        new ArrayList<TestResult>());
+
+    runner = new HtmlTestRunner() {
+      @Override
+      protected List<ResultReporter> createReporters() {
+        return Arrays.<ResultReporter>asList(new ResultReporter() {
+          public void open() {
+          }
+          public void report(final TestResult result) {
+            results.add(result);
+          }
+          public void close() {
+          }
+        });
+      }
+    };
+    runner.initialize(context);
+
+    long start = System.currentTimeMillis();
+    try {
+      runner.run();
+      fail("The failed test must stop the execution.");
+    } catch (AssertionError cause) {
+      // The hung test is cancelled, it doesn't wait for the timeout.
+      assertThat(System.currentTimeMillis() - start < 5000, is(true));
+    }
+    Map<String, TestResult.Status> statuses =
+        new HashMap<String, TestResult.Status>();
+    for (TestResult result : results) {
+      String file = result.getTest().getFile();
+      statuses.put(file.substring(file.lastIndexOf('/') + 1),
+          result.getStatus());
+    }
+    assertThat(statuses.get("Reporting.html"), is(TestResult.Status.FAILED));
+    assertThat(statuses.get("Hanging.html"), is(TestResult.Status.SKIPPED));
+  }
+
+  @Test
+  public void run_specs() {
+    context.getRunnerConfiguration().put("testFiles",
+        "classpath:org/htmlunit/maven/Reporting.html");
+    final List<SpecResult> specs = new ArrayList<SpecResult>();
+    runner = new HtmlTestRunner() {
+      @Override
+      protected void specFinished(final URL test, final SpecResult spec) {
+        specs.add(spec);
+      }
+    };
+    runner.initialize(context);
+
+    try {
+      runner.run();
+      fail("The failed spec must fail the test.");
+    } catch (AssertionError cause) {
+      assertThat(cause.getMessage().contains(
+          "Widget closes: Expected true to be false."), is(true));
+    }
+    assertThat(specs.size(), is(2));
+    assertThat(specs.get(0).getName(), is("Widget renders"));
+    assertThat(specs.get(0).isPassed(), is(true));
+    assertThat(specs.get(0).getDuration(), is(5L));
+    assertThat(specs.get(1).isPassed(), is(false));
+  }
+
+  @Test
+  public void run_specShards() {
+    context.getRunnerConfiguration().put("testFiles",
+        "classpath:org/htmlunit/maven/Sharding.html");
+    context.getRunnerConfiguration().put("specShards", "2");
+    context.getRunnerConfiguration().put("threadCount", "2");
+    final Set<String> specs = Collections.synchronizedSet(
+        new HashSet<String>());
+    final List<TestResult> results = Collections.synchronizedList(
+        new ArrayList<TestResult>());
+    final List<String> finishedSpecs = Collections.synchronizedList(
+        new ArrayList<String>());
+
+    runner = new HtmlTestRunner() {
+      @Override
+      protected void specFinished(final URL test, final SpecResult spec) {
+        specs.add(spec.getName());
+      }
+
+      @Override
+      protected void specsFinished(final URL test,
+          final List<SpecResult> testSpecs) {
+        for (SpecResult spec : testSpecs) {
+          finishedSpecs.add(spec.getName());
+        }
+      }
+
+      @Override
+      protected List<ResultReporter> createReporters() {
+        return Arrays.<ResultReporter>asList(new ResultReporter() {
+          public void open() {
+          }
+          public void report(final TestResult result) {
+            results.add(result);
+          }
+          public void close() {
+          }
+        });
+      }
+    };
+    runner.initialize(context);
+    runner.run();
+    assertThat(specs, is((Set<String>) new HashSet<String>(Arrays.asList(
+        "Shard 0 of 2", "Shard 1 of 2"))));
+    // Invoked once, with the specs of all shards in shard order.
+    assertThat(finishedSpecs, is(Arrays.asList("Shard 0 of 2",
+        "Shard 1 of 2")));
+    assertThat(results.size(), is(1));
+    assertThat(results.get(0).isPassed(), is(true));
+  }
+
+  @Test
+  public void run_reuseRunners() throws Exception {
+    File outputDirectory = File.createTempFile("runners", "");
+    outputDirectory.delete();
+    context.getRunnerConfiguration().put("outputDirectory",
+        outputDirectory.getAbsolutePath());
+
+    try {
+      RecordingRunner firstRunner = new RecordingRunner();
+      firstRunner.initialize(context);
+      firstRunner.run();
+
+      assertThat(firstRunner.runners.size(), is(2));
+      Map<URL, Long> lastModified = new HashMap<URL, Long>();
+      for (URL runnerUrl : firstRunner.runners.values()) {
+        lastModified.put(runnerUrl, new File(runnerUrl.toURI()).lastModified());
+      }
+
+      RecordingRunner secondRunner = new RecordingRunner();
+      secondRunner.initialize(context);
+      secondRunner.run();
+
+      assertThat(secondRunner.runners, is(firstRunner.runners));
+      for (URL runnerUrl : secondRunner.runners.values()) {
+        assertThat(new File(runnerUrl.toURI()).lastModified(),
+            is(lastModified.get(runnerUrl)));
+      }
+    } finally {
+      FileUtils.deleteDirectory(outputDirectory);
+    }
+  }
+
+  private static class RecordingRunner extends HtmlTestRunner {
+    private Map<URL, URL> runners = new HashMap<URL, URL>();
+
+    @Override
+    protected void testFinished(final URL test, final HtmlPage page) {
+      runners.put(test, page.getUrl());
+    }
+  }
 }